@@ -0,0 +1,15 @@
+package gsrs.cache;
+
+import java.util.List;
+
+import gsrs.cache.GsrsCache.CacheStatistics;
+
+/**
+ * Anything holding a cache that can report how it's doing, one
+ * {@link CacheStatistics} per cache or tier it holds.
+ * Beans implementing this are listed by the cache statistics endpoint.
+ */
+public interface CacheStatisticsProvider {
+
+    List<CacheStatistics> getStatistics();
+}
@@ -0,0 +1,84 @@
+package gsrs.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import gsrs.cache.GsrsCache.CacheStatistics;
+
+/**
+ * Counts hits, misses and how long loading missed values takes
+ * for a cache that doesn't count them itself.
+ *
+ * Load times are kept in buckets doubling in size from 1 microsecond,
+ * so the percentiles are the upper end of a bucket, at most twice the real value.
+ */
+public class CacheStatsRecorder {
+
+    private static final int BUCKETS = 40;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder[] loadTimes = new LongAdder[BUCKETS];
+
+    public CacheStatsRecorder() {
+        for (int i = 0; i < BUCKETS; i++) {
+            loadTimes[i] = new LongAdder();
+        }
+    }
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void recordLoad(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        loadTimes[bucket].increment();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Set the hit, miss and load fields of the given statistics.
+     */
+    public CacheStatistics.CacheStatisticsBuilder addTo(CacheStatistics.CacheStatisticsBuilder builder) {
+        long[] counts = new long[BUCKETS];
+        long loads = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = loadTimes[i].sum();
+            loads += counts[i];
+        }
+        return builder.hitCount(hits.sum())
+                .missCount(misses.sum())
+                .loadCount(loads)
+                .loadTimeMedianMillis(percentile(counts, loads, 0.5))
+                .loadTime95thPercentileMillis(percentile(counts, loads, 0.95))
+                .loadTime99thPercentileMillis(percentile(counts, loads, 0.99));
+    }
+
+    private static double percentile(long[] counts, long total, double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                //bucket i holds times below 2^i microseconds
+                return (1L << i) / 1000.0;
+            }
+        }
+        return (1L << (counts.length - 1)) / 1000.0;
+    }
+}
@@ -9,7 +9,7 @@ import ix.utils.CallableUtil;
 import lombok.Builder;
 import lombok.Data;
 
-public interface GsrsCache extends Closeable {
+public interface GsrsCache extends Closeable, CacheStatisticsProvider {
     Object get(String key);
 
     Object getRaw(String key);
@@ -36,6 +36,24 @@ public interface GsrsCache extends Closeable {
 
     @SuppressWarnings("unchecked")
     <T> T getOrElseIfDirty(String key, CallableUtil.TypedCallable<T> generator) throws Exception;
+
+    /**
+     * Same as {@link #getOrElseRawIfDirty(String, CallableUtil.TypedCallable)} but the cached
+     * value is only dirty if the given entity, its kind or an entity it holds changed, see {@link #markChange(EntityUtils.Key)}.
+     * @param entityKey the entity the cached value was made from.
+     */
+    default <T> T getOrElseRawIfDirty(EntityUtils.Key entityKey, String key, CallableUtil.TypedCallable<T> generator) throws Exception{
+        return getOrElseRawIfDirty(key, generator);
+    }
+
+    /**
+     * Same as {@link #getOrElseIfDirty(String, CallableUtil.TypedCallable)} but the cached
+     * value is only dirty if the given entity, its kind or an entity it holds changed, see {@link #markChange(EntityUtils.Key)}.
+     * @param entityKey the entity the cached value was made from.
+     */
+    default <T> T getOrElseIfDirty(EntityUtils.Key entityKey, String key, CallableUtil.TypedCallable<T> generator) throws Exception{
+        return getOrElseIfDirty(key, generator);
+    }
 //
 //    @SuppressWarnings("unchecked")
 //    <T> T updateTemp(String key, T t) throws Exception;
@@ -52,6 +70,7 @@ public interface GsrsCache extends Closeable {
 
     Object getConfiguration();
     
+    @Override
     public List<CacheStatistics> getStatistics ();
     
     /**
@@ -61,6 +80,24 @@ public interface GsrsCache extends Closeable {
      * 
      */
     public void markChange();
+
+    /**
+     * Mark that a single entity changed. Only the values cached for that
+     * entity with the methods taking an entity key become dirty; caches
+     * which can't track that make everything dirty.
+     * @param key the key of the entity, it's turned into its root key.
+     */
+    default void markChange(EntityUtils.Key key){
+        markChange();
+    }
+
+    /**
+     * Mark that any entity of the given kind may have changed.
+     * @param kind the name of the root entity class.
+     */
+    default void markChangeOfKind(String kind){
+        markChange();
+    }
     
     public boolean hasBeenMarkedSince(long thistime);
     
@@ -72,6 +109,22 @@ public interface GsrsCache extends Closeable {
     	private long currentCacheElements;
     	private long timeToLive;
     	private long timeToIdle;
+    	//0 when the cache doesn't count them
+    	private long evictionCount;
+    	private long expiredCount;
+    	private long estimatedBytes;
+    	private long hitCount;
+    	private long missCount;
+    	//how many values had to be made or read because they weren't cached, and how long that took
+    	private long loadCount;
+    	private double loadTimeMedianMillis;
+    	private double loadTime95thPercentileMillis;
+    	private double loadTime99thPercentileMillis;
+
+    	public double getHitRate() {
+    		long total = hitCount + missCount;
+    		return total == 0 ? 0 : hitCount / (double) total;
+    	}
     	
     }
 }
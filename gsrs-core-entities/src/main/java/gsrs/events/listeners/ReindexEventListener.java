@@ -1,9 +1,13 @@
 package gsrs.events.listeners;
 
 import java.time.Duration;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import gsrs.events.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,7 +15,6 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import gov.nih.ncats.common.util.SingleThreadCounter;
 import gov.nih.ncats.common.util.TimeUtil;
 import lombok.extern.slf4j.Slf4j;
 
@@ -23,21 +26,68 @@ import lombok.extern.slf4j.Slf4j;
 @Service
 @Slf4j
 public class ReindexEventListener {
-    //because our event listeners have to do multiple operations
-    //on all of our fields in each method we synchronize on the method level
-    //so we don't need to use AtomicBoolean or ConcurrentHashMaps because we get no performance improvement from them.
-    private Map<UUID, SingleThreadCounter> reindexCounts = new HashMap<>();
+
+    private static final long PROGRESS_LOG_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    //IncrementReindexEvents come from every reindex worker thread so counting them
+    //doesn't lock; only starting and finishing a reindex, which are rare
+    //and change several fields at once, are synchronized.
+    private final Map<UUID, ReindexProgress> reindexCounts = new ConcurrentHashMap<>();
     private boolean inMaintenanceMode = false;
 
-    private Map<UUID, Long> reindexTimes = new HashMap<>();
     @Autowired
     private ApplicationEventPublisher applicationEventPublisher;
 
+    /**
+     * Counts the records processed for one reindex.
+     */
+    private static class ReindexProgress {
+        private final UUID id;
+        private final long expected;
+        private final long startTime = TimeUtil.getCurrentTimeMillis();
+        private final LongAdder done = new LongAdder();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final AtomicLong lastLogTime = new AtomicLong(startTime);
+
+        ReindexProgress(UUID id, long expected) {
+            this.id = id;
+            this.expected = expected;
+        }
+
+        /**
+         * Count one record.
+         * @return true only for the call which completed the reindex.
+         */
+        boolean increment() {
+            done.increment();
+            //sum() is only a few reads, and the last of any concurrent
+            //increments is guaranteed to see all the others
+            long count = done.sum();
+            if (count >= expected) {
+                return finished.compareAndSet(false, true);
+            }
+            logIfDue(count);
+            return false;
+        }
+
+        private void logIfDue(long count) {
+            long now = TimeUtil.getCurrentTimeMillis();
+            long last = lastLogTime.get();
+            if (now - last < PROGRESS_LOG_INTERVAL_MILLIS || !lastLogTime.compareAndSet(last, now)) {
+                return;
+            }
+            long elapsed = Math.max(1, now - startTime);
+            double perSecond = count * 1000D / elapsed;
+            long remainingMillis = perSecond > 0 ? (long) ((expected - count) * 1000 / perSecond) : 0;
+            log.info(String.format("reindex %s: %d of %d records, %.1f records/sec, about %s left",
+                    id, count, expected, perSecond, Duration.ofMillis(remainingMillis)));
+        }
+    }
+
     @EventListener
     public synchronized void onNewReindex(BeginReindexEvent event){
         long expected=event.getNumberOfExpectedRecord();
-        reindexCounts.put(event.getId(), new SingleThreadCounter(expected));
-        reindexTimes.put(event.getId(), TimeUtil.getCurrentTimeMillis());
+        reindexCounts.put(event.getId(), new ReindexProgress(event.getId(), expected));
 
         //todo: extract the concept of MaintenanceMode from the index maintenance
         if(event.getIndexBehavior()== BeginReindexEvent.IndexBehavior.WIPE_ALL_INDEXES && !inMaintenanceMode){
@@ -55,28 +105,27 @@ public class ReindexEventListener {
         if (expected == 0L) {
             finishReindexEvent(event.getId());
         }
-        
+
     }
-    
-    private void finishReindexEvent(UUID id) {
-        reindexCounts.remove(id);
+
+    private synchronized void finishReindexEvent(UUID id) {
+        ReindexProgress progress = reindexCounts.remove(id);
         applicationEventPublisher.publishEvent(new EndReindexEvent(id));
+        if(progress !=null) {
+            log.info("reindex for " + id + " took " + Duration.ofMillis(TimeUtil.getCurrentTimeMillis() - progress.startTime));
+        }
         if (reindexCounts.isEmpty()) {
             //done!
-            log.info("reindex for " + id + " took " + Duration.ofMillis(TimeUtil.getCurrentTimeMillis() - reindexTimes.remove(id)));
             inMaintenanceMode = false;
             applicationEventPublisher.publishEvent(new MaintenanceModeEvent(MaintenanceModeEvent.Mode.END));
         }
     }
 
     @EventListener
-    public synchronized void reindexEntity(IncrementReindexEvent event){
-        SingleThreadCounter c = reindexCounts.get(event.getId());
-        if(c !=null) {
-            c.decrement();
-            if (c.getAsLong() == 0L) {
-                finishReindexEvent(event.getId());
-            }
+    public void reindexEntity(IncrementReindexEvent event){
+        ReindexProgress c = reindexCounts.get(event.getId());
+        if(c !=null && c.increment()) {
+            finishReindexEvent(event.getId());
         }
     }
 }
@@ -0,0 +1,192 @@
+package gsrs.indexer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Walks every entity of a table for reindexing without loading the whole
+ * table into memory. Ids are read a page at a time using keyset pagination
+ * (the next page starts after the last id of the previous one), grouped into
+ * batches which are loaded with one query each, and handed to a fixed number
+ * of workers. The queue between the reader and the workers is bounded so
+ * reading never gets far ahead of indexing.
+ *
+ * <pre>
+ * StreamingReindexDriver.&lt;ImportMetadata, UUID&gt;builder()
+ *      .transactionManager(transactionManager)
+ *      .idPager((after, size) -&gt; ...)
+ *      .batchLoader(repository::findAllById)
+ *      .idFunction(ImportMetadata::getRecordId)
+ *      .build()
+ *      .execute(entity -&gt; ..., id -&gt; ...);
+ * </pre>
+ *
+ * @param <T> the entity type.
+ * @param <ID> the id type, which must be sorted the same way by the database.
+ */
+@Slf4j
+@Builder
+public class StreamingReindexDriver<T, ID extends Comparable<? super ID>> {
+
+    /**
+     * Reads the next page of ids in ascending order.
+     */
+    @FunctionalInterface
+    public interface IdPager<ID> {
+        /**
+         * @param after the last id of the previous page, or {@code null} for the first page.
+         * @param pageSize the maximum number of ids to return.
+         * @return the ids after {@code after}, sorted; fewer than pageSize means there are no more.
+         */
+        List<ID> nextPage(ID after, int pageSize);
+    }
+
+    /**
+     * Loads all the entities for a batch of ids with one query.
+     * Ids which don't exist anymore are just left out.
+     */
+    @FunctionalInterface
+    public interface BatchLoader<T, ID> {
+        List<T> load(List<ID> ids);
+    }
+
+    /**
+     * Transactions are read only and new for every page and every batch;
+     * without a transaction manager nothing is wrapped in a transaction.
+     */
+    private final PlatformTransactionManager transactionManager;
+
+    private final IdPager<ID> idPager;
+
+    private final BatchLoader<T, ID> batchLoader;
+
+    private final Function<T, ID> idFunction;
+
+    @Builder.Default
+    private final int pageSize = 1000;
+
+    @Builder.Default
+    private final int batchSize = 100;
+
+    @Builder.Default
+    private final int workerCount = 4;
+
+    //batches waiting for a worker, this bounds the memory used
+    @Builder.Default
+    private final int queueCapacity = 8;
+
+    /**
+     * Process every entity. This blocks until all of them are done.
+     * @param entityConsumer called with each entity, in the same transaction it was loaded in;
+     *                       exceptions are logged and don't stop the reindex.
+     * @param idDone called exactly once for every id that was read, after the transaction
+     *               its entity was processed in ended, even if it couldn't be loaded or
+     *               processing failed.
+     * @return the number of ids read.
+     * @throws InterruptedException if interrupted while waiting for the workers.
+     */
+    public long execute(Consumer<T> entityConsumer, Consumer<ID> idDone) throws InterruptedException {
+        int workers = Math.max(1, workerCount);
+        BlockingQueue<List<ID>> queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        List<ID> endMarker = Collections.emptyList();
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(pool.submit(() -> {
+                try {
+                    List<ID> batch;
+                    while ((batch = queue.take()) != endMarker) {
+                        processBatch(batch, entityConsumer, idDone);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        long count = 0;
+        try {
+            ID after = null;
+            while (true) {
+                ID last = after;
+                List<ID> ids = inTransaction(() -> idPager.nextPage(last, pageSize));
+                if (ids == null || ids.isEmpty()) {
+                    break;
+                }
+                for (int from = 0; from < ids.size(); from += batchSize) {
+                    //copy so the page can be garbage collected
+                    queue.put(new ArrayList<>(ids.subList(from, Math.min(ids.size(), from + batchSize))));
+                }
+                count += ids.size();
+                after = ids.get(ids.size() - 1);
+                if (ids.size() < pageSize) {
+                    break;
+                }
+            }
+        } finally {
+            for (int i = 0; i < workers; i++) {
+                queue.put(endMarker);
+            }
+            pool.shutdown();
+        }
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (Exception e) {
+                log.warn("reindex worker failed", e);
+            }
+        }
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        return count;
+    }
+
+    private void processBatch(List<ID> batch, Consumer<T> entityConsumer, Consumer<ID> idDone) {
+        try {
+            inTransaction(() -> {
+                for (T entity : batchLoader.load(batch)) {
+                    try {
+                        entityConsumer.accept(entity);
+                    } catch (Throwable t) {
+                        log.warn("indexing error handling:" + idFunction.apply(entity), t);
+                    }
+                }
+                return null;
+            });
+        } catch (Throwable t) {
+            log.warn("error loading reindex batch starting at " + batch.get(0), t);
+        } finally {
+            //only once the transaction ended, consumers may hold on to
+            //entities until then, like to write them as one batch
+            batch.forEach(idDone);
+        }
+    }
+
+    private <R> R inTransaction(Supplier<R> supplier) {
+        if (transactionManager == null) {
+            return supplier.get();
+        }
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        tx.setReadOnly(true);
+        return tx.execute(status -> supplier.get());
+    }
+}
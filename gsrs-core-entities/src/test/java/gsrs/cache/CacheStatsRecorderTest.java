@@ -0,0 +1,36 @@
+package gsrs.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import gsrs.cache.GsrsCache.CacheStatistics;
+
+public class CacheStatsRecorderTest {
+
+    @Test
+    public void percentilesAreTheUpperEndOfTheirBucket() {
+        CacheStatsRecorder recorder = new CacheStatsRecorder();
+        for (int i = 0; i < 98; i++) {
+            //1ms, in the bucket up to 1.024ms
+            recorder.recordLoad(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        //100ms, in the bucket up to 131.072ms
+        recorder.recordLoad(TimeUnit.MILLISECONDS.toNanos(100));
+        recorder.recordLoad(TimeUnit.MILLISECONDS.toNanos(100));
+        recorder.recordHit();
+        recorder.recordHit();
+        recorder.recordHit();
+        recorder.recordMiss();
+
+        CacheStatistics stats = recorder.addTo(CacheStatistics.builder().cacheName("test")).build();
+
+        assertEquals(100, stats.getLoadCount());
+        assertEquals(1.024, stats.getLoadTimeMedianMillis(), 0.0001);
+        assertEquals(1.024, stats.getLoadTime95thPercentileMillis(), 0.0001);
+        assertEquals(131.072, stats.getLoadTime99thPercentileMillis(), 0.0001);
+        assertEquals(0.75, stats.getHitRate(), 0.0001);
+    }
+}
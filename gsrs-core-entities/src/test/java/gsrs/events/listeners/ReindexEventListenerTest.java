@@ -0,0 +1,40 @@
+package gsrs.events.listeners;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gsrs.events.BeginReindexEvent;
+import gsrs.events.EndReindexEvent;
+import gsrs.events.IncrementReindexEvent;
+import gsrs.events.MaintenanceModeEvent;
+
+public class ReindexEventListenerTest {
+
+    @Test
+    public void concurrentIncrementsEndReindexExactlyOnce(){
+        List<Object> published = new CopyOnWriteArrayList<>();
+        ReindexEventListener listener = new ReindexEventListener();
+        ApplicationEventPublisher publisher = published::add;
+        ReflectionTestUtils.setField(listener, "applicationEventPublisher", publisher);
+
+        UUID id = UUID.randomUUID();
+        listener.onNewReindex(new BeginReindexEvent(id, 10_000, BeginReindexEvent.IndexBehavior.WIPE_ALL_INDEXES,
+                Collections.emptyList()));
+        //one extra which must be ignored
+        IntStream.range(0, 10_001)
+                .parallel()
+                .forEach(i -> listener.reindexEntity(new IncrementReindexEvent(id)));
+
+        assertEquals(1, published.stream().filter(e -> e instanceof EndReindexEvent).count());
+        assertEquals(2, published.stream().filter(e -> e instanceof MaintenanceModeEvent).count());
+    }
+}
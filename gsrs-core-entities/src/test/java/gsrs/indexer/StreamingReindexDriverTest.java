@@ -0,0 +1,72 @@
+package gsrs.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+public class StreamingReindexDriverTest {
+
+    private final List<Long> table = LongStream.rangeClosed(1, 2_345).boxed().collect(Collectors.toList());
+
+    private StreamingReindexDriver<Long, Long> driver(AtomicInteger queries) {
+        return StreamingReindexDriver.<Long, Long>builder()
+                .idPager((after, size) -> table.stream()
+                        .filter(id -> after == null || id > after)
+                        .limit(size)
+                        .collect(Collectors.toList()))
+                .batchLoader(ids -> {
+                    queries.incrementAndGet();
+                    //every 10th one was deleted
+                    return ids.stream().filter(id -> id % 10 != 0).collect(Collectors.toList());
+                })
+                .idFunction(id -> id)
+                .pageSize(500)
+                .batchSize(50)
+                .workerCount(3)
+                .build();
+    }
+
+    @Test
+    public void everyIdIsDoneOnceAndEveryEntityIsProcessed() throws InterruptedException {
+        AtomicInteger queries = new AtomicInteger();
+        Set<Long> processed = ConcurrentHashMap.newKeySet();
+        List<Long> done = new ArrayList<>();
+
+        long count = driver(queries).execute(processed::add, id -> {
+            synchronized (done) {
+                done.add(id);
+            }
+        });
+
+        assertEquals(table.size(), count);
+        assertEquals(table.size(), done.size());
+        assertEquals(table.size(), done.stream().distinct().count());
+        assertEquals(table.size() - table.size() / 10, processed.size());
+        assertTrue(processed.stream().noneMatch(id -> id % 10 == 0));
+        //one query per batch
+        assertEquals((table.size() + 49) / 50, queries.get());
+    }
+
+    @Test
+    public void processingErrorsStillMarkIdsDone() throws InterruptedException {
+        AtomicInteger queries = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+
+        driver(queries).execute(id -> {
+            if (id % 7 == 0) {
+                throw new IllegalStateException("bad record " + id);
+            }
+        }, id -> done.incrementAndGet());
+
+        assertEquals(table.size(), done.get());
+    }
+}
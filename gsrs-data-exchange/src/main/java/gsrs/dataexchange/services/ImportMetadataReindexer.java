@@ -4,33 +4,36 @@ import gsrs.events.BeginReindexEvent;
 import gsrs.events.EndReindexEvent;
 import gsrs.events.IncrementReindexEvent;
 import gsrs.events.ReindexEntityEvent;
+import gsrs.indexer.StreamingReindexDriver;
 import gsrs.stagingarea.model.ImportMetadata;
 import gsrs.stagingarea.repository.ImportMetadataRepository;
 import gsrs.scheduledTasks.SchedulerPlugin;
-import ix.core.EntityFetcher;
+import gov.nih.ncats.common.util.TimeUtil;
 import ix.core.util.EntityUtils;
 import lombok.Builder;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Slf4j
 public class ImportMetadataReindexer {
@@ -46,19 +49,53 @@ public class ImportMetadataReindexer {
     @Autowired
     ImportMetadataRepository importMetadataRepository;
 
+    //ids are read pageSize at a time, loaded batchSize at a time and
+    //at most queueCapacity batches wait for one of the workers
+    @Value("#{new Integer('${ix.reindex.workerCount:4}')}")
+    private int workerCount = 4;
+
+    @Value("#{new Integer('${ix.reindex.pageSize:1000}')}")
+    private int pageSize = 1000;
+
+    @Value("#{new Integer('${ix.reindex.batchSize:100}')}")
+    private int batchSize = 100;
+
+    @Value("#{new Integer('${ix.reindex.queueCapacity:8}')}")
+    private int queueCapacity = 8;
+
     private final Map<UUID, CountDownLatch> latchMap = new ConcurrentHashMap<>();
     private final Map<UUID, TaskProgress> listenerMap = new ConcurrentHashMap<>();
 
     @Data
     @Builder
     private static class TaskProgress{
+        //how often the listener gets a new message
+        private static final long MESSAGE_INTERVAL_MILLIS = 1000;
+
         private SchedulerPlugin.TaskListener listener;
         private UUID id;
         private long totalCount;
-        private long currentCount;
-
-        public synchronized void increment(){
-            listener.message("Indexed: " + (++currentCount) + " of " + totalCount);
+        @Builder.Default
+        private final long startTime = TimeUtil.getCurrentTimeMillis();
+        @Builder.Default
+        private final LongAdder currentCount = new LongAdder();
+        @Builder.Default
+        private final AtomicLong lastMessageTime = new AtomicLong();
+
+        //called by every worker thread so it doesn't lock, and only one
+        //thread a second builds the message
+        public void increment(){
+            currentCount.increment();
+            long now = TimeUtil.getCurrentTimeMillis();
+            long last = lastMessageTime.get();
+            long count = currentCount.sum();
+            if(count < totalCount && (now - last < MESSAGE_INTERVAL_MILLIS || !lastMessageTime.compareAndSet(last, now))){
+                return;
+            }
+            double perSecond = count * 1000D / Math.max(1, now - startTime);
+            long remainingMillis = perSecond > 0 ? (long) (Math.max(0, totalCount - count) * 1000 / perSecond) : 0;
+            listener.message(String.format("Indexed: %d of %d (%.1f records/sec, about %s left)",
+                    count, totalCount, perSecond, Duration.ofMillis(remainingMillis)));
         }
     }
     @Async
@@ -97,8 +134,6 @@ public class ImportMetadataReindexer {
                 .listener(l)
                 .build());
 
-        l.message("Initializing reindexing: acquiring list");
-
         LinkedBlockingDeque<Object> qevents = new LinkedBlockingDeque<>(1_000);
 
         Consumer<Object> eventConsumer;
@@ -114,83 +149,83 @@ public class ImportMetadataReindexer {
             };
         }
 
-        //This is hard-coded to 4 for now. It may be able to use the
-        //common forkjoin pool, but there are reasons to suspect that
-        //can overwhelm the application.
-        ForkJoinPool customThreadPool = new ForkJoinPool(4);
+        StreamingReindexDriver<ImportMetadata, UUID> driver = StreamingReindexDriver.<ImportMetadata, UUID>builder()
+                .transactionManager(transactionManager)
+                .idPager((after, size) -> after == null
+                        ? importMetadataRepository.getFirstRecordIds(PageRequest.of(0, size))
+                        : importMetadataRepository.getRecordIdsAfter(after, PageRequest.of(0, size)))
+                .batchLoader(importMetadataRepository::findAllById)
+                .idFunction(ImportMetadata::getRecordId)
+                .pageSize(pageSize)
+                .batchSize(batchSize)
+                .workerCount(workerCount)
+                .queueCapacity(queueCapacity)
+                .build();
+
+        //the driver blocks until it's done so it gets its own thread,
+        //this one waits for the end event below
+        ExecutorService driverThread = Executors.newSingleThreadExecutor();
         try {
-            customThreadPool.submit(
+            driverThread.execute(
                     () -> {
-                        TransactionTemplate txRetrieveList = new TransactionTemplate(transactionManager);
-                        txRetrieveList.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
-                        txRetrieveList.setReadOnly(true);
-
-                        List<ImportMetadata> blist=txRetrieveList.execute( t-> importMetadataRepository.findAll());
-                        List<UUID> idList=txRetrieveList.execute( t->
-                            importMetadataRepository.findAll().stream()
-                                    .map(i->i.getRecordId())
-                                    .collect(Collectors.toList())
-                        );
-
-                        TransactionTemplate tx = new TransactionTemplate(transactionManager);
-                        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
-                        tx.setReadOnly(true);
-                        tx.executeWithoutResult(stat->{
-
-                            log.trace("set reindexingCount to {}", idList.size());
-                            eventConsumer.accept(new BeginReindexEvent(reindexId, idList.size(), BeginReindexEvent.IndexBehavior.WIPE_SPECIFIC_INDEX,
+                        boolean finished = false;
+                        try {
+                            log.trace("set reindexingCount to {}", count);
+                            eventConsumer.accept(new BeginReindexEvent(reindexId, count, BeginReindexEvent.IndexBehavior.WIPE_SPECIFIC_INDEX,
                                     Collections.singletonList(ImportMetadata.class)));
-                            try(Stream<ImportMetadata> stream = blist.stream()){
-                                l.message("Initializing reindexing: beginning process");
-
-                                /*Stream<EntityUtils.EntityWrapper> ewStream=stream
-                                        .map(oo->EntityUtils.EntityWrapper.of(oo));*/
-
-                                Stream<UUID> uuidStream = idList.stream();
-                                uuidStream
-                                        .parallel()
-                                        .forEach(wrapper ->{
-                                            try {
-                                                EntityFetcher<?> fetcher = EntityFetcher.of(EntityUtils.Key.of(ImportMetadata.class, wrapper));
-                                                Optional<?> optionalImportMetadata= fetcher.getIfPossible();
-                                                if(optionalImportMetadata.isPresent()){
-                                                    EntityUtils.EntityWrapper<?> innerWrapper= EntityUtils.EntityWrapper.of(optionalImportMetadata.get());
-                                                    innerWrapper.traverse().execute((p, child) -> {
-                                                        log.trace("handling indexing of 'child' {}/{}", child.getKind(), child.getId());
-                                                        //this should speed up indexing so that we only index
-                                                        //things that are roots.  the actual indexing process of the root should handle any
-                                                        //child objects of that root.
-                                                        if (child.isEntity() && child.isRootIndex()) {
-                                                            try {
-                                                                log.trace("meets criteria for indexing");
-                                                                EntityUtils.Key key = child.getKey();
-                                                                String keyString = key.toString();
-
-                                                                // TODO add only index if it has a controller?
-                                                                // TP: actually, for subunits you need to index them even though there is no controller
-                                                                // however, you could argue there SHOULD be a controller for them
-                                                                if (seen.add(keyString)) {
-                                                                    //indexOneItem(reindexId, eventConsumer, key, child);
-                                                                    ReindexEntityEvent event = new ReindexEntityEvent(reindexId, key, Optional.of(child), false);
-                                                                    eventConsumer.accept(event);
-                                                                }
-                                                            } catch (Throwable t) {
-                                                                log.warn("indexing error handling:" + child, t);
-                                                            }
-                                                        }
-
-                                                    });
-                                                }
-                                            }catch(Throwable ee) {
-                                                log.warn("indexing error handling:" + wrapper, ee);
-                                            }finally {
-                                                log.trace("about to call eventConsumer.accept(new IncrementReindexEvent(reindexId))");
-                                                eventConsumer.accept(new IncrementReindexEvent(reindexId));
+                            l.message("Initializing reindexing: beginning process");
+
+                            long processed = driver.execute(importMetadata -> {
+                                EntityUtils.EntityWrapper<?> innerWrapper= EntityUtils.EntityWrapper.of(importMetadata);
+                                innerWrapper.traverse().execute((p, child) -> {
+                                    log.trace("handling indexing of 'child' {}/{}", child.getKind(), child.getId());
+                                    //this should speed up indexing so that we only index
+                                    //things that are roots.  the actual indexing process of the root should handle any
+                                    //child objects of that root.
+                                    if (child.isEntity() && child.isRootIndex()) {
+                                        try {
+                                            log.trace("meets criteria for indexing");
+                                            EntityUtils.Key key = child.getKey();
+                                            String keyString = key.toString();
+
+                                            // TODO add only index if it has a controller?
+                                            // TP: actually, for subunits you need to index them even though there is no controller
+                                            // however, you could argue there SHOULD be a controller for them
+                                            if (seen.add(keyString)) {
+                                                //indexOneItem(reindexId, eventConsumer, key, child);
+                                                ReindexEntityEvent event = new ReindexEntityEvent(reindexId, key, Optional.of(child), false);
+                                                eventConsumer.accept(event);
                                             }
-                                        });
+                                        } catch (Throwable t) {
+                                            log.warn("indexing error handling:" + child, t);
+                                        }
+                                    }
+
+                                });
+                            }, recordId -> {
+                                log.trace("about to call eventConsumer.accept(new IncrementReindexEvent(reindexId))");
+                                eventConsumer.accept(new IncrementReindexEvent(reindexId));
+                            });
+                            //records deleted while reindexing still have to be counted
+                            //or the end event never fires
+                            for(long i = processed; i < count; i++) {
+                                eventConsumer.accept(new IncrementReindexEvent(reindexId));
+                            }
+                            finished = true;
+                        } catch (Throwable t) {
+                            //the increments won't add up now, so end the reindex here
+                            //or the listeners and the wait below never finish
+                            log.warn("reindexing failed", t);
+                            try {
+                                eventConsumer.accept(new EndReindexEvent(reindexId));
+                            } catch (Throwable t2) {
+                                log.warn("could not end the failed reindex", t2);
+                            }
+                        } finally {
+                            if(!finished) {
+                                endLatch.countDown();
                             }
-                        });
-                        return true;
+                        }
                     });
 
             if(FORCE_SINGLE_THREADED_EVENT_HANDLING) {
@@ -203,6 +238,8 @@ public class ImportMetadataReindexer {
         }catch(Exception e) {
             log.warn("indexing error", e);
             endLatch.countDown();
+        }finally {
+            driverThread.shutdown();
         }
 
 
@@ -2,6 +2,7 @@ package gsrs.stagingarea.repository;
 
 import gsrs.stagingarea.model.ImportMetadata;
 import gsrs.repository.GsrsVersionedRepository;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
@@ -62,4 +63,14 @@ public interface ImportMetadataRepository extends GsrsVersionedRepository<Import
     @Query("select i.recordId from ImportMetadata i")
     List<UUID> getAllRecordIds();
 
+    /**
+     * Keyset pagination over the record ids, use {@link #getFirstRecordIds(Pageable)}
+     * for the first page and pass the last id of the previous page after that.
+     */
+    @Query("select i.recordId from ImportMetadata i where i.recordId > ?1 order by i.recordId")
+    List<UUID> getRecordIdsAfter(UUID after, Pageable page);
+
+    @Query("select i.recordId from ImportMetadata i order by i.recordId")
+    List<UUID> getFirstRecordIds(Pageable page);
+
 }
@@ -117,6 +117,7 @@ public class GsrsApiSelector implements ImportSelector {
         componentsToInclude.add(ExportController.class);
         componentsToInclude.add(SearchResultController.class);
         componentsToInclude.add(LogController.class);
+        componentsToInclude.add(CacheStatisticsController.class);
         componentsToInclude.add(GsrsAdminLogConfiguration.class);
 
         componentsToInclude.add(LoopbackWebRequestHelper.class);
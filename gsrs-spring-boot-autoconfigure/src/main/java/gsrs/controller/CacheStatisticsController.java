@@ -0,0 +1,38 @@
+package gsrs.controller;
+
+import gsrs.cache.CacheStatisticsProvider;
+import gsrs.cache.GsrsCache.CacheStatistics;
+import gsrs.security.canConfigureSystem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hits, misses, load times, sizes and estimated memory of every cache
+ * that reports them, grouped by the bean holding the cache.
+ */
+@RestController
+@canConfigureSystem
+public class CacheStatisticsController {
+
+    @Autowired(required = false)
+    private List<CacheStatisticsProvider> providers = Collections.emptyList();
+
+    @GetMapping(value={"api/v1/admin/caches","api/v1/admin/caches/"})
+    public Map<String, List<CacheStatistics>> getCacheStatistics(){
+        Map<String, List<CacheStatistics>> map = new LinkedHashMap<>();
+        for(CacheStatisticsProvider provider : providers){
+            //the real class, not the name of a proxy around it
+            String name = ClassUtils.getUserClass(provider).getSimpleName();
+            map.computeIfAbsent(name, k -> new ArrayList<>()).addAll(provider.getStatistics());
+        }
+        return map;
+    }
+}
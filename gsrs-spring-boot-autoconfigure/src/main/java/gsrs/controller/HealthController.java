@@ -163,12 +163,13 @@ public class HealthController {
                                                 .collect(Collectors.toList());
 
 //            app.cacheInfo = gsrsCache ==null? null: gsrsCache.getConfiguration();
-            app.detailedCacheInfo = gsrsCache ==null? null: gsrsCache.getStatistics();
-            app.cacheInfo = gsrsCache ==null? null: LegacyCacheInfo.builder()
-            		.maxCacheElements(gsrsCache.getStatistics().get(0).getCurrentCacheElements() + " of " + gsrsCache.getStatistics().get(0).getMaxCacheElements())
-            		.timeToIdle(gsrsCache.getStatistics().get(0).getTimeToIdle())
-            		.timeToLive(gsrsCache.getStatistics().get(0).getTimeToLive())
-            		.maxNotEvictableCacheElements(gsrsCache.getStatistics().stream().skip(1).findFirst().map(s->s.getCurrentCacheElements() + " of " + s.getMaxCacheElements()).orElse(null))
+            List<CacheStatistics> cacheStats = gsrsCache ==null? null: gsrsCache.getStatistics();
+            app.detailedCacheInfo = cacheStats;
+            app.cacheInfo = cacheStats ==null? null: LegacyCacheInfo.builder()
+            		.maxCacheElements(cacheStats.get(0).getCurrentCacheElements() + " of " + cacheStats.get(0).getMaxCacheElements())
+            		.timeToIdle(cacheStats.get(0).getTimeToIdle())
+            		.timeToLive(cacheStats.get(0).getTimeToLive())
+            		.maxNotEvictableCacheElements(cacheStats.stream().skip(1).findFirst().map(s->s.getCurrentCacheElements() + " of " + s.getMaxCacheElements()).orElse(null))
             		.build();
 //            app.cacheInfo = gsrsCache.
             return app;
@@ -0,0 +1,52 @@
+package gsrs.controller;
+
+import gsrs.cache.CacheStatisticsProvider;
+import gsrs.cache.GsrsCache.CacheStatistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class CacheStatisticsControllerTest {
+
+    public static class MyCacheHolder implements CacheStatisticsProvider {
+        @Override
+        public List<CacheStatistics> getStatistics() {
+            return Arrays.asList(
+                    CacheStatistics.builder().cacheName("first").currentCacheElements(3).hitCount(5).missCount(5).build(),
+                    CacheStatistics.builder().cacheName("second").maxCacheElements(10).build());
+        }
+    }
+
+    @Test
+    public void statisticsAreGroupedByProvider() throws Exception {
+        CacheStatisticsController controller = new CacheStatisticsController();
+        ReflectionTestUtils.setField(controller, "providers", Collections.singletonList(new MyCacheHolder()));
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        mvc.perform(get("/api/v1/admin/caches"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.MyCacheHolder.length()").value(2))
+                .andExpect(jsonPath("$.MyCacheHolder[0].cacheName").value("first"))
+                .andExpect(jsonPath("$.MyCacheHolder[0].currentCacheElements").value(3))
+                .andExpect(jsonPath("$.MyCacheHolder[0].hitRate").value(0.5))
+                .andExpect(jsonPath("$.MyCacheHolder[1].maxCacheElements").value(10));
+    }
+
+    @Test
+    public void noProvidersIsEmpty() throws Exception {
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(new CacheStatisticsController()).build();
+
+        mvc.perform(get("/api/v1/admin/caches/"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$").isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package gsrs.cache;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+
+import gsrs.cache.GsrsCache.CacheStatistics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Logs the statistics of every {@link CacheStatisticsProvider} bean every
+ * ix.cache.statistics.logInterval seconds, 0 (the default) turns it off.
+ */
+@Slf4j
+public class CacheStatisticsLogger {
+
+    private final ObjectProvider<CacheStatisticsProvider> providers;
+    private final int intervalSeconds;
+
+    private ScheduledExecutorService executor;
+
+    public CacheStatisticsLogger(ObjectProvider<CacheStatisticsProvider> providers,
+                                 @Value("${ix.cache.statistics.logInterval:0}") int intervalSeconds) {
+        this.providers = providers;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cache-statistics-logger");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::logSnapshot, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void logSnapshot() {
+        try {
+            providers.orderedStream()
+                    .flatMap(p -> p.getStatistics().stream())
+                    .forEach(s -> log.info(format(s)));
+        } catch (Exception e) {
+            log.warn("Trouble reading cache statistics", e);
+        }
+    }
+
+    static String format(CacheStatistics s) {
+        return String.format("cache %s: %d of %d entries, ~%d bytes, %d hits, %d misses (%.1f%% hit rate), "
+                        + "%d evicted, %d expired, %d loads taking %.3f/%.3f/%.3f ms (median/95th/99th)",
+                s.getCacheName(), s.getCurrentCacheElements(), s.getMaxCacheElements(), s.getEstimatedBytes(),
+                s.getHitCount(), s.getMissCount(), s.getHitRate() * 100,
+                s.getEvictionCount(), s.getExpiredCount(), s.getLoadCount(),
+                s.getLoadTimeMedianMillis(), s.getLoadTime95thPercentileMillis(), s.getLoadTime99thPercentileMillis());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
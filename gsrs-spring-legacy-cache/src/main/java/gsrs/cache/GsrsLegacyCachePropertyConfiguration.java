@@ -3,6 +3,7 @@ package gsrs.cache;
 import ix.core.cache.FileDbCache;
 import ix.core.cache.GateKeeper;
 import ix.core.cache.GateKeeperFactory;
+import ix.core.cache.TwoCacheGateKeeper;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -31,6 +32,7 @@ public class GsrsLegacyCachePropertyConfiguration {
 	public static final int DEFAULT_MAX_ELEMENTS = 10000;
     public static final int DEFAULT_TIME_TO_LIVE = 60*60; // 1hr
     public static final int DEFAULT_TIME_TO_IDLE = 60*60; // 1hr
+    public static final int DEFAULT_MAX_TRACKED_CHANGES = 100_000;
 
     private int maxElements = DEFAULT_MAX_ELEMENTS;
     private int maxElementsNotEvictable = DEFAULT_MAX_ELEMENTS;
@@ -42,12 +44,43 @@ public class GsrsLegacyCachePropertyConfiguration {
     private int debugLevel;
 
     private boolean clearpersist = true;
+
+    /*
+     * Only let new things into the evictable cache if they're asked for more
+     * often than what they'd push out, so one off scans like exports
+     * don't empty the cache of frequently viewed records.
+     */
+    private boolean frequencyAdmission = false;
+    /*
+     * The most the evictable values may weigh in (estimated) bytes,
+     * so a few huge search results can't use up the heap. 0 means
+     * only maxElements limits the evictable cache.
+     */
+    private long maxBytesEvictable = 0;
+    /*
+     * Limits for the values whose eviction type isn't known until they're made,
+     * anything left there longer or past the count is dropped.
+     */
+    private int maxElementsTemporary = TwoCacheGateKeeper.DEFAULT_TEMPORARY_MAX_ELEMENTS;
+    private int timeToLiveTemporary = TwoCacheGateKeeper.DEFAULT_TEMPORARY_TIME_TO_LIVE;
+
+    /*
+     * When true, an entity change only makes the values cached for that entity,
+     * and for the cached entities holding it, dirty. When false every change
+     * makes the whole cache dirty.
+     */
+    private boolean perKeyInvalidation = true;
+    //past this many tracked changes (or embedded entities) they are folded into one cache wide change
+    private int maxTrackedChanges = DEFAULT_MAX_TRACKED_CHANGES;
     private String base;
 
 
     public GateKeeper createNewGateKeeper(){
         GateKeeperFactory.Builder builder = new GateKeeperFactory.Builder( maxElements, timeToLive, timeToIdle)
                 .debugLevel(debugLevel)
+                .frequencyAdmission(frequencyAdmission)
+                .maxEvictableWeight(maxBytesEvictable)
+                .temporaryCache(maxElementsTemporary, timeToLiveTemporary)
                 .useNonEvictableCache(maxElementsNotEvictable,timeToLive,timeToIdle);
 
         if(useFileDb){
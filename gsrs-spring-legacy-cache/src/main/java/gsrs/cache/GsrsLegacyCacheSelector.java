@@ -10,6 +10,7 @@ public class GsrsLegacyCacheSelector implements ImportSelector {
         return new String[]{
                 GsrsLegacyCachePropertyConfiguration.class.getName(),
                 GsrsLegacyCacheConfiguration.class.getName(),
+                CacheStatisticsLogger.class.getName(),
                 LegacyUserTokenCache.class.getName()};
     }
 }
@@ -0,0 +1,13 @@
+package ix.core.cache;
+
+import java.io.IOException;
+
+/**
+ * Turns the values {@link FileDbCache} persists into bytes and back.
+ */
+public interface CacheValueCodec {
+
+    byte[] encode(Object value) throws IOException;
+
+    Object decode(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,11 @@
+package ix.core.cache;
+
+/**
+ * Estimates how much heap a cached value takes up, in bytes.
+ * This doesn't have to be exact but it has to be quick, it's called
+ * every time something is added to the evictable cache.
+ */
+public interface CacheWeigher {
+
+    long weigh(Object value);
+}
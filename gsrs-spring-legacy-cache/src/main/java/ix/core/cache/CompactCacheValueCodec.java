@@ -0,0 +1,199 @@
+package ix.core.cache;
+
+import ix.core.search.SearchResultContext;
+import ix.core.util.EntityUtils;
+import ix.core.util.EntityUtils.Key;
+import ix.utils.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes the values persisted most often (serialized search contexts,
+ * strings and ArrayLists of strings or entity keys) as a type byte followed by
+ * length prefixed fields, and everything else with java serialization.
+ *
+ * Java serialized values start with the serialization magic number,
+ * which none of the type bytes match, so values written before
+ * this codec existed can still be read.
+ */
+public class CompactCacheValueCodec implements CacheValueCodec {
+
+    private static final byte SEARCH_CONTEXT = 1;
+    private static final byte STRING = 2;
+    private static final byte STRING_LIST = 3;
+    private static final byte KEY_LIST = 4;
+
+    private static final byte ID_LONG = 1;
+    private static final byte ID_INTEGER = 2;
+    private static final byte ID_STRING = 3;
+    private static final byte ID_UUID = 4;
+
+    //first byte of ObjectOutputStream.STREAM_MAGIC
+    private static final byte JAVA_SERIALIZED = (byte) 0xAC;
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        //exact classes only, a subclass would come back as the class written here
+        Class<?> type = value == null ? null : value.getClass();
+        if (type == SearchResultContext.SerailizedSearchResultContext.class) {
+            SearchResultContext.SerailizedSearchResultContext ctx = (SearchResultContext.SerailizedSearchResultContext) value;
+            out.writeByte(SEARCH_CONTEXT);
+            writeString(out, ctx.generatingPath);
+            writeString(out, ctx.key);
+            writeString(out, ctx.id);
+        } else if (type == String.class) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (type == ArrayList.class && isListOf((List<?>) value, String.class)) {
+            List<?> list = (List<?>) value;
+            out.writeByte(STRING_LIST);
+            out.writeInt(list.size());
+            for (Object s : list) {
+                writeString(out, (String) s);
+            }
+        } else if (type == ArrayList.class && isListOf((List<?>) value, Key.class) && hasCompactIds((List<?>) value)) {
+            List<?> list = (List<?>) value;
+            out.writeByte(KEY_LIST);
+            out.writeInt(list.size());
+            for (Object o : list) {
+                Key k = (Key) o;
+                writeString(out, k.getEntityInfo().getEntityClass().getName());
+                writeId(out, k.getIdNative());
+            }
+        } else {
+            return Util.serialize(value);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
+        if (length > 0 && bytes[offset] == JAVA_SERIALIZED) {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+                return ois.readObject();
+            }
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+        byte type = in.readByte();
+        switch (type) {
+            case SEARCH_CONTEXT: {
+                SearchResultContext.SerailizedSearchResultContext ctx = new SearchResultContext.SerailizedSearchResultContext();
+                ctx.generatingPath = readString(in);
+                ctx.key = readString(in);
+                ctx.id = readString(in);
+                return ctx;
+            }
+            case STRING:
+                return readString(in);
+            case STRING_LIST: {
+                int n = in.readInt();
+                List<String> list = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    list.add(readString(in));
+                }
+                return list;
+            }
+            case KEY_LIST: {
+                int n = in.readInt();
+                List<Key> list = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    EntityUtils.EntityInfo<?> info = EntityUtils.getEntityInfoFor(readString(in));
+                    list.add(Key.of(info, readId(in)));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("unknown cache value type " + type);
+        }
+    }
+
+    private static boolean isListOf(List<?> list, Class<?> type) {
+        if (list.isEmpty()) {
+            //an empty list of strings reads back the same as any other empty list
+            return type == String.class;
+        }
+        for (Object o : list) {
+            if (!type.isInstance(o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasCompactIds(Collection<?> keys) {
+        for (Object o : keys) {
+            Object id = ((Key) o).getIdNative();
+            if (!(id instanceof Long || id instanceof Integer || id instanceof String || id instanceof UUID)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeId(DataOutputStream out, Object id) throws IOException {
+        if (id instanceof Long) {
+            out.writeByte(ID_LONG);
+            out.writeLong((Long) id);
+        } else if (id instanceof Integer) {
+            out.writeByte(ID_INTEGER);
+            out.writeInt((Integer) id);
+        } else if (id instanceof UUID) {
+            out.writeByte(ID_UUID);
+            out.writeLong(((UUID) id).getMostSignificantBits());
+            out.writeLong(((UUID) id).getLeastSignificantBits());
+        } else {
+            out.writeByte(ID_STRING);
+            writeString(out, (String) id);
+        }
+    }
+
+    private static Object readId(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case ID_LONG:
+                return in.readLong();
+            case ID_INTEGER:
+                return in.readInt();
+            case ID_UUID:
+                return new UUID(in.readLong(), in.readLong());
+            case ID_STRING:
+                return readString(in);
+            default:
+                throw new IOException("unknown key id type " + type);
+        }
+    }
+
+    //-1 length for null, writeUTF can't do strings over 64k
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            return null;
+        }
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
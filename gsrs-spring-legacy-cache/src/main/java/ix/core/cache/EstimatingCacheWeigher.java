@@ -0,0 +1,107 @@
+package ix.core.cache;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import gov.nih.ncats.common.util.CachedSupplier;
+import ix.core.search.SearchResult;
+import ix.core.search.SearchResultContext;
+import ix.core.util.EntityUtils.Key;
+
+/**
+ * Rough per type size estimates for the kinds of values the cache holds.
+ *
+ * Search results are weighed by how many keys they hold, strings by their length
+ * and collections by sampling their first elements. Anything else,
+ * like an entity, gets the default weight since working out its real size
+ * (say by turning it into JSON) would cost more than caching it saves.
+ */
+public class EstimatingCacheWeigher implements CacheWeigher {
+
+    public static final long DEFAULT_WEIGHT = 1024;
+
+    private static final long OBJECT_OVERHEAD = 16;
+    private static final long KEY_WEIGHT = 64;
+    private static final long SEARCH_RESULT_OVERHEAD = 4096;
+    private static final int SAMPLE_SIZE = 100;
+
+    private final long defaultWeight;
+
+    public EstimatingCacheWeigher() {
+        this(DEFAULT_WEIGHT);
+    }
+
+    /**
+     * @param defaultWeight the weight of values whose size isn't estimated.
+     */
+    public EstimatingCacheWeigher(long defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+
+    @Override
+    public long weigh(Object value) {
+        return weigh(value, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private long weigh(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CachedSupplier) {
+            CachedSupplier<Object> supplier = (CachedSupplier<Object>) value;
+            //don't make the value just to weigh it
+            return supplier.hasRun() ? weigh(supplier.get(), depth) : defaultWeight;
+        }
+        if (value instanceof String) {
+            return OBJECT_OVERHEAD + 24 + 2L * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return OBJECT_OVERHEAD + ((byte[]) value).length;
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+            return OBJECT_OVERHEAD;
+        }
+        if (value instanceof Key) {
+            return KEY_WEIGHT;
+        }
+        if (value instanceof SearchResult) {
+            return SEARCH_RESULT_OVERHEAD + KEY_WEIGHT * ((SearchResult) value).size();
+        }
+        if (value instanceof SearchResultContext) {
+            //the keys it found are kept in its search result
+            return SEARCH_RESULT_OVERHEAD;
+        }
+        //don't follow nested collections too far
+        if (depth < 3) {
+            if (value instanceof Collection) {
+                Collection<?> c = (Collection<?>) value;
+                return OBJECT_OVERHEAD + sampled(c.iterator(), c.size(), depth);
+            }
+            if (value instanceof Map) {
+                Map<?, ?> m = (Map<?, ?>) value;
+                return OBJECT_OVERHEAD + sampled(m.keySet().iterator(), m.size(), depth)
+                        + sampled(m.values().iterator(), m.size(), depth);
+            }
+        }
+        return defaultWeight;
+    }
+
+    /**
+     * Weigh the first few elements and assume the rest are about the same.
+     */
+    private long sampled(Iterator<?> it, int size, int depth) {
+        long total = 0;
+        int n = 0;
+        while (n < SAMPLE_SIZE && it.hasNext()) {
+            //8 bytes for the reference
+            total += 8 + weigh(it.next(), depth + 1);
+            n++;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        return total * size / n;
+    }
+}
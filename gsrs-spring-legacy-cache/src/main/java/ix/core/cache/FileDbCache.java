@@ -3,6 +3,9 @@ package ix.core.cache;
 import com.sleepycat.je.*;
 import gov.nih.ncats.common.Tuple;
 import gov.nih.ncats.common.util.CachedSupplier;
+import gsrs.cache.CacheStatisticsProvider;
+import gsrs.cache.CacheStatsRecorder;
+import gsrs.cache.GsrsCache;
 import gsrs.model.AbstractGsrsEntity;
 import ix.core.search.SearchResultContext;
 import ix.utils.Util;
@@ -13,30 +16,49 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.writer.writebehind.operations.SingleOperationType;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
 /**
  * Created by katzelda on 7/7/16.
+ *
+ * Writes are committed without waiting for the disk, they're flushed
+ * when the cache is disposed, since losing the last few
+ * cache entries in a crash only means computing them again.
  */
 @Slf4j
-public class FileDbCache implements GinasFileBasedCacheAdapter {
+public class FileDbCache implements GinasFileBasedCacheAdapter, CacheStatisticsProvider {
 
+    private static final Durability DEFERRED = Durability.COMMIT_NO_SYNC;
+
+    private Environment env;
     private Database db;
+    private final CacheValueCodec codec;
 
     private final File dir;
     private final String cacheName;
     private final boolean clearDb;
     private int serializableCount=0, notSerializableCount=0;
+    private final CacheStatsRecorder statsRecorder = new CacheStatsRecorder();
     
     public FileDbCache(File dir, String cacheName, boolean clearDb){
+        this(dir, cacheName, clearDb, new CompactCacheValueCodec());
+    }
+
+    public FileDbCache(File dir, String cacheName, boolean clearDb, CacheValueCodec codec){
         Objects.requireNonNull(dir);
         Objects.requireNonNull(cacheName);
+        Objects.requireNonNull(codec);
         this.clearDb= clearDb;
         this.cacheName = cacheName;
         this.dir = dir;
+        this.codec = codec;
     }
 
     private volatile boolean init=false;
@@ -51,17 +73,18 @@ public class FileDbCache implements GinasFileBasedCacheAdapter {
         }
         
         Element elm = null;
+        long start = System.nanoTime();
         try {
             DatabaseEntry dkey = getKeyEntry (key);
             DatabaseEntry data = new DatabaseEntry ();
             OperationStatus status = db.get(null, dkey, data, null);
             if (status == OperationStatus.SUCCESS) {
-                try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data.getData(), data.getOffset(), data.getSize()))) {
-                    elm = new Element(key, ois.readObject());
-                }
+                elm = new Element(key, codec.decode(data.getData(), data.getOffset(), data.getSize()));
+                statsRecorder.recordHit();
+                statsRecorder.recordLoad(System.nanoTime() - start);
             }
             else if (status == OperationStatus.NOTFOUND) {
-        
+                statsRecorder.recordMiss();
             }
             else {
                 log.warn("Unknown status for key "+key+": "+status);
@@ -77,6 +100,24 @@ public class FileDbCache implements GinasFileBasedCacheAdapter {
     	init(clearDb);
     }
 
+    @Override
+    public List<GsrsCache.CacheStatistics> getStatistics() {
+        GsrsCache.CacheStatistics.CacheStatisticsBuilder builder = GsrsCache.CacheStatistics.builder()
+                .cacheName("File Cache " + cacheName);
+        Database current = db;
+        if (init && current != null) {
+            try {
+                builder.currentCacheElements(current.count())
+                        //what's on disk, which includes space not cleaned yet
+                        .estimatedBytes(env.getStats(null).getTotalLogSize());
+            } catch (RuntimeException ex) {
+                //closed while we were reading it
+                log.warn("Can't read file cache statistics", ex);
+            }
+        }
+        return Collections.singletonList(statsRecorder.addTo(builder).build());
+    }
+
     public void init(boolean cleardb) {
     	if(init){
             return;
@@ -92,6 +133,8 @@ public class FileDbCache implements GinasFileBasedCacheAdapter {
 
         EnvironmentConfig envconf = new EnvironmentConfig ();
         envconf.setAllowCreate(true);
+        envconf.setTransactional(true);
+        envconf.setDurability(DEFERRED);
         
         try {
             Files.list(dir.toPath())
@@ -106,7 +149,7 @@ public class FileDbCache implements GinasFileBasedCacheAdapter {
         
         
         
-        Environment env = new Environment (dir, envconf);
+        env = new Environment (dir, envconf);
         if(cleardb){
 	        try{
 	        	env.removeDatabase(null, cacheName);
@@ -116,6 +159,7 @@ public class FileDbCache implements GinasFileBasedCacheAdapter {
         }
         DatabaseConfig dbconf = new DatabaseConfig ();
         dbconf.setAllowCreate(true);
+        dbconf.setTransactional(true);
         db = env.openDatabase(null, cacheName, dbconf);
         init=true;
     }
@@ -128,6 +172,8 @@ public class FileDbCache implements GinasFileBasedCacheAdapter {
                         +"; "+db.count()+" entries #####");
                 db.close();
                 db =null;
+                //writes were only committed to the log buffer
+                env.flushLog(true);
             }
             catch (Exception ex) {
                 log.error("Can't close lucene index!", ex);
@@ -137,7 +183,7 @@ public class FileDbCache implements GinasFileBasedCacheAdapter {
 
     
     static DatabaseEntry getKeyEntry (Object value) {
-        return new DatabaseEntry (value.toString().getBytes());
+        return new DatabaseEntry (value.toString().getBytes(StandardCharsets.UTF_8));
     }
     
     public static Optional<Tuple<Serializable,Object>> getSerializableObect(Element elm){
@@ -184,46 +230,82 @@ public class FileDbCache implements GinasFileBasedCacheAdapter {
     
     @Override
     public void write(Element elm) throws CacheException {
+        Optional<Tuple<DatabaseEntry, DatabaseEntry>> entry = encode(elm);
+        if (entry.isPresent()) {
+            put(null, entry.get(), elm);
+        }
+    }
+
+    /**
+     * @return the key and value to put, empty if the element can't or shouldn't be persisted.
+     */
+    private Optional<Tuple<DatabaseEntry, DatabaseEntry>> encode(Element elm) {
     	Optional<Tuple<Serializable,Object>> seralizable=getSerializableObect(elm);
     	
         if(!seralizable.isPresent()){
             notSerializableCount++;
-            return;
+            return Optional.empty();
         }
-        //System.out.println("Writing key:" + elm.getObjectKey());
         serializableCount++;
-        //TODO is this a safe cast?
-
 
         Serializable key = seralizable.get().k();
         Object value = seralizable.get().v();
         
-        if (key != null) {
-            //log.debug("Persisting cache key="+key+" value="+elm.getObjectValue());
-            try {
-                DatabaseEntry dkey = getKeyEntry (key);
-                DatabaseEntry data = new DatabaseEntry
-                        (Util.serialize(value));
-                OperationStatus status = db.put(null, dkey, data);
-                if (status != OperationStatus.SUCCESS) {
-                    log.warn
-                            ("** PUT for key " + key + " returns status " + status);
-                }
-            }catch (Exception ex) {
-                ex.printStackTrace();
-                log.error("Can't write cache element: key="
-                        +key+" value="+elm.getObjectValue(), ex);
-            }
-        }else {
+        if (key == null) {
             log.warn("Key "+elm.getObjectKey()+" isn't serializable!");
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Tuple.of(getKeyEntry(key), new DatabaseEntry(codec.encode(value))));
+        }catch (Exception ex) {
+            log.error("Can't write cache element: key="
+                    +key+" value="+elm.getObjectValue(), ex);
+            return Optional.empty();
+        }
+    }
+
+    private void put(Transaction txn, Tuple<DatabaseEntry, DatabaseEntry> entry, Element elm) {
+        try {
+            OperationStatus status = db.put(txn, entry.k(), entry.v());
+            if (status != OperationStatus.SUCCESS) {
+                log.warn
+                        ("** PUT for key " + elm.getObjectKey() + " returns status " + status);
+            }
+        }catch (Exception ex) {
+            log.error("Can't write cache element: key="
+                    +elm.getObjectKey(), ex);
         }
     }
 
+    /**
+     * Encodes all the elements first and then puts them in one transaction.
+     */
     @Override
     public void writeAll(Collection<Element> elements) throws CacheException {
-        //TODO is there a better way?
+        List<Tuple<DatabaseEntry, DatabaseEntry>> entries = new ArrayList<>(elements.size());
+        List<Element> written = new ArrayList<>(elements.size());
         for(Element e : elements){
-            write(e);
+            Optional<Tuple<DatabaseEntry, DatabaseEntry>> entry = encode(e);
+            if (entry.isPresent()) {
+                entries.add(entry.get());
+                written.add(e);
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        Transaction txn = env.beginTransaction(null, new TransactionConfig().setDurability(DEFERRED));
+        boolean committed = false;
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                put(txn, entries.get(i), written.get(i));
+            }
+            txn.commit();
+            committed = true;
+        } finally {
+            if (!committed) {
+                txn.abort();
+            }
         }
     }
 
@@ -0,0 +1,408 @@
+package ix.core.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import gsrs.cache.GsrsCache.CacheStatistics;
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.constructs.blocking.CacheEntryFactory;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import net.sf.ehcache.writer.CacheWriter;
+
+/**
+ * A {@link TwoCacheGateKeeper} which only lets things into the evictable
+ * cache if they are asked for more often than what they would push out
+ * (W-TinyLFU admission).
+ *
+ * New evictable values go into a small window first. When something falls
+ * out of the window it's compared with the least recently used value of
+ * the evictable cache using a {@link FrequencySketch} of recent lookups,
+ * and only the one asked for more often is kept. That way a single pass over
+ * many records, like an export, doesn't push out the records everyone keeps looking at.
+ *
+ * The evictable cache can also be bounded by an estimated size in bytes as well
+ * as by count, see {@link CacheWeigher}. Values are weighed when they leave the window,
+ * when they're put in they usually haven't been made yet, so the window
+ * is only bounded by count. Admitted values are weighed again once they're made
+ * and when they're replaced. With the admission filter turned off this is a plain
+ * least recently used cache with the weight bound.
+ *
+ * The evictable cache given to this gatekeeper must not be self populating,
+ * values are loaded from the cacheLoader on a miss so they go through the window too.
+ *
+ * Lookups don't take the lock, they're buffered and counted in the
+ * frequency sketch the next time the lock is free or something is put in.
+ * Values the evictable cache drops on its own, when they expire, are
+ * forgotten the same way.
+ */
+@Slf4j
+public class FrequencyAdmissionGateKeeper extends TwoCacheGateKeeper {
+
+    private final Ehcache evictableCache;
+    private final CacheEntryFactory cacheLoader;
+    private final int windowSize;
+    private final int mainSize;
+    private final boolean admissionFilter;
+    private final CacheWeigher weigher;
+    private final long maxWeight;
+
+    //past this many buffered lookups they're counted if the lock is free
+    private static final int READ_BUFFER_DRAIN = 32;
+    //past this many they're dropped, the frequencies are only an estimate anyway
+    private static final int READ_BUFFER_MAX = 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<String> readBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger readBufferSize = new AtomicInteger();
+    //keys the evictable cache dropped itself
+    private final ConcurrentLinkedQueue<String> droppedKeys = new ConcurrentLinkedQueue<>();
+    //the window's values for lookups without the lock, only changed while holding it
+    private final Map<String, Element> windowValues = new ConcurrentHashMap<>();
+    //guarded by lock
+    private final FrequencySketch sketch;
+    private final LinkedHashMap<String, Element> window = new LinkedHashMap<>(16, 0.75f, true);
+    //the keys in the evictable cache and their weights, least recently used first
+    private final LinkedHashMap<String, Long> main = new LinkedHashMap<>(16, 0.75f, true);
+    private long mainWeight;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param cacheLoader where values not in memory are looked for, may be null.
+     * @param maxElements how many evictable values to keep, window included.
+     */
+    public FrequencyAdmissionGateKeeper(int debugLevel, KeyMaster keyMaster, Ehcache evictableCache, Ehcache nonEvictableCache,
+                                        CacheEntryFactory cacheLoader, int maxElements) {
+        this(debugLevel, keyMaster, evictableCache, nonEvictableCache, cacheLoader, maxElements,
+                true, new EstimatingCacheWeigher(), 0,
+                DEFAULT_TEMPORARY_MAX_ELEMENTS, DEFAULT_TEMPORARY_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param cacheLoader where values not in memory are looked for, may be null.
+     * @param maxElements how many evictable values to keep, window included.
+     * @param admissionFilter false to admit everything leaving the window.
+     * @param maxWeight the most the evictable values outside the window can weigh, 0 or less for no limit.
+     * @param temporaryMaxElements see {@link TwoCacheGateKeeper#TwoCacheGateKeeper(int, KeyMaster, Ehcache, Ehcache, int, int)}.
+     * @param temporaryTimeToLive see {@link TwoCacheGateKeeper#TwoCacheGateKeeper(int, KeyMaster, Ehcache, Ehcache, int, int)}.
+     */
+    public FrequencyAdmissionGateKeeper(int debugLevel, KeyMaster keyMaster, Ehcache evictableCache, Ehcache nonEvictableCache,
+                                        CacheEntryFactory cacheLoader, int maxElements,
+                                        boolean admissionFilter, CacheWeigher weigher, long maxWeight,
+                                        int temporaryMaxElements, int temporaryTimeToLive) {
+        super(debugLevel, keyMaster, evictableCache, nonEvictableCache, temporaryMaxElements, temporaryTimeToLive);
+        this.admissionFilter = admissionFilter;
+        this.weigher = weigher;
+        this.maxWeight = maxWeight > 0 ? maxWeight : Long.MAX_VALUE;
+        this.evictableCache = evictableCache;
+        this.cacheLoader = cacheLoader;
+        //1% window like W-TinyLFU
+        this.windowSize = Math.max(1, maxElements / 100);
+        this.mainSize = Math.max(1, maxElements - windowSize);
+        this.sketch = new FrequencySketch(maxElements);
+        evictableCache.getCacheEventNotificationService().registerListener(new CacheEventListenerAdapter() {
+            //called while ehcache may hold its own locks so only note the key
+            @Override
+            public void notifyElementExpired(Ehcache cache, Element element) {
+                droppedKeys.add(element.getObjectKey().toString());
+            }
+
+            @Override
+            public void notifyElementEvicted(Ehcache cache, Element element) {
+                droppedKeys.add(element.getObjectKey().toString());
+            }
+        });
+    }
+
+    @Override
+    protected Element getEvictable(String key) {
+        recordRead(key);
+        Element e = windowValues.get(key);
+        if (e != null) {
+            if (!e.isExpired()) {
+                return e;
+            }
+            lock.lock();
+            try {
+                if (window.remove(key, e)) {
+                    windowValues.remove(key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            //only admitted values are in the evictable cache
+            e = evictableCache.get(key);
+            if (e != null) {
+                return e;
+            }
+        }
+        return load(key);
+    }
+
+    private void recordRead(String key) {
+        if (readBufferSize.incrementAndGet() > READ_BUFFER_MAX) {
+            readBufferSize.decrementAndGet();
+        } else {
+            readBuffer.add(key);
+        }
+        if ((readBufferSize.get() >= READ_BUFFER_DRAIN || !droppedKeys.isEmpty()) && lock.tryLock()) {
+            try {
+                drainBuffers();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    //must hold lock
+    private void drainBuffers() {
+        String key;
+        while ((key = readBuffer.poll()) != null) {
+            readBufferSize.decrementAndGet();
+            sketch.increment(key);
+            //touch it so it's the most recently used
+            if (window.get(key) == null) {
+                main.get(key);
+            }
+        }
+        while ((key = droppedKeys.poll()) != null) {
+            //it may have been admitted again since
+            if (!evictableCache.isKeyInCache(key)) {
+                removeFromMain(key);
+            }
+        }
+    }
+
+    private Element load(String key) {
+        if (cacheLoader == null) {
+            return null;
+        }
+        Object loaded;
+        try {
+            loaded = cacheLoader.createEntry(key);
+        } catch (Exception ex) {
+            log.warn("Can't load cache entry " + key, ex);
+            return null;
+        }
+        if (loaded == null) {
+            return null;
+        }
+        Element e = loaded instanceof Element ? (Element) loaded : new Element(key, loaded);
+        if (e.getObjectValue() == null) {
+            return null;
+        }
+        offer(key, e);
+        return e;
+    }
+
+    @Override
+    protected void putEvictable(TimeUtilCacheElement e) {
+        CacheWriter writer = evictableCache.getRegisteredCacheWriter();
+        if (writer != null) {
+            writer.write(e);
+        }
+        offer(e.getObjectKey().toString(), e);
+    }
+
+    private void offer(String key, Element e) {
+        lock.lock();
+        try {
+            drainBuffers();
+            if (main.get(key) != null) {
+                //new value for something already admitted, if it isn't made yet
+                //it's weighed again once it is
+                evictableCache.put(e);
+                reweigh(key, weigher.weigh(e.getObjectValue()));
+                return;
+            }
+            window.put(key, e);
+            windowValues.put(key, e);
+            if (window.size() <= windowSize) {
+                return;
+            }
+            Iterator<Map.Entry<String, Element>> it = window.entrySet().iterator();
+            Map.Entry<String, Element> candidate = it.next();
+            it.remove();
+            windowValues.remove(candidate.getKey());
+            long weight = weigher.weigh(candidate.getValue().getObjectValue());
+            if (weight > maxWeight) {
+                rejected.increment();
+                return;
+            }
+            if (admissionFilter && isFull(weight)
+                    && sketch.frequency(candidate.getKey()) <= sketch.frequency(main.keySet().iterator().next())) {
+                rejected.increment();
+                return;
+            }
+            while (isFull(weight)) {
+                evictEldest();
+            }
+            main.put(candidate.getKey(), weight);
+            mainWeight += weight;
+            evictableCache.put(candidate.getValue());
+            admitted.increment();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void valueMade(String key, Object value) {
+        lock.lock();
+        try {
+            drainBuffers();
+            if (main.containsKey(key)) {
+                reweigh(key, weigher.weigh(value));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //must hold lock
+    private void reweigh(String key, long weight) {
+        Long old = main.get(key);
+        if (old == null) {
+            return;
+        }
+        if (weight > maxWeight) {
+            removeFromMain(key);
+            evictableCache.remove(key);
+            return;
+        }
+        main.put(key, weight);
+        mainWeight += weight - old;
+        //it was just used so something else goes
+        while (mainWeight > maxWeight && main.size() > 1) {
+            evictEldest();
+        }
+    }
+
+    //must hold lock
+    private void evictEldest() {
+        Iterator<Map.Entry<String, Long>> victims = main.entrySet().iterator();
+        Map.Entry<String, Long> victim = victims.next();
+        victims.remove();
+        mainWeight -= victim.getValue();
+        //an eviction, the written copy stays
+        evictableCache.remove(victim.getKey());
+    }
+
+    //must hold lock
+    private boolean isFull(long weight) {
+        return !main.isEmpty() && (main.size() >= mainSize || mainWeight + weight > maxWeight);
+    }
+
+    //must hold lock
+    private void removeFromMain(String key) {
+        Long weight = main.remove(key);
+        if (weight != null) {
+            mainWeight -= weight;
+        }
+    }
+
+    @Override
+    protected boolean removeEvictable(String key) {
+        boolean inWindow;
+        lock.lock();
+        try {
+            drainBuffers();
+            inWindow = window.remove(key) != null;
+            windowValues.remove(key);
+            removeFromMain(key);
+        } finally {
+            lock.unlock();
+        }
+        return evictableCache.removeWithWriter(key) || inWindow;
+    }
+
+    @Override
+    protected void clearEvictable() {
+        lock.lock();
+        try {
+            drainBuffers();
+            window.clear();
+            windowValues.clear();
+            main.clear();
+            mainWeight = 0;
+            sketch.clear();
+            evictableCache.removeAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected Stream<String> evictableKeys() {
+        List<String> windowKeys = new ArrayList<>(windowValues.keySet());
+        return Stream.concat(windowKeys.stream(), evictableCache.getKeys().stream().map(k -> k.toString()));
+    }
+
+    @Override
+    public List<CacheStatistics> getStatistics() {
+        List<CacheStatistics> stats = super.getStatistics();
+        int inWindow = windowValues.size();
+        stats.add(CacheStatistics.builder()
+                .cacheName("Evictable Cache Admission Window")
+                .maxCacheElements(windowSize)
+                .currentCacheElements(inWindow)
+                .timeToIdle(evictableCache.getCacheConfiguration().getTimeToIdleSeconds())
+                .timeToLive(evictableCache.getCacheConfiguration().getTimeToLiveSeconds()).build());
+        return stats;
+    }
+
+    public AdmissionStatistics getAdmissionStatistics() {
+        long weight;
+        lock.lock();
+        try {
+            drainBuffers();
+            weight = mainWeight;
+        } finally {
+            lock.unlock();
+        }
+        return AdmissionStatistics.builder()
+                .hits(getStatsRecorder().getHitCount())
+                .misses(getStatsRecorder().getMissCount())
+                .admitted(admitted.sum())
+                .rejected(rejected.sum())
+                .weight(weight)
+                .maxWeight(maxWeight == Long.MAX_VALUE ? 0 : maxWeight)
+                .build();
+    }
+
+    @Data
+    @Builder
+    public static class AdmissionStatistics {
+        private long hits;
+        private long misses;
+        //values moved from the window into the evictable cache
+        private long admitted;
+        //values dropped from the window because what they'd replace is asked for more
+        private long rejected;
+        //estimated bytes of the admitted values
+        private long weight;
+        //0 if there is no limit
+        private long maxWeight;
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : hits / (double) total;
+        }
+    }
+}
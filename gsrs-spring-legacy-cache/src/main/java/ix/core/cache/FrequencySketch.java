@@ -0,0 +1,88 @@
+package ix.core.cache;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch estimating how often each key was asked for, using
+ * 4 bit counters in 4 rows. Once enough keys have been counted every
+ * counter is halved so keys that were popular a long time ago fade out.
+ *
+ * Not thread safe, callers have to synchronize.
+ */
+class FrequencySketch {
+
+    private static final int ROWS = 4;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    //clears the bit each counter gets from its neighbor when the whole long is shifted
+    private static final long HALF_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int width;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param maxElements how many keys the cache holds, the sketch is sized to count a few times that.
+     */
+    FrequencySketch(int maxElements) {
+        int n = Math.max(1, maxElements);
+        int w = 16;
+        while (w < n && w < (1 << 26)) {
+            w <<= 1;
+        }
+        width = w;
+        //16 counters per long
+        table = new long[ROWS * width / 16];
+        sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * n);
+    }
+
+    public void increment(String key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for (int row = 0; row < ROWS; row++) {
+            int slot = slot(hash, row);
+            int shift = (slot & 15) << 2;
+            int i = slot >>> 4;
+            if (((table[i] >>> shift) & 0xfL) < MAX_COUNT) {
+                table[i] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            halve();
+        }
+    }
+
+    /**
+     * @return how many times the key was counted, which may be too high but never too low.
+     */
+    public int frequency(String key) {
+        int hash = key.hashCode();
+        int min = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            int slot = slot(hash, row);
+            min = Math.min(min, (int) ((table[slot >>> 4] >>> ((slot & 15) << 2)) & 0xfL));
+        }
+        return min;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        additions = 0;
+    }
+
+    private int slot(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 32;
+        return row * width + ((int) h & (width - 1));
+    }
+
+    private void halve() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & HALF_MASK;
+        }
+        additions >>>= 1;
+    }
+}
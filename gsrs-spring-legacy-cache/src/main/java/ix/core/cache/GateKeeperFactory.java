@@ -96,6 +96,11 @@ public final class GateKeeperFactory {
 
         private GinasFileBasedCacheAdapter cacheAdapter = DoNothingDBCacheWriter.INSTANCE;
         private KeyMaster km= new ExplicitMapKeyMaster();
+        private boolean frequencyAdmission = false;
+        private long maxEvictableWeight = 0;
+        private CacheWeigher weigher = new EstimatingCacheWeigher();
+        private int temporaryMaxElements = TwoCacheGateKeeper.DEFAULT_TEMPORARY_MAX_ELEMENTS;
+        private int temporaryTimeToLive = TwoCacheGateKeeper.DEFAULT_TEMPORARY_TIME_TO_LIVE;
         
         public Builder(int maxElements, int timeToLive, int timeToIdle){
             this.maxElements = maxElements;
@@ -120,6 +125,43 @@ public final class GateKeeperFactory {
         }
 
 
+        /**
+         * Only keep new things in the evictable cache if they are asked for more
+         * often than what they would replace, see {@link FrequencyAdmissionGateKeeper}.
+         * Only used with a non-evictable cache.
+         */
+        public Builder frequencyAdmission(boolean frequencyAdmission){
+            this.frequencyAdmission = frequencyAdmission;
+            return this;
+        }
+
+        /**
+         * Bound the evictable cache by the estimated size of its values as well as by count.
+         * Only used with a non-evictable cache.
+         * @param maxBytes the most the evictable values can weigh, 0 or less for no limit.
+         */
+        public Builder maxEvictableWeight(long maxBytes){
+            this.maxEvictableWeight = maxBytes;
+            return this;
+        }
+
+        public Builder weigher(CacheWeigher weigher){
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * Limits for the elements whose eviction type isn't known yet.
+         * Only used with a non-evictable cache.
+         * @param maxElements the most to hold, 0 or less for no limit.
+         * @param timeToLive seconds to hold them, 0 or less for no limit.
+         */
+        public Builder temporaryCache(int maxElements, int timeToLive){
+            this.temporaryMaxElements = maxElements;
+            this.temporaryTimeToLive = timeToLive;
+            return this;
+        }
+
         public Builder useNonEvictableCache(int maxElements, int timeToLive, int timeToIdle){
             this.nonEvictableMaxElements = maxElements;
             this.nonEvictableTimeToLive = timeToLive;
@@ -158,7 +200,9 @@ public final class GateKeeperFactory {
                             .timeToIdleSeconds(timeToIdle));
                     
                     evictableCache.registerCacheWriter(cacheAdapter);
-                    Ehcache eh_evictableCache= new SelfPopulatingCache(evictableCache,cacheAdapter);
+                    boolean managedEviction = frequencyAdmission || maxEvictableWeight > 0;
+                    //the frequency admission gatekeeper loads misses itself
+                    Ehcache eh_evictableCache= managedEviction? evictableCache : new SelfPopulatingCache(evictableCache,cacheAdapter);
                     Cache nonEvictableCache = new Cache ( new CacheConfiguration()
                             .name(IX_CACHE_NOT_EVICTABLE)
                             .maxEntriesLocalHeap(nonEvictableMaxElements)
@@ -180,7 +224,13 @@ public final class GateKeeperFactory {
                     //TODO how do we turn on caching in newer version?
 //                    evictableCache.setSampledStatisticsEnabled(true);
 
-                    return new TwoCacheGateKeeper(debugLevel, this.km, eh_evictableCache, eh_nonEvictableCache);
+                    if(managedEviction){
+                        return new FrequencyAdmissionGateKeeper(debugLevel, this.km, eh_evictableCache, eh_nonEvictableCache,
+                                cacheAdapter, maxElements, frequencyAdmission, weigher, maxEvictableWeight,
+                                temporaryMaxElements, temporaryTimeToLive);
+                    }
+                    return new TwoCacheGateKeeper(debugLevel, this.km, eh_evictableCache, eh_nonEvictableCache,
+                            temporaryMaxElements, temporaryTimeToLive);
                 };
             }
 
@@ -3,6 +3,9 @@ package ix.core.cache;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PreDestroy;
@@ -10,12 +13,30 @@ import javax.annotation.PreDestroy;
 import gov.nih.ncats.common.util.TimeUtil;
 import gsrs.cache.GsrsCache;
 import gsrs.cache.GsrsLegacyCachePropertyConfiguration;
+import ix.core.util.EntityUtils.EntityWrapper;
 import ix.core.util.EntityUtils.Key;
 import ix.utils.CallableUtil.TypedCallable;
+import lombok.extern.slf4j.Slf4j;
 import net.sf.ehcache.Element;
 
+@Slf4j
 public class IxCache implements GsrsCache {
 	private AtomicLong lastNotifiedChange=new AtomicLong(0l); // The last timestamp IxCache was told there was a change
+
+	//timestamps of the last change of single entities (by root key) and of
+	//whole kinds, so a change only makes what actually changed dirty
+	private final ConcurrentMap<String, Long> keyChanges = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Long> kindChanges = new ConcurrentHashMap<>();
+
+	//cached entities hold other entities (a parent its children), so for each
+	//root key of an embedded entity this has the root keys of the cached
+	//entities holding it, which are dirty when it changes
+	private final ConcurrentMap<String, Set<String>> embeddedIn = new ConcurrentHashMap<>();
+	//cached entities whose embedded entities were looked for
+	private final Set<String> embeddedKnown = ConcurrentHashMap.newKeySet();
+	//cached entities that couldn't be looked through, any change can make them dirty
+	private final Set<String> embeddedUnknown = ConcurrentHashMap.newKeySet();
+	private final AtomicLong lastTrackedChange = new AtomicLong(0l);
 	
     static final int DEFAULT_MAX_ELEMENTS = 10000;
     static final int DEFAULT_TIME_TO_LIVE = 60*60; // 1hr
@@ -124,6 +145,91 @@ public class IxCache implements GsrsCache {
     public <T> T getOrElseIfDirty(String key, TypedCallable<T> generator) throws Exception{
         return this.gateKeeper.getSinceOrElse(key, this.lastNotifiedChange.get(), generator);
     }
+
+    @Override
+    public <T> T getOrElseRawIfDirty(Key entityKey, String key, TypedCallable<T> generator) throws Exception{
+        String root = entityKey.toRootKey().toString();
+        T value = this.gateKeeper.getSinceOrElseRaw(key, lastChangeOf(entityKey), trackingEmbedded(root, generator));
+        trackEmbeddedIfUnknown(root, value);
+        return value;
+    }
+
+    @Override
+    public <T> T getOrElseIfDirty(Key entityKey, String key, TypedCallable<T> generator) throws Exception{
+        String root = entityKey.toRootKey().toString();
+        T value = this.gateKeeper.getSinceOrElse(key, lastChangeOf(entityKey), trackingEmbedded(root, generator));
+        trackEmbeddedIfUnknown(root, value);
+        return value;
+    }
+
+    /**
+     * The last time the given entity could have changed: the latest of
+     * a cache wide change, a change of its kind, a change of the entity itself
+     * or of an entity it holds.
+     */
+    long lastChangeOf(Key entityKey){
+        Key root = entityKey.toRootKey();
+        String rootKey = root.toString();
+        long time = lastNotifiedChange.get();
+        time = Math.max(time, keyChanges.getOrDefault(rootKey, 0L));
+        time = Math.max(time, kindChanges.getOrDefault(root.getKind(), 0L));
+        if(embeddedUnknown.contains(rootKey)){
+            time = Math.max(time, lastTrackedChange.get());
+        }
+        return time;
+    }
+
+    private <T> TypedCallable<T> trackingEmbedded(String root, TypedCallable<T> generator){
+        if(!isPerKeyInvalidation()){
+            return generator;
+        }
+        return ()->{
+            T value = generator.call();
+            trackEmbedded(root, value);
+            return value;
+        };
+    }
+
+    //a value that was cached before it could be looked through, like one read back from disk
+    private void trackEmbeddedIfUnknown(String root, Object value){
+        if(value !=null && isPerKeyInvalidation() && !embeddedKnown.contains(root)){
+            trackEmbedded(root, value);
+        }
+    }
+
+    private void trackEmbedded(String root, Object value){
+        if(value ==null){
+            return;
+        }
+        embeddedKnown.add(root);
+        try{
+            EntityWrapper<?> ew = EntityWrapper.of(value);
+            if(!ew.isEntity()){
+                return;
+            }
+            ew.traverse().execute((path, child)->{
+                if(child.isEntity() && child.hasKey()){
+                    String childRoot = child.getKey().toRootKey().toString();
+                    if(!childRoot.equals(root)){
+                        embeddedIn.computeIfAbsent(childRoot, k-> ConcurrentHashMap.newKeySet()).add(root);
+                    }
+                }
+            });
+            embeddedUnknown.remove(root);
+        }catch(Throwable t){
+            //like a lazy collection that can't be loaded anymore
+            log.trace("can't look through cached value of " + root, t);
+            embeddedUnknown.add(root);
+        }
+        if(embeddedIn.size() + embeddedUnknown.size() > maxTrackedChanges()){
+            //too many to keep, a cache wide change makes all of them dirty
+            //and they're looked through again when they're made
+            notifyChange(TimeUtil.getCurrentTimeMillis());
+            embeddedIn.clear();
+            embeddedKnown.clear();
+            embeddedUnknown.clear();
+        }
+    }
 	
 	
     @Override
@@ -176,6 +282,48 @@ public class IxCache implements GsrsCache {
 		lastNotifiedChange.updateAndGet(u-> Math.max(u,time));
 	}
 	
+	@Override
+	public void markChange(Key key) {
+		if(!isPerKeyInvalidation()){
+			markChange();
+			return;
+		}
+		String root = key.toRootKey().toString();
+		trackChange(keyChanges, root);
+		Set<String> holders = embeddedIn.get(root);
+		if(holders !=null){
+			holders.forEach(h-> trackChange(keyChanges, h));
+		}
+	}
+
+	@Override
+	public void markChangeOfKind(String kind) {
+		if(!isPerKeyInvalidation()){
+			markChange();
+			return;
+		}
+		trackChange(kindChanges, kind);
+	}
+
+	private void trackChange(ConcurrentMap<String, Long> changes, String name){
+		long now = TimeUtil.getCurrentTimeMillis();
+		changes.merge(name, now, Math::max);
+		lastTrackedChange.updateAndGet(u-> Math.max(u, now));
+		if(changes.size() > maxTrackedChanges()){
+			//too many to keep, a cache wide change covers all of them
+			notifyChange(now);
+			changes.values().removeIf(t-> t <= now);
+		}
+	}
+
+	private int maxTrackedChanges(){
+		return configuration==null ? GsrsLegacyCachePropertyConfiguration.DEFAULT_MAX_TRACKED_CHANGES : configuration.getMaxTrackedChanges();
+	}
+
+	private boolean isPerKeyInvalidation(){
+		return configuration==null || configuration.isPerKeyInvalidation();
+	}
+
 	@Override
 	public boolean hasBeenMarkedSince(long thistime){
 		if(lastNotifiedChange.get()>thistime)return true;
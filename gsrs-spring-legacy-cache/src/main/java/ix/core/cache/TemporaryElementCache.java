@@ -0,0 +1,224 @@
+package ix.core.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import gov.nih.ncats.common.util.TimeUtil;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.ehcache.Element;
+
+/**
+ * Holds the elements {@link TwoCacheGateKeeper} doesn't know the eviction
+ * type of yet. These are normally moved to one of the real caches as soon
+ * as their value is made, anything left behind is dropped once it's
+ * older than the time to live or there are more than the max number of elements,
+ * oldest first. A background sweeper drops expired elements even if nobody asks for them.
+ */
+@Slf4j
+public class TemporaryElementCache {
+
+    public enum RemovalCause {
+        SIZE,
+        EXPIRED
+    }
+
+    public interface EvictionListener {
+        void evicted(String key, Element element, RemovalCause cause);
+    }
+
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cache-temporary-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class Entry {
+        final Element element;
+        final long expiresAt;
+
+        Entry(Element element, long expiresAt) {
+            this.element = element;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxElements;
+    private final long timeToLiveMillis;
+
+    //guarded by itself, oldest first, all have the same time to live so that's also the order they expire in
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final List<EvictionListener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final ScheduledFuture<?> sweep;
+
+    /**
+     * @param maxElements the most elements to hold, 0 or less for no limit.
+     * @param timeToLiveSeconds how long an element is kept, 0 or less to keep them until they're removed.
+     */
+    TemporaryElementCache(int maxElements, int timeToLiveSeconds) {
+        this.maxElements = maxElements > 0 ? maxElements : Integer.MAX_VALUE;
+        this.timeToLiveMillis = timeToLiveSeconds > 0 ? TimeUnit.SECONDS.toMillis(timeToLiveSeconds) : 0;
+        if (timeToLiveMillis > 0) {
+            long interval = Math.max(1000, Math.min(timeToLiveMillis / 2, 60_000));
+            sweep = SWEEPER.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            sweep = null;
+        }
+    }
+
+    public void addEvictionListener(EvictionListener listener) {
+        listeners.add(listener);
+    }
+
+    public Element get(String key) {
+        Entry expiredEntry;
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e == null) {
+                return null;
+            }
+            if (!isExpired(e, TimeUtil.getCurrentTimeMillis())) {
+                return e.element;
+            }
+            entries.remove(key);
+            expiredEntry = e;
+        }
+        expired.increment();
+        notifyListeners(key, expiredEntry.element, RemovalCause.EXPIRED);
+        return null;
+    }
+
+    public void put(String key, Element element) {
+        long expiresAt = timeToLiveMillis > 0 ? TimeUtil.getCurrentTimeMillis() + timeToLiveMillis : 0;
+        List<Map.Entry<String, Entry>> overflow = new ArrayList<>();
+        synchronized (entries) {
+            //removed first so it moves to the end
+            entries.remove(key);
+            entries.put(key, new Entry(element, expiresAt));
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (entries.size() > maxElements && it.hasNext()) {
+                overflow.add(it.next());
+                it.remove();
+            }
+        }
+        for (Map.Entry<String, Entry> e : overflow) {
+            evicted.increment();
+            notifyListeners(e.getKey(), e.getValue().element, RemovalCause.SIZE);
+        }
+    }
+
+    public Element remove(String key) {
+        synchronized (entries) {
+            Entry e = entries.remove(key);
+            return e == null ? null : e.element;
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public List<String> keys() {
+        synchronized (entries) {
+            return new ArrayList<>(entries.keySet());
+        }
+    }
+
+    /**
+     * @param max the most elements to return.
+     * @return the oldest elements, at most max of them.
+     */
+    public List<Element> elements(int max) {
+        List<Element> list = new ArrayList<>();
+        synchronized (entries) {
+            for (Entry e : entries.values()) {
+                if (list.size() >= max) {
+                    break;
+                }
+                list.add(e.element);
+            }
+        }
+        return list;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxElements() {
+        return maxElements == Integer.MAX_VALUE ? 0 : maxElements;
+    }
+
+    public long getTimeToLiveSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(timeToLiveMillis);
+    }
+
+    /**
+     * @return how many elements were dropped because there were too many.
+     */
+    public long getEvictionCount() {
+        return evicted.sum();
+    }
+
+    /**
+     * @return how many elements were dropped because they were too old.
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    void sweep() {
+        long now = TimeUtil.getCurrentTimeMillis();
+        List<Map.Entry<String, Entry>> old = new ArrayList<>();
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                if (!isExpired(e.getValue(), now)) {
+                    break;
+                }
+                old.add(e);
+                it.remove();
+            }
+        }
+        for (Map.Entry<String, Entry> e : old) {
+            expired.increment();
+            notifyListeners(e.getKey(), e.getValue().element, RemovalCause.EXPIRED);
+        }
+    }
+
+    private boolean isExpired(Entry e, long now) {
+        return e.expiresAt > 0 && now > e.expiresAt;
+    }
+
+    private void notifyListeners(String key, Element element, RemovalCause cause) {
+        for (EvictionListener l : listeners) {
+            try {
+                l.evicted(key, element, cause);
+            } catch (Exception ex) {
+                log.warn("Trouble notifying of temporary cache eviction " + key, ex);
+            }
+        }
+    }
+
+    public void close() {
+        if (sweep != null) {
+            sweep.cancel(false);
+        }
+        clear();
+    }
+}
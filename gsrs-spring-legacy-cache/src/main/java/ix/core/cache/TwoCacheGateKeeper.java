@@ -2,17 +2,18 @@ package ix.core.cache;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 import gov.nih.ncats.common.util.CachedSupplier;
 import gov.nih.ncats.common.util.TimeUtil;
+import gsrs.cache.CacheStatisticsProvider;
+import gsrs.cache.CacheStatsRecorder;
 import gsrs.cache.GsrsCache.CacheStatistics;
 import ix.utils.CallableUtil.TypedCallable;
 import lombok.extern.slf4j.Slf4j;
@@ -20,6 +21,7 @@ import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.statistics.StatisticsGateway;
+import net.sf.ehcache.writer.CacheWriter;
 
 
 /**
@@ -28,7 +30,15 @@ import net.sf.ehcache.statistics.StatisticsGateway;
 @Slf4j
 public class TwoCacheGateKeeper implements GateKeeper {
 
-	private Map<String, TimeUtilCacheElement> temporaryCache = new ConcurrentHashMap<String,TimeUtilCacheElement>();
+    public static final int DEFAULT_TEMPORARY_MAX_ELEMENTS = 10_000;
+    public static final int DEFAULT_TEMPORARY_TIME_TO_LIVE = 10*60; // 10 minutes
+
+	private final TemporaryElementCache temporaryCache;
+    private static final CacheWeigher WEIGHER = new EstimatingCacheWeigher();
+    //how many values of each cache are weighed to estimate its size
+    private static final int BYTES_SAMPLE_SIZE = 1000;
+
+    private final CacheStatsRecorder statsRecorder = new CacheStatsRecorder();
 
     private final KeyMaster keyMaster;
     private final Ehcache evictableCache;
@@ -40,6 +50,15 @@ public class TwoCacheGateKeeper implements GateKeeper {
     private final int debugLevel;
 
     public TwoCacheGateKeeper(int debugLevel, KeyMaster keyMaster, Ehcache evictableCache, Ehcache nonEvictableCache){
+        this(debugLevel, keyMaster, evictableCache, nonEvictableCache, DEFAULT_TEMPORARY_MAX_ELEMENTS, DEFAULT_TEMPORARY_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param temporaryMaxElements the most elements of not yet known eviction type to hold, 0 or less for no limit.
+     * @param temporaryTimeToLive seconds to hold elements of not yet known eviction type, 0 or less for no limit.
+     */
+    public TwoCacheGateKeeper(int debugLevel, KeyMaster keyMaster, Ehcache evictableCache, Ehcache nonEvictableCache,
+                              int temporaryMaxElements, int temporaryTimeToLive){
         Objects.requireNonNull(keyMaster);
         Objects.requireNonNull(evictableCache);
         Objects.requireNonNull(nonEvictableCache);
@@ -49,6 +68,21 @@ public class TwoCacheGateKeeper implements GateKeeper {
         this.evictableCache = evictableCache;
         this.nonEvictableCache = nonEvictableCache;
 
+        this.temporaryCache = new TemporaryElementCache(temporaryMaxElements, temporaryTimeToLive);
+        this.temporaryCache.addEvictionListener((adaptedKey, e, cause) -> {
+            keyMaster.removeKey(keyMaster.unAdaptKey(adaptedKey), adaptedKey);
+            if (debugLevel >= 2) {
+                log.debug("IxCache temporary element dropped (" + cause + "): " + adaptedKey);
+            }
+        });
+    }
+
+    /**
+     * Get told when an element whose eviction type isn't known yet is dropped
+     * because it's too old or there are too many of them.
+     */
+    public void addTemporaryEvictionListener(TemporaryElementCache.EvictionListener listener){
+        temporaryCache.addEvictionListener(listener);
     }
 
     private <T> CacheGeneratorWrapper<T> createRaw(TypedCallable<T> delegate, String key, int seconds){
@@ -68,7 +102,8 @@ public class TwoCacheGateKeeper implements GateKeeper {
     @Override
     public void clear() {
         keyMaster.removeAll();
-        evictableCache.removeAll();
+        temporaryCache.clear();
+        clearEvictable();
         nonEvictableCache.removeAll();
     }
 
@@ -80,7 +115,7 @@ public class TwoCacheGateKeeper implements GateKeeper {
 
     private boolean removeRaw(String adaptedKey) {
     	temporaryCache.remove(adaptedKey);
-        if(evictableCache.removeWithWriter(adaptedKey)){
+        if(removeEvictable(adaptedKey)){
             return true;
         }
         return nonEvictableCache.removeWithWriter(adaptedKey);
@@ -103,9 +138,9 @@ public class TwoCacheGateKeeper implements GateKeeper {
     @SuppressWarnings("unchecked")
 	@Override
     public Stream<Element> elements(int top, int skip) {
-    	Stream<String> s1=evictableCache.getKeys().stream().map(k->k.toString());
+    	Stream<String> s1=evictableKeys();
     	Stream<String> s2=nonEvictableCache.getKeys().stream().map(k->k.toString());
-    	Stream<String> s3=this.temporaryCache.keySet().stream();
+    	Stream<String> s3=this.temporaryCache.keys().stream();
     	
         Stream<String> stream = Stream.concat(Stream.concat(s1,s2),s3);
 
@@ -155,6 +190,7 @@ public class TwoCacheGateKeeper implements GateKeeper {
                        }
                        callingCount.decrementAndGet();
                    }
+                   valueMade(adaptedKey, ret);
                }
                return ret;
            });
@@ -165,11 +201,14 @@ public class TwoCacheGateKeeper implements GateKeeper {
        }
 
         private T invokeDelegate() {
+            long start = System.nanoTime();
             try{
                 T ret= delegate.call();
                 return ret;
             }catch(Exception e){
                 return null;
+            }finally{
+                statsRecorder.recordLoad(System.nanoTime() - start);
             }
         }
     }
@@ -199,12 +238,14 @@ public class TwoCacheGateKeeper implements GateKeeper {
     	Element e = getRawElement(key);
     	
         if(e ==null || regeneratePredicate.test(e)){
+            statsRecorder.recordMiss();
             if (debugLevel >= 2) {
                 log.debug("IxCache missed: " + key);
             }
             return generator.call().getSync();
         }
         
+        statsRecorder.recordHit();
         try {
             return (T) getObjectFromElement(e);
         }catch(Exception ex){
@@ -246,7 +287,7 @@ public class TwoCacheGateKeeper implements GateKeeper {
     		return e;
     	}
     	
-        e = evictableCache.get(key);
+        e = getEvictable(key);
         if(e ==null || e.getObjectValue()==null || getObjectFromElement(e)==null){
         	e = nonEvictableCache.get(key);
         	if(e==null || e.getObjectValue()==null || getObjectFromElement(e)==null){
@@ -260,6 +301,11 @@ public class TwoCacheGateKeeper implements GateKeeper {
     @Override
     public Object getRaw(String key){
         Element e = getRawElement(key);
+        if(e==null){
+            statsRecorder.recordMiss();
+        }else{
+            statsRecorder.recordHit();
+        }
         return getObjectFromElement(e);
     }
     
@@ -418,7 +464,7 @@ public class TwoCacheGateKeeper implements GateKeeper {
     private void addElementToCache(TimeUtilCacheElement e){
         switch(e.getEvictionType()){
 			case EVICTABLE:
-				evictableCache.putWithWriter(e);
+				putEvictable(e);
 				break;
 			case UNEVICTABLE:
 				nonEvictableCache.putWithWriter(e);
@@ -429,6 +475,40 @@ public class TwoCacheGateKeeper implements GateKeeper {
         }
     }
 
+    /*
+     * Everything going in or out of the evictable cache goes through these
+     * so subclasses can decide what is kept there.
+     */
+
+    protected Element getEvictable(String key){
+        return evictableCache.get(key);
+    }
+
+    protected void putEvictable(TimeUtilCacheElement e){
+        evictableCache.putWithWriter(e);
+    }
+
+    protected boolean removeEvictable(String key){
+        return evictableCache.removeWithWriter(key);
+    }
+
+    protected void clearEvictable(){
+        evictableCache.removeAll();
+    }
+
+    /**
+     * Called once a cached value has been made, values are put in
+     * the cache before they're made.
+     * @param key the adapted key, it may not be in the evictable cache.
+     */
+    protected void valueMade(String key, Object value){
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Stream<String> evictableKeys(){
+        return evictableCache.getKeys().stream().map(k->k.toString());
+    }
+
     @Override
     public List<CacheStatistics> getStatistics() {
     	List<CacheStatistics> stats= new ArrayList<>();
@@ -439,7 +519,12 @@ public class TwoCacheGateKeeper implements GateKeeper {
 			    	.maxCacheElements(evictableCache.getCacheConfiguration().getMaxEntriesLocalHeap())
 			    	.currentCacheElements(coreStats.getSize())
 			    	.timeToIdle(evictableCache.getCacheConfiguration().getTimeToIdleSeconds())
-			    	.timeToLive(evictableCache.getCacheConfiguration().getTimeToLiveSeconds()).build();
+			    	.timeToLive(evictableCache.getCacheConfiguration().getTimeToLiveSeconds())
+			    	.hitCount(coreStats.cacheHitCount())
+			    	.missCount(coreStats.cacheMissCount())
+			    	.evictionCount(coreStats.cacheEvictedCount())
+			    	.expiredCount(coreStats.cacheExpiredCount())
+			    	.estimatedBytes(estimateBytes(evictableCache)).build();
     	stats.add(cs);
     	StatisticsGateway coreStatsN=nonEvictableCache.getStatistics();
     	CacheStatistics csN = CacheStatistics.builder()
@@ -447,10 +532,70 @@ public class TwoCacheGateKeeper implements GateKeeper {
 			    	.maxCacheElements(nonEvictableCache.getCacheConfiguration().getMaxEntriesLocalHeap())
 			    	.currentCacheElements(coreStatsN.getSize())
 			    	.timeToIdle(nonEvictableCache.getCacheConfiguration().getTimeToIdleSeconds())
-			    	.timeToLive(nonEvictableCache.getCacheConfiguration().getTimeToLiveSeconds()).build();
+			    	.timeToLive(nonEvictableCache.getCacheConfiguration().getTimeToLiveSeconds())
+			    	.hitCount(coreStatsN.cacheHitCount())
+			    	.missCount(coreStatsN.cacheMissCount())
+			    	.evictionCount(coreStatsN.cacheEvictedCount())
+			    	.expiredCount(coreStatsN.cacheExpiredCount())
+			    	.estimatedBytes(estimateBytes(nonEvictableCache)).build();
     	stats.add(csN);
+    	long temporaryBytes = estimateBytes(temporaryCache.elements(BYTES_SAMPLE_SIZE), temporaryCache.size());
+    	stats.add(CacheStatistics.builder()
+    				.cacheName("Temporary Cache")
+    				.maxCacheElements(temporaryCache.getMaxElements())
+    				.currentCacheElements(temporaryCache.size())
+    				.timeToIdle(0)
+    				.timeToLive(temporaryCache.getTimeToLiveSeconds())
+    				.evictionCount(temporaryCache.getEvictionCount())
+    				.expiredCount(temporaryCache.getExpiredCount())
+    				.estimatedBytes(temporaryBytes).build());
+    	//lookups through this gatekeeper whichever cache they end up in
+    	stats.add(statsRecorder.addTo(CacheStatistics.builder()
+    				.cacheName("IxCache")
+    				.maxCacheElements(cs.getMaxCacheElements() + csN.getMaxCacheElements())
+    				.currentCacheElements(cs.getCurrentCacheElements() + csN.getCurrentCacheElements() + temporaryCache.size())
+    				.estimatedBytes(cs.getEstimatedBytes() + csN.getEstimatedBytes() + temporaryBytes))
+    				.build());
+    	CacheWriter writer = evictableCache.getRegisteredCacheWriter();
+    	if(writer instanceof CacheStatisticsProvider){
+    		stats.addAll(((CacheStatisticsProvider) writer).getStatistics());
+    	}
         return stats;
     }
+
+    protected CacheStatsRecorder getStatsRecorder(){
+        return statsRecorder;
+    }
+
+    /**
+     * Weighs at most {@link #BYTES_SAMPLE_SIZE} values and scales that up to the size of the cache,
+     * so asking for statistics doesn't walk the whole cache.
+     */
+    private static long estimateBytes(Ehcache cache){
+        //getKeys() is a view of the store, only the keys sampled are read
+        List<?> keys = cache.getKeys();
+        List<Element> sample = new ArrayList<>();
+        Iterator<?> it = keys.iterator();
+        while(sample.size() < BYTES_SAMPLE_SIZE && it.hasNext()){
+            //quiet so it doesn't count as a hit
+            Element e = cache.getQuiet(it.next());
+            if(e != null){
+                sample.add(e);
+            }
+        }
+        return estimateBytes(sample, keys.size());
+    }
+
+    private static long estimateBytes(List<Element> sample, int size){
+        if(sample.isEmpty()){
+            return 0;
+        }
+        long total = 0;
+        for(Element e : sample){
+            total += WEIGHER.weigh(e.getObjectValue());
+        }
+        return size <= sample.size() ? total : (long) ((double) total / sample.size() * size);
+    }
     
     //private Map<String, CacheStrategy> cacheStrategies = new ConcurrentHashMap<>();
     
@@ -506,6 +651,7 @@ public class TwoCacheGateKeeper implements GateKeeper {
         isClosed=true;
         disposeCache(evictableCache);
         disposeCache(nonEvictableCache);
+        temporaryCache.close();
     }
 
     private void disposeCache(Ehcache c){
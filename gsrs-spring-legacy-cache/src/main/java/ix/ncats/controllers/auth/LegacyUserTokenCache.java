@@ -1,6 +1,9 @@
 package ix.ncats.controllers.auth;
 
 import gov.nih.ncats.common.util.CachedSupplier;
+import gsrs.cache.CacheStatisticsProvider;
+import gsrs.cache.CacheStatsRecorder;
+import gsrs.cache.GsrsCache.CacheStatistics;
 import gsrs.repository.UserProfileRepository;
 import gsrs.security.UserTokenCache;
 import gsrs.security.TokenConfiguration;
@@ -10,10 +13,13 @@ import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.statistics.StatisticsGateway;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -21,7 +27,7 @@ import java.util.function.Function;
 import java.util.stream.Stream;
 
 @Component
-public class LegacyUserTokenCache implements UserTokenCache {
+public class LegacyUserTokenCache implements UserTokenCache, CacheStatisticsProvider {
 		private static String CACHE_NAME="TOKEN_CACHE";
 		private static String CACHE_NAME_UP="TOKEN_UP_CACHE";
 
@@ -29,6 +35,7 @@ public class LegacyUserTokenCache implements UserTokenCache {
 	   private Cache tokenCache=null;
 	   private ConcurrentHashMap<String,UserProfile> tokenCacheUserProfile=new ConcurrentHashMap<>();
 	   private long lastCacheUpdate=-1;
+	   private final CacheStatsRecorder profileStats = new CacheStatsRecorder();
 
 	   private UserProfileRepository userProfileRepository;
 
@@ -105,11 +112,23 @@ public class LegacyUserTokenCache implements UserTokenCache {
 		if(e==null){
 			return null;
 		}
-		return (UserProfile)tokenCacheUserProfile.computeIfAbsent((String) e.getObjectValue(),
-				username -> {
-				    return Optional.ofNullable(userProfileRepository.findByUser_UsernameIgnoreCase(username))
-                    .map(oo->oo.standardize())
-                    .orElse(null);
+		String username = (String) e.getObjectValue();
+		UserProfile cached = tokenCacheUserProfile.get(username);
+		if(cached!=null){
+			profileStats.recordHit();
+			return cached;
+		}
+		profileStats.recordMiss();
+		return (UserProfile)tokenCacheUserProfile.computeIfAbsent(username,
+				u -> {
+				    long start = System.nanoTime();
+				    try{
+				        return Optional.ofNullable(userProfileRepository.findByUser_UsernameIgnoreCase(u))
+	                    .map(oo->oo.standardize())
+	                    .orElse(null);
+				    }finally{
+				        profileStats.recordLoad(System.nanoTime() - start);
+				    }
 				}
 				);
 	}
@@ -127,6 +146,28 @@ public class LegacyUserTokenCache implements UserTokenCache {
 		return up;
 	}
 	
+	@Override
+	public List<CacheStatistics> getStatistics() {
+		List<CacheStatistics> stats = new ArrayList<>();
+		StatisticsGateway tokenStats = tokenCache.getStatistics();
+		stats.add(CacheStatistics.builder()
+				.cacheName("User Token Cache")
+				.maxCacheElements(tokenCache.getCacheConfiguration().getMaxEntriesLocalHeap())
+				.currentCacheElements(tokenStats.getSize())
+				.timeToLive(tokenCache.getCacheConfiguration().getTimeToLiveSeconds())
+				.timeToIdle(tokenCache.getCacheConfiguration().getTimeToIdleSeconds())
+				.hitCount(tokenStats.cacheHitCount())
+				.missCount(tokenStats.cacheMissCount())
+				.evictionCount(tokenStats.cacheEvictedCount())
+				.expiredCount(tokenStats.cacheExpiredCount())
+				.build());
+		stats.add(profileStats.addTo(CacheStatistics.builder()
+				.cacheName("User Profile Cache")
+				.currentCacheElements(tokenCacheUserProfile.size()))
+				.build());
+		return stats;
+	}
+
 	private void updateUserProfileTokenCache(){
 	   	//TODO katzelda June 2021 : filter to only active ?
 //    	try(Stream<UserProfile> stream=userProfileRepository.streamAll()){
@@ -0,0 +1,79 @@
+package ix.core.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.ObjectOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import ix.core.models.Session;
+import ix.core.search.SearchResultContext;
+import ix.core.util.EntityUtils.Key;
+
+public class CompactCacheValueCodecTest {
+
+	CompactCacheValueCodec codec = new CompactCacheValueCodec();
+
+	private Object roundTrip(Object value) throws Exception {
+		byte[] bytes = codec.encode(value);
+		return codec.decode(bytes, 0, bytes.length);
+	}
+
+	@Test
+	public void searchContextsAreWrittenCompactly() throws Exception {
+		SearchResultContext.SerailizedSearchResultContext ctx = new SearchResultContext.SerailizedSearchResultContext();
+		ctx.key = "abc";
+		ctx.id = "123";
+
+		SearchResultContext.SerailizedSearchResultContext copy = (SearchResultContext.SerailizedSearchResultContext) roundTrip(ctx);
+		assertEquals("abc", copy.key);
+		assertEquals("123", copy.id);
+		assertNull(copy.generatingPath);
+		assertEquals(1 + 3 * 4 + 6, codec.encode(ctx).length);
+	}
+
+	@Test
+	public void stringsAndListsRoundTrip() throws Exception {
+		assertEquals("hello", roundTrip("hello"));
+		List<String> strings = new ArrayList<>(Arrays.asList("a", null, "ccc"));
+		assertEquals(strings, roundTrip(strings));
+	}
+
+	@Test
+	public void keyListsRoundTrip() throws Exception {
+		List<Key> keys = new ArrayList<>(Arrays.asList(Key.of(Session.class, UUID.randomUUID()),
+				Key.of(Session.class, 5L), Key.of(Session.class, "five")));
+		assertEquals(keys, roundTrip(keys));
+	}
+
+	@Test
+	public void otherValuesAndOldEntriesUseJavaSerialization() throws Exception {
+		HashMap<String, Integer> map = new HashMap<>();
+		map.put("one", 1);
+		assertEquals(map, roundTrip(map));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject("written before the codec");
+		}
+		byte[] old = bos.toByteArray();
+		assertEquals("written before the codec", codec.decode(old, 0, old.length));
+	}
+
+	@Test
+	public void listSubclassesKeepTheirType() throws Exception {
+		MyList list = new MyList();
+		list.add("a");
+		Object copy = roundTrip(list);
+		assertEquals(MyList.class, copy.getClass());
+		assertEquals(list, copy);
+	}
+
+	public static class MyList extends ArrayList<String> {}
+}
@@ -0,0 +1,148 @@
+package ix.core.cache;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrequencyAdmissionGateKeeperTest {
+
+	int maxElements = 100;
+	int timeToLive = 60 * 60;
+	int timeToIdle = 60 * 60;
+	FrequencyAdmissionGateKeeper gateKeeper;
+
+	@Before
+	public void setup() {
+		gateKeeper = (FrequencyAdmissionGateKeeper) new GateKeeperFactory.Builder(maxElements, timeToLive, timeToIdle)
+				.debugLevel(0)
+				.frequencyAdmission(true)
+				.useNonEvictableCache(maxElements, timeToLive, timeToIdle)
+				.build()
+				.create();
+	}
+
+	@After
+	public void shutDown() {
+		gateKeeper.close();
+	}
+
+	@Test
+	public void aScanDoesNotPushOutFrequentlyUsedThings() throws Exception {
+		for (int i = 0; i < 50; i++) {
+			gateKeeper.putRaw("hot" + i, new Evictable());
+		}
+		for (int n = 0; n < 5; n++) {
+			for (int i = 0; i < 50; i++) {
+				assertNotNull(gateKeeper.getRaw("hot" + i));
+			}
+		}
+		for (int i = 0; i < maxElements * 10; i++) {
+			gateKeeper.putRaw("scan" + i, new Evictable());
+		}
+		for (int i = 0; i < 50; i++) {
+			assertNotNull("hot" + i, gateKeeper.getRaw("hot" + i));
+		}
+		FrequencyAdmissionGateKeeper.AdmissionStatistics stats = gateKeeper.getAdmissionStatistics();
+		assertTrue(stats.getRejected() > 0);
+		assertTrue(stats.getHits() >= 300);
+	}
+
+	@Test
+	public void removedThingsAreGoneFromTheWindowToo() throws Exception {
+		Evictable e = new Evictable();
+		gateKeeper.put("TEST", e);
+		assertEquals(e, gateKeeper.get("TEST"));
+		gateKeeper.remove("TEST");
+		assertNull(gateKeeper.get("TEST"));
+	}
+
+	@Test
+	public void evictableValuesAreBoundedByWeight() throws Exception {
+		gateKeeper.close();
+		gateKeeper = (FrequencyAdmissionGateKeeper) new GateKeeperFactory.Builder(maxElements, timeToLive, timeToIdle)
+				.debugLevel(0)
+				.maxEvictableWeight(10_000)
+				.useNonEvictableCache(maxElements, timeToLive, timeToIdle)
+				.build()
+				.create();
+		char[] chars = new char[1000];
+		Arrays.fill(chars, 'x');
+		String big = new String(chars);
+		for (int i = 0; i < 20; i++) {
+			gateKeeper.putRaw("big" + i, big + i);
+		}
+		FrequencyAdmissionGateKeeper.AdmissionStatistics stats = gateKeeper.getAdmissionStatistics();
+		assertTrue(stats.getWeight() > 0);
+		assertTrue(stats.getWeight() <= 10_000);
+		assertEquals(0, stats.getRejected());
+		assertNull(gateKeeper.getRaw("big0"));
+		assertEquals(big + 18, gateKeeper.getRaw("big18"));
+		assertEquals(big + 19, gateKeeper.getRaw("big19"));
+	}
+
+	@Test
+	public void replacedValuesAreWeighedAgain() throws Exception {
+		gateKeeper.close();
+		gateKeeper = (FrequencyAdmissionGateKeeper) new GateKeeperFactory.Builder(maxElements, timeToLive, timeToIdle)
+				.debugLevel(0)
+				.maxEvictableWeight(10_000)
+				.useNonEvictableCache(maxElements, timeToLive, timeToIdle)
+				.build()
+				.create();
+		for (int i = 0; i < 20; i++) {
+			gateKeeper.putRaw("value" + i, "v" + i);
+		}
+		long small = gateKeeper.getAdmissionStatistics().getWeight();
+
+		char[] chars = new char[1000];
+		Arrays.fill(chars, 'x');
+		String big = new String(chars);
+		for (int i = 0; i < 19; i++) {
+			gateKeeper.putRaw("value" + i, big + i);
+		}
+		long weight = gateKeeper.getAdmissionStatistics().getWeight();
+		assertTrue(weight > small);
+		assertTrue(weight <= 10_000);
+		assertNull(gateKeeper.getRaw("value0"));
+		assertEquals(big + 18, gateKeeper.getRaw("value18"));
+	}
+
+	@Test
+	public void valuesTheEvictableCacheDropsItselfNoLongerCount() throws Exception {
+		gateKeeper.close();
+		gateKeeper = (FrequencyAdmissionGateKeeper) new GateKeeperFactory.Builder(maxElements, timeToLive, timeToIdle)
+				.debugLevel(0)
+				.maxEvictableWeight(100_000)
+				.useNonEvictableCache(maxElements, timeToLive, timeToIdle)
+				.build()
+				.create();
+		for (int i = 0; i < 10; i++) {
+			gateKeeper.putRaw("value" + i, "value" + i);
+		}
+		long weight = gateKeeper.getAdmissionStatistics().getWeight();
+		assertTrue(weight > 0);
+
+		//as if it expired
+		Ehcache evictable = CacheManager.getInstance().getCache("IxCache-Evictable");
+		Element e = evictable.get("value0");
+		assertNotNull(e);
+		evictable.removeQuiet("value0");
+		evictable.getCacheEventNotificationService().notifyElementExpiry(e, false);
+
+		assertTrue(gateKeeper.getAdmissionStatistics().getWeight() < weight);
+		assertNull(gateKeeper.getRaw("value0"));
+	}
+
+	@CacheStrategy(evictable = true)
+	public static class Evictable {}
+}
@@ -4,7 +4,9 @@ import static org.junit.Assert.*;
 
 import java.io.Serializable;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
@@ -12,7 +14,9 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.OneToMany;
 
 import gsrs.junit.TimeTraveller;
 import gsrs.junit.vintage.TimeTravellerRule;
@@ -20,8 +24,11 @@ import org.junit.*;
 import org.junit.rules.TemporaryFolder;
 
 import gov.nih.ncats.common.util.TimeUtil;
+import gsrs.cache.GsrsLegacyCachePropertyConfiguration;
 import gsrs.model.AbstractGsrsEntity;
 import ix.core.models.Session;
+import ix.core.util.EntityUtils.EntityWrapper;
+import ix.core.util.EntityUtils.Key;
 
 public class IxCacheTest {
 
@@ -289,7 +296,11 @@ public class IxCacheTest {
             return sOther;
         });
         assertTrue("Cached model should be the same as initial model if not dirty" , s==got);
+		//in the same millisecond as caching it wouldn't count as a later change
+		timeTraveller.freezeTime();
+		timeTraveller.jumpAhead(1, TimeUnit.HOURS);
         IxCache.markChange();
+        timeTraveller.jumpAhead(1, TimeUnit.HOURS);
         got=IxCache.getOrElseRawIfDirty("Test", ()->{
             return sOther;
         });
@@ -301,6 +312,80 @@ public class IxCacheTest {
         assertTrue("Cached model should be updated after dirty" , sOther==got);
     }
 
+    @Test
+    public void markingAChildChangedMakesTheCachedParentHoldingItDirty() throws Exception {
+        MyChildEntity child = new MyChildEntity();
+        MyParentEntity parent = new MyParentEntity();
+        parent.children.add(child);
+        MyParentEntity other = new MyParentEntity();
+        MyParentEntity parentWithNewChild = new MyParentEntity();
+        Key parentKey = Key.of(EntityWrapper.of(parent));
+        Key otherKey = Key.of(EntityWrapper.of(other));
+
+        //the cached parent embeds the child's data but is cached under its own key
+        IxCache.getOrElseRawIfDirty(parentKey, parentKey.toString(), ()-> parent);
+        IxCache.getOrElseRawIfDirty(otherKey, otherKey.toString(), ()-> other);
+
+        timeTraveller.freezeTime();
+        timeTraveller.jumpAhead(1, TimeUnit.HOURS);
+        IxCache.markChange(Key.of(EntityWrapper.of(child)));
+        timeTraveller.jumpAhead(1, TimeUnit.HOURS);
+
+        assertSame("parent should be refetched after its child changed", parentWithNewChild,
+                IxCache.getOrElseRawIfDirty(parentKey, parentKey.toString(), ()-> parentWithNewChild));
+        assertSame("a parent without that child should still be cached", other,
+                IxCache.getOrElseRawIfDirty(otherKey, otherKey.toString(), ()-> parentWithNewChild));
+    }
+
+    @Test
+    public void withoutPerKeyInvalidationMarkingAnEntityChangedMakesEverythingDirty() throws Exception {
+        IxCache.close();
+        GsrsLegacyCachePropertyConfiguration configuration = new GsrsLegacyCachePropertyConfiguration();
+        configuration.setPerKeyInvalidation(false);
+        IxCache = new IxCache( new GateKeeperFactory.Builder(100, ONE_HR,ONE_HR)
+                .cacheAdapter(new FileDbCache(tmpDir.newFolder(), "testCache",true))
+                .useNonEvictableCache(50, ONE_HR, ONE_HR)
+                .build().create(), configuration);
+        MyEntityClass s1 = new MyEntityClass();
+        MyEntityClass s2 = new MyEntityClass();
+        MyEntityClass sOther = new MyEntityClass();
+        Key k1 = Key.of(EntityWrapper.of(s1));
+        Key k2 = Key.of(EntityWrapper.of(s2));
+
+        IxCache.getOrElseRawIfDirty(k1, k1.toString(), ()-> s1);
+
+        timeTraveller.freezeTime();
+        timeTraveller.jumpAhead(1, TimeUnit.HOURS);
+        IxCache.markChange(k2);
+        timeTraveller.jumpAhead(1, TimeUnit.HOURS);
+
+        assertSame("every cached entity should be refetched", sOther, IxCache.getOrElseRawIfDirty(k1, k1.toString(), ()-> sOther));
+    }
+
+    @Test
+    public void markingOneEntityChangedOnlyMakesThatEntityDirty() throws Exception {
+        MyEntityClass s1 = new MyEntityClass();
+        MyEntityClass s2 = new MyEntityClass();
+        MyEntityClass sOther = new MyEntityClass();
+        Key k1 = Key.of(EntityWrapper.of(s1));
+        Key k2 = Key.of(EntityWrapper.of(s2));
+
+        IxCache.getOrElseRawIfDirty(k1, k1.toString(), ()-> s1);
+        IxCache.getOrElseRawIfDirty(k2, k2.toString(), ()-> s2);
+
+        timeTraveller.freezeTime();
+        timeTraveller.jumpAhead(1, TimeUnit.HOURS);
+        IxCache.markChange(k1);
+        timeTraveller.jumpAhead(1, TimeUnit.HOURS);
+
+        assertSame("changed entity should be refetched", sOther, IxCache.getOrElseRawIfDirty(k1, k1.toString(), ()-> sOther));
+        assertSame("other entity should still be cached", s2, IxCache.getOrElseRawIfDirty(k2, k2.toString(), ()-> sOther));
+
+        IxCache.markChangeOfKind(k2.getKind());
+        timeTraveller.jumpAhead(1, TimeUnit.HOURS);
+        assertSame("changed kind should be refetched", sOther, IxCache.getOrElseRawIfDirty(k2, k2.toString(), ()-> sOther));
+    }
+
     @Test
     public void cacheRawShouldBeDifferentThanAdaptedcacheShouldWork() throws Exception {
         MyEntityClass s = new MyEntityClass();
@@ -318,6 +403,20 @@ public class IxCacheTest {
     
 	public static class NonSerailizable{}
 
+	@Entity
+	public static class MyChildEntity implements Serializable {
+		@Id
+		public UUID uuid = UUID.randomUUID();
+	}
+
+	@Entity
+	public static class MyParentEntity implements Serializable {
+		@Id
+		public UUID uuid = UUID.randomUUID();
+		@OneToMany
+		public List<MyChildEntity> children = new ArrayList<>();
+	}
+
 	public static class MyEntityClass extends AbstractGsrsEntity implements Serializable {
 		@Id
 		private UUID uuid = UUID.randomUUID();
@@ -0,0 +1,75 @@
+package ix.core.cache;
+
+import gov.nih.ncats.common.util.TimeUtil;
+import net.sf.ehcache.Element;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TemporaryElementCacheTest {
+
+	TemporaryElementCache cache;
+
+	@After
+	public void shutDown() {
+		if (cache != null) {
+			cache.close();
+		}
+		TimeUtil.useSystemTime();
+	}
+
+	@Test
+	public void oldestElementsAreDroppedPastTheMax() {
+		cache = new TemporaryElementCache(2, 0);
+		List<String> dropped = new ArrayList<>();
+		cache.addEvictionListener((k, e, cause) -> dropped.add(k + ":" + cause));
+		cache.put("a", new Element("a", 1));
+		cache.put("b", new Element("b", 2));
+		cache.put("c", new Element("c", 3));
+
+		assertNull(cache.get("a"));
+		assertNotNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(Collections.singletonList("a:SIZE"), dropped);
+	}
+
+	@Test
+	public void sweepDropsExpiredElements() {
+		TimeUtil.setCurrentTime(1_000_000);
+		cache = new TemporaryElementCache(0, 60);
+		List<String> dropped = new ArrayList<>();
+		cache.addEvictionListener((k, e, cause) -> dropped.add(k + ":" + cause));
+		cache.put("old", new Element("old", 1));
+		TimeUtil.setCurrentTime(1_000_000 + 30_000);
+		cache.put("new", new Element("new", 2));
+
+		TimeUtil.setCurrentTime(1_000_000 + 61_000);
+		cache.sweep();
+
+		assertEquals(1, cache.size());
+		assertNotNull(cache.get("new"));
+		assertEquals(1, cache.getExpiredCount());
+		assertEquals(Collections.singletonList("old:EXPIRED"), dropped);
+	}
+
+	@Test
+	public void elementsAreTheOldestUpToTheMax() {
+		cache = new TemporaryElementCache(0, 0);
+		cache.put("a", new Element("a", 1));
+		cache.put("b", new Element("b", 2));
+		cache.put("c", new Element("c", 3));
+
+		List<Element> elements = cache.elements(2);
+		assertEquals(2, elements.size());
+		assertEquals("a", elements.get(0).getObjectKey());
+		assertEquals("b", elements.get(1).getObjectKey());
+	}
+}
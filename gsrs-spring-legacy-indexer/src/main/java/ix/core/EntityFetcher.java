@@ -36,7 +36,7 @@ import lombok.extern.slf4j.Slf4j;
 public class EntityFetcher<T> implements NamedCallable<Key,T>{
     private static Object getOrFetchRecordIfNotDirty(Key k) throws Exception {
         GsrsCache ixcache = getIxCache();
-        return ixcache.getOrElseRawIfDirty(k.toString(), ()->{
+        return ixcache.getOrElseRawIfDirty(k, k.toString(), ()->{
             Optional<EntityUtils.EntityWrapper<?>> ret = k.fetchReadOnlyFull();
             if(ret.isPresent()){
                 return ret.get().getValue();
@@ -47,7 +47,7 @@ public class EntityFetcher<T> implements NamedCallable<Key,T>{
     
     private static Object getOrFetchRecordPerUserIfNotDirty(Key k) throws Exception {
         GsrsCache ixcache = getIxCache();
-        return ixcache.getOrElseIfDirty(k.toString(), ()->{
+        return ixcache.getOrElseIfDirty(k, k.toString(), ()->{
             Optional<EntityUtils.EntityWrapper<?>> ret = k.fetchReadOnlyFull();
             if(ret.isPresent()){
                 return ret.get().getValue();
@@ -145,7 +145,7 @@ public class EntityFetcher<T> implements NamedCallable<Key,T>{
                        
                     };
                     try{
-                        return ixCache.getOrElseRawIfDirty(jkey, caller);
+                        return ixCache.getOrElseRawIfDirty(fetcher.theKey, jkey, caller);
                     }catch(Exception e){
                         return ifNot.get();
                     }
@@ -0,0 +1,178 @@
+package ix.core.search.text;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.BytesRef;
+
+import ix.core.search.text.TextIndexer.IndexRecord;
+import ix.core.search.text.TextIndexer.IndexedFacet;
+import ix.core.search.text.TextIndexer.IndexedField;
+import ix.core.search.text.TextIndexer.IndexedFieldType;
+import ix.core.search.text.TextIndexer.IndexedSuggestField;
+
+/**
+ * Compact binary encoding of an {@link IndexRecord}, used instead of
+ * JSON for the full index record stored with each entity. Strings are
+ * length prefixed UTF-8 and counts are variable length ints.
+ */
+final class IndexRecordCodec {
+
+    private static final byte VERSION = 1;
+
+    private IndexRecordCodec() {
+        //can not instantiate
+    }
+
+    static BytesRef encode(IndexRecord ix) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutput out = new OutputStreamDataOutput(bytes);
+            out.writeByte(VERSION);
+            writeString(out, ix.getKind());
+            writeString(out, ix.getIdField());
+            writeString(out, ix.getId());
+            writeBoolean(out, ix.isDeepAnalyzed());
+
+            out.writeVInt(ix.getFields().size());
+            for (IndexedField f : ix.getFields()) {
+                writeString(out, f.getFieldName());
+                writeString(out, f.getFieldValue());
+                writeType(out, f.getType());
+                writeBoolean(out, f.isStored());
+                writeBoolean(out, f.isSortable());
+                writeBoolean(out, f.isExactText());
+            }
+
+            out.writeVInt(ix.getFacets().size());
+            for (IndexedFacet f : ix.getFacets()) {
+                writeString(out, f.getFacetName());
+                writeString(out, f.getFacetValue());
+                writeType(out, f.getType());
+                double[] buckets = f.getBuckets();
+                if (buckets == null) {
+                    out.writeVInt(0);
+                } else {
+                    out.writeVInt(buckets.length + 1);
+                    for (double d : buckets) {
+                        out.writeLong(Double.doubleToLongBits(d));
+                    }
+                }
+                writeString(out, f.getFormat());
+                writeBoolean(out, f.isHierarchical());
+            }
+
+            out.writeVInt(ix.getSuggest().size());
+            for (IndexedSuggestField f : ix.getSuggest()) {
+                writeString(out, f.getSuggestName());
+                writeString(out, f.getSuggestValue());
+                out.writeVInt(f.getSuggestWeight());
+            }
+        } catch (IOException e) {
+            //can't happen writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return new BytesRef(bytes.toByteArray());
+    }
+
+    static IndexRecord decode(BytesRef ref) {
+        ByteArrayDataInput in = new ByteArrayDataInput(ref.bytes, ref.offset, ref.length);
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalStateException("unknown index record encoding version " + version);
+        }
+        try {
+            IndexRecord ix = new IndexRecord();
+            ix.setKind(readString(in));
+            ix.setIdField(readString(in));
+            ix.setId(readString(in));
+            ix.setDeepAnalyzed(readBoolean(in));
+
+            int numFields = in.readVInt();
+            List<IndexedField> fields = new ArrayList<>(numFields);
+            for (int i = 0; i < numFields; i++) {
+                fields.add(IndexedField.builder()
+                        .fieldName(readString(in))
+                        .fieldValue(readString(in))
+                        .type(readType(in))
+                        .stored(readBoolean(in))
+                        .sortable(readBoolean(in))
+                        .exactText(readBoolean(in))
+                        .build());
+            }
+            ix.setFields(fields);
+
+            int numFacets = in.readVInt();
+            List<IndexedFacet> facets = new ArrayList<>(numFacets);
+            for (int i = 0; i < numFacets; i++) {
+                IndexedFacet.IndexedFacetBuilder builder = IndexedFacet.builder()
+                        .facetName(readString(in))
+                        .facetValue(readString(in))
+                        .type(readType(in));
+                int numBuckets = in.readVInt();
+                if (numBuckets > 0) {
+                    double[] buckets = new double[numBuckets - 1];
+                    for (int j = 0; j < buckets.length; j++) {
+                        buckets[j] = Double.longBitsToDouble(in.readLong());
+                    }
+                    builder.buckets(buckets);
+                }
+                facets.add(builder
+                        .format(readString(in))
+                        .hierarchical(readBoolean(in))
+                        .build());
+            }
+            ix.setFacets(facets);
+
+            int numSuggest = in.readVInt();
+            List<IndexedSuggestField> suggest = new ArrayList<>(numSuggest);
+            for (int i = 0; i < numSuggest; i++) {
+                suggest.add(IndexedSuggestField.builder()
+                        .suggestName(readString(in))
+                        .suggestValue(readString(in))
+                        .suggestWeight(in.readVInt())
+                        .build());
+            }
+            ix.setSuggest(suggest);
+            return ix;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeBoolean(DataOutput out, boolean b) throws IOException {
+        out.writeByte(b ? (byte) 1 : (byte) 0);
+    }
+
+    private static boolean readBoolean(DataInput in) throws IOException {
+        return in.readByte() != 0;
+    }
+
+    //0 is null, otherwise the ordinal +1
+    private static void writeType(DataOutput out, IndexedFieldType type) throws IOException {
+        out.writeByte(type == null ? (byte) 0 : (byte) (type.ordinal() + 1));
+    }
+
+    private static IndexedFieldType readType(DataInput in) throws IOException {
+        byte b = in.readByte();
+        return b == 0 ? null : IndexedFieldType.values()[b - 1];
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        writeBoolean(out, s != null);
+        if (s != null) {
+            out.writeString(s);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return readBoolean(in) ? in.readString() : null;
+    }
+}
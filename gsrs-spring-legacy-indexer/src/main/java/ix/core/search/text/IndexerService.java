@@ -1,15 +1,64 @@
 package ix.core.search.text;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.SearcherManager;
 
 import java.io.IOException;
+import java.util.List;
 
 public interface IndexerService extends IndexListener {
-    boolean flushChangesIfNeeded();
+    /**
+     * Commit the index if it has uncommitted changes.
+     * @return true if there was something to commit.
+     * @throws IOException if the commit failed, the changes have been rolled back.
+     */
+    boolean flushChangesIfNeeded() throws IOException;
     SearcherManager createSearchManager() throws IOException;
+
+    /**
+     * Create a manager which hands out a near-real-time searcher
+     * paired with a taxonomy reader that is consistent with it,
+     * so facet counting doesn't need to open its own taxonomy reader.
+     * @param taxonWriter the taxonomy writer used for this index.
+     * @return a new {@link SearcherTaxonomyManager}; the caller is responsible
+     * for closing it.
+     * @throws IOException if there is a problem opening the readers.
+     */
+    SearcherTaxonomyManager createSearcherTaxonomyManager(DirectoryTaxonomyWriter taxonWriter) throws IOException;
     IndexReader createIndexReader() throws IOException;
 
+    /**
+     * The memory currently used by buffered changes which
+     * haven't been flushed yet.
+     * @return the number of bytes.
+     */
+    long ramBytesUsed();
+
+    double getRAMBufferSizeMB();
+
+    /**
+     * Change how much memory is used to buffer added documents
+     * before they are flushed to a new segment; takes effect immediately.
+     */
+    void setRAMBufferSizeMB(double mb);
+
+    /**
+     * Add the documents as one block, they are flushed together
+     * and will always be visible to searches at the same time.
+     */
+    void addDocuments(List<Document> docs);
+
+    /**
+     * Atomically delete all documents with the given term and add the
+     * new documents as one block. Searches see either the old or the new
+     * documents, never neither or both.
+     */
+    void updateDocuments(Term term, List<Document> docs);
+
     Analyzer getIndexAnalyzer();
 }
@@ -7,10 +7,13 @@ import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.util.CharArraySet;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
@@ -24,6 +27,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class Lucene4IndexService implements IndexerService {
@@ -84,10 +88,26 @@ public class Lucene4IndexService implements IndexerService {
         return new SearcherManager(indexWriter, true, null);
     }
     @Override
+    public SearcherTaxonomyManager createSearcherTaxonomyManager(DirectoryTaxonomyWriter taxonWriter) throws IOException{
+        return new SearcherTaxonomyManager(indexWriter, true, null, taxonWriter);
+    }
+    @Override
     public IndexReader createIndexReader() throws IOException{
         return  DirectoryReader.open(indexWriter, true);
     }
     @Override
+    public long ramBytesUsed() {
+        return indexWriter.ramBytesUsed();
+    }
+    @Override
+    public double getRAMBufferSizeMB() {
+        return indexWriter.getConfig().getRAMBufferSizeMB();
+    }
+    @Override
+    public void setRAMBufferSizeMB(double mb) {
+        indexWriter.getConfig().setRAMBufferSizeMB(mb);
+    }
+    @Override
     public Document addDocument(Document doc) {
         try {
             indexWriter.addDocument(doc);
@@ -100,6 +120,24 @@ public class Lucene4IndexService implements IndexerService {
 
 
 
+    @Override
+    public void addDocuments(List<Document> docs) {
+        try {
+            indexWriter.addDocuments(docs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void updateDocuments(Term term, List<Document> docs) {
+        try {
+            indexWriter.updateDocuments(term, docs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Override
     public void deleteDocuments(Query query) {
         try {
@@ -127,18 +165,18 @@ public class Lucene4IndexService implements IndexerService {
     }
 
     @Override
-    public boolean flushChangesIfNeeded() {
+    public boolean flushChangesIfNeeded() throws IOException {
         if(indexWriter.hasUncommittedChanges()){
             try {
                 indexWriter.commit();
             } catch (IOException e) {
                 //doing what TextIndexer did
-                e.printStackTrace();
                 try {
                     indexWriter.rollback();
                 } catch (IOException ex) {
-                    ex.printStackTrace();
+                    e.addSuppressed(ex);
                 }
+                throw e;
             }
             return true;
         }
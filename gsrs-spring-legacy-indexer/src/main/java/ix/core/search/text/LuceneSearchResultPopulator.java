@@ -9,12 +9,19 @@ import ix.core.util.EntityUtils;
 import ix.core.util.EntityUtils.Key;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.BytesRef;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -52,6 +59,43 @@ class LuceneSearchResultPopulator {
 		this.searcher=searcher;
 	}
 
+	/**
+	 * Resolves the root {@link Key} of a hit from the kind and root id
+	 * doc values, so the stored document doesn't need to be loaded.
+	 * Documents indexed before the root id doc values existed
+	 * fall back to reading the stored fields.
+	 *
+	 * Not thread safe, the doc values are cached per leaf.
+	 */
+	static class DocValuesKeyResolver {
+		private final IndexSearcher searcher;
+		private final List<LeafReaderContext> leaves;
+		private final SortedDocValues[] kinds;
+		private final BinaryDocValues[] ids;
+
+		DocValuesKeyResolver(IndexSearcher searcher) {
+			this.searcher = searcher;
+			this.leaves = searcher.getIndexReader().leaves();
+			this.kinds = new SortedDocValues[leaves.size()];
+			this.ids = new BinaryDocValues[leaves.size()];
+		}
+
+		Key keyOf(int doc) throws Exception {
+			int leafIndex = ReaderUtil.subIndex(doc, leaves);
+			LeafReaderContext leaf = leaves.get(leafIndex);
+			if (kinds[leafIndex] == null) {
+				kinds[leafIndex] = DocValues.getSorted(leaf.reader(), TextIndexer.FIELD_KIND);
+				ids[leafIndex] = DocValues.getBinary(leaf.reader(), TextIndexer.FIELD_ROOT_ID);
+			}
+			int leafDoc = doc - leaf.docBase;
+			BytesRef id = ids[leafIndex].get(leafDoc);
+			if (id.length == 0) {
+				return LuceneSearchResultPopulator.keyOf(searcher.doc(doc));
+			}
+			return LuceneSearchResultPopulator.keyOf(kinds[leafIndex].get(leafDoc).utf8ToString(), id.utf8ToString());
+		}
+	}
+
 	void fetch() throws IOException, InterruptedException {
 		try {
 			fetch(total);
@@ -64,6 +108,7 @@ class LuceneSearchResultPopulator {
 		size = Math.min(options.getTop(), Math.min(total - offset, size));
 		
 		int i=last;
+		DocValuesKeyResolver resolver = new DocValuesKeyResolver(searcher);
 		try{
 			for (i = last; (i < size) && (i + offset<hits.scoreDocs.length); ++i) {
 				if (Thread.interrupted()) {
@@ -73,10 +118,8 @@ class LuceneSearchResultPopulator {
 				//This is probably a bad idea
 				//because the document id integer may not always remain the same between loads
 				//and that can cause a problem
-				Document doc = searcher.doc(hits.scoreDocs[i + offset].doc);
-				//doc.
 				try {
-					Key k = keyOf(doc).toRootKey();
+					Key k = resolver.keyOf(hits.scoreDocs[i + offset].doc).toRootKey();
 					
 					result.addNamedCallable(new EntityFetcher(k));
 				} catch (Exception e) {
@@ -97,17 +140,23 @@ class LuceneSearchResultPopulator {
 		    String kind=iff.binaryValue().utf8ToString();
 //			String kind = iff.stringValue();
 			EntityUtils.EntityInfo<?> ei = EntityUtils.getEntityInfoFor(kind).getInherittedRootEntityInfo();
-			String eiField = ei.getInternalIdField();
+			if(ei.hasIdField()){
+				return keyOf(kind, doc.getField(ei.getInternalIdField()).stringValue());
+			}else{
+				throw new NoSuchElementException("Entity:" + kind + " has no ID field");
+			}
+		}
+
+		static Key keyOf(String kind, String id) throws Exception {
+			EntityUtils.EntityInfo<?> ei = EntityUtils.getEntityInfoFor(kind).getInherittedRootEntityInfo();
 			if(ei.hasIdField()){
 				if (ei.hasLongId()) {
 					try{
-						String idS = doc.getField(ei.getInternalIdField()).stringValue();
-						return new Key(ei, Long.parseLong(idS));
+						return new Key(ei, Long.parseLong(id));
 					}catch(Exception e) {
 						throw new RuntimeException(e);
 					}
 				} else {
-					String id = doc.getField(eiField).stringValue();
 					return new Key(ei, ei.formatIdToNative(id));
 				}
 			}else{
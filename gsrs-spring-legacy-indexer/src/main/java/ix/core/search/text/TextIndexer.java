@@ -58,6 +58,7 @@ import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DoubleField;
 import org.apache.lucene.document.FieldType;
@@ -79,8 +80,9 @@ import org.apache.lucene.facet.LabelAndValue;
 import org.apache.lucene.facet.range.LongRange;
 import org.apache.lucene.facet.range.LongRangeFacetCounts;
 import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager.SearcherAndTaxonomy;
 import org.apache.lucene.facet.taxonomy.TaxonomyReader;
-import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queries.TermsFilter;
@@ -104,7 +106,6 @@ import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Scorer;
-import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.SortedNumericSortField;
@@ -160,6 +161,7 @@ import ix.core.search.SuggestResult;
 import ix.core.search.bulk.UserSavedListService;
 import ix.core.search.bulk.UserSavedListService.UserListIndexedValue;
 import ix.core.search.text.RestrictedIVMSpecification.RestrictedType;
+import ix.core.search.text.TextIndexerConfig.FullIndexRecordFormat;
 import ix.core.util.EntityUtils;
 import ix.core.util.EntityUtils.EntityInfo;
 import ix.core.util.EntityUtils.EntityWrapper;
@@ -205,6 +207,9 @@ public class TextIndexer implements Closeable, ProcessListener {
 	
 	private static final String FULL_DOC_PREFIX = "FULL_DOC_";
 	private static final String FULL_DOC_FIELD ="FULL_INDEX";
+	private static final String FULL_DOC_BINARY_FIELD ="FULL_INDEX_BIN";
+	//just the suggestions, for kinds which don't store the full record
+	private static final String FULL_DOC_SUGGEST_FIELD ="FULL_INDEX_SUGGEST";
 	
 	private static final int DEFAULT_ANALYZER_MATCH_FIELD_LIMIT = 25; // number of narrowing fields to show
 	
@@ -227,7 +232,8 @@ public class TextIndexer implements Closeable, ProcessListener {
 
     private List<IndexListener> listeners = new ArrayList<>();
 
-	private Set<String> alreadySeenDuringReindexingMode;
+	//keys already written while reindexing, the reindex doesn't write them again
+	private volatile Set<String> alreadySeenDuringReindexingMode;
 		
 	@Autowired
 	GsrsCache gsrscache;
@@ -286,6 +292,17 @@ public class TextIndexer implements Closeable, ProcessListener {
 	 */
 	public static final String FIELD_KIND = "__kind";
 	public static final String FIELD_ID = "id";
+	/**
+	 * doc values only field with the root id of the entity,
+	 * used with {@link #FIELD_KIND} to make the key of a hit
+	 * without loading the stored document.
+	 */
+	public static final String FIELD_ROOT_ID = "__root_id";
+	/**
+	 * indexed on every document of an entity (main, full record and
+	 * analyzer documents) so they can be replaced together.
+	 */
+	public static final String FIELD_ROOT_KEY = "__root_key";
 
 	/**
 	 * these default parameters should be configurable!
@@ -1131,12 +1148,46 @@ public class TextIndexer implements Closeable, ProcessListener {
 		}
 	}
 
+	/**
+	 * Commits the index when the commit policy in {@link TextIndexerConfig}
+	 * says so: too many uncommitted changes, too much buffered memory,
+	 * changes waiting too long, or the index being idle for a while.
+	 * Making changes visible to searches is done separately by
+	 * the near real time refresh, which doesn't need a commit.
+	 */
 	class FlushDaemon implements Runnable {
 
 		private ReentrantLock latch = new ReentrantLock();
+
+		private final AtomicLong pendingChanges = new AtomicLong();
+		private final AtomicLong firstPendingChange = new AtomicLong();
+
+		private volatile long lastCommitDuration;
+		private volatile long lastCommitTime;
+		private final AtomicLong commitCount = new AtomicLong();
+
 		FlushDaemon() {
 		}
 
+		void changed(long time, int count) {
+			if(pendingChanges.getAndAdd(count)==0) {
+				firstPendingChange.set(time);
+			}
+		}
+
+		boolean shouldCommit() {
+			long pending = pendingChanges.get();
+			if(pending==0) {
+				return false;
+			}
+			long now = TimeUtil.getCurrentTimeMillis();
+			long idleSeconds = textIndexerConfig.getCommitIdleSeconds();
+			return pending >= textIndexerConfig.getCommitMaxUncommittedDocs()
+					|| indexerService.ramBytesUsed() >= textIndexerConfig.getCommitMaxRamMB() * 1024L * 1024L
+					|| now - firstPendingChange.get() >= TimeUnit.SECONDS.toMillis(textIndexerConfig.getCommitMaxLatencySeconds())
+					|| (idleSeconds > 0 && now - lastModified() >= TimeUnit.SECONDS.toMillis(idleSeconds));
+		}
+
 		protected void lockFlush(){
 			latch.lock();
 		}
@@ -1156,7 +1207,7 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 			try {
 				// Don't execute if already shutdown
-				if(isShutDown || isReindexing.get()){
+				if(isShutDown || isReindexing.get() || !shouldCommit()){
 					return;
 				}
 				execute();
@@ -1191,7 +1242,21 @@ public class TextIndexer implements Closeable, ProcessListener {
 				saveSorters(sortFile, sorters);
 			}
            
-			if ( indexerService.flushChangesIfNeeded()) {
+			//only cleared once the commit worked, changes made while committing stay pending
+			long pending = pendingChanges.get();
+			long start = TimeUtil.getCurrentTimeMillis();
+			boolean flushed;
+			try {
+				flushed = indexerService.flushChangesIfNeeded();
+			} catch (IOException ex) {
+				log.error("Can't commit " + pending + " pending index changes", ex);
+				return;
+			}
+			//committed, or already committed by someone else
+			if(pendingChanges.addAndGet(-pending) > 0) {
+				firstPendingChange.set(start);
+			}
+			if ( flushed) {
 				log.debug("Committing index changes...");
 				try {
 					taxonWriter.commit();
@@ -1203,13 +1268,58 @@ public class TextIndexer implements Closeable, ProcessListener {
 						exx.printStackTrace();
 					}
 				}
+				//reopen the searcher/taxonomy pair here so searches
+				//don't have to pay for it
+				refreshSearcher();
 
 				for (SuggestLookup lookup : lookups.values()) {
                     lookup.refreshIfDirty();
                 }
+				lastCommitTime = TimeUtil.getCurrentTimeMillis();
+				lastCommitDuration = lastCommitTime - start;
+				commitCount.incrementAndGet();
+				log.debug("Committed " + pending + " pending changes in " + lastCommitDuration + "ms");
 			}
 
 		}
+
+		void refreshSearcher() {
+			if(isShutDown) {
+				return;
+			}
+			try {
+				TextIndexer.this.refreshSearcher(false);
+			} catch (Exception ex) {
+				//the searcher can be closed while the indexes are cleared
+				log.trace("Can't refresh searcher and taxonomy", ex);
+			}
+		}
+	}
+
+	/**
+	 * The number of changes (additions and removals) since the last commit.
+	 */
+	public long getPendingChangeCount() {
+		return flushDaemon==null ? 0 : flushDaemon.pendingChanges.get();
+	}
+
+	/**
+	 * How long the last commit took, in milliseconds.
+	 */
+	public long getLastCommitDuration() {
+		return flushDaemon==null ? 0 : flushDaemon.lastCommitDuration;
+	}
+
+	/**
+	 * When the last commit finished, in milliseconds since the epoch,
+	 * or 0 if there hasn't been a commit yet.
+	 */
+	public long getLastCommitTime() {
+		return flushDaemon==null ? 0 : flushDaemon.lastCommitTime;
+	}
+
+	public long getCommitCount() {
+		return flushDaemon==null ? 0 : flushDaemon.commitCount.get();
 	}
 
 	private File baseDir;
@@ -1227,6 +1337,18 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 	private Striped<Lock> stripedLock = Striped.lazyWeakLock(200);
 
+	//root keys written since the searcher was last refreshed
+	private final Set<String> writtenSinceRefresh = ConcurrentHashMap.newKeySet();
+
+	//checked when opened and when a reindex finishes, cleared when all indexes are cleared
+	private volatile boolean mayHaveDocumentsWithoutRootKey;
+
+	//set while addBatch builds the documents of a batch
+	private final ThreadLocal<List<EntityDocumentBlock>> pendingBulkBlocks = new ThreadLocal<>();
+
+	//the writer's RAM buffer before it was raised for maintenance mode
+	private Double normalRamBufferMB;
+
 	private AtomicLong lastModified = new AtomicLong();
 
 	private ExecutorService threadPool;
@@ -1248,7 +1370,12 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 	private FlushDaemon flushDaemon;
 
-	SearcherManager searchManager;
+	/**
+	 * Hands out an index searcher together with a taxonomy
+	 * reader which is consistent with it, so facets don't
+	 * have to open a new taxonomy reader for every search.
+	 */
+	SearcherTaxonomyManager searchManager;
 
 	private IndexerService indexerService;
 
@@ -1264,6 +1391,23 @@ public class TextIndexer implements Closeable, ProcessListener {
         return taxonWriter;
     }
 
+    File getBaseDir() {
+        return baseDir;
+    }
+
+	/**
+	 * Commit everything written so far, whatever the commit policy
+	 * says, and make it visible to searches.
+	 */
+	void commitNow() {
+		flushDaemon.lockFlush();
+		try {
+			flushDaemon.execute();
+		}finally {
+			flushDaemon.unLockFlush();
+		}
+	}
+
     private TextIndexer(IndexerServiceFactory indexerServiceFactory, IndexerService indexerService, TextIndexerConfig textIndexerConfig, 
     			IndexValueMakerFactory indexValueMakerFactory, Function<EntityWrapper, Boolean> deepKindFunction,
     			UserSavedListService userSavedListService) {
@@ -1290,7 +1434,8 @@ public class TextIndexer implements Closeable, ProcessListener {
         this.indexValueMakerFactory = indexValueMakerFactory;
 	    this.baseDir = dir;
         threadPool = Executors.newFixedThreadPool(textIndexerConfig.getFetchWorkerCount());
-        scheduler = Executors.newSingleThreadScheduledExecutor();
+        //one thread for commits and one for near real time refreshes
+        scheduler = Executors.newScheduledThreadPool(2);
         isShutDown = false;
         isEmptyPool = false;
 
@@ -1302,14 +1447,17 @@ public class TextIndexer implements Closeable, ProcessListener {
         initialSetup();
 
         flushDaemon = new FlushDaemon();
-        // run daemon every 10s
-        scheduler.scheduleWithFixedDelay(flushDaemon, 10, 35, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(flushDaemon, textIndexerConfig.getCommitCheckIntervalMillis(),
+        		textIndexerConfig.getCommitCheckIntervalMillis(), TimeUnit.MILLISECONDS);
+        if(textIndexerConfig.getNrtRefreshIntervalMillis() > 0) {
+        	scheduler.scheduleWithFixedDelay(flushDaemon::refreshSearcher, textIndexerConfig.getNrtRefreshIntervalMillis(),
+        			textIndexerConfig.getNrtRefreshIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
 
     }
     
     private void initialSetup() throws IOException {
 
-        searchManager = this.indexerService.createSearchManager();
         facetFileDir = new File(baseDir, "facet");
         Files.createDirectories(facetFileDir.toPath());
         taxonDir = new NIOFSDirectory(facetFileDir.toPath(), NoLockFactory.INSTANCE);
@@ -1320,6 +1468,8 @@ public class TextIndexer implements Closeable, ProcessListener {
             log.debug("Error checking index");
         }
         taxonWriter = new DirectoryTaxonomyWriter(taxonDir);
+        searchManager = this.indexerService.createSearcherTaxonomyManager(taxonWriter);
+        mayHaveDocumentsWithoutRootKey = hasDocumentsWithoutRootKey();
         facetsConfig = loadFacetsConfig(new File(baseDir, FACETS_CONFIG_FILE));
         if (facetsConfig == null) {
             int size = taxonWriter.getSize();
@@ -1362,6 +1512,11 @@ public class TextIndexer implements Closeable, ProcessListener {
 		R apply(IndexSearcher indexSearcher) throws Exception;
 	}
 
+	@FunctionalInterface
+	public interface SearcherAndTaxonomyFunction<R> {
+		R apply(IndexSearcher indexSearcher, TaxonomyReader taxonomyReader) throws Exception;
+	}
+
 	//This method is moved from SearchRequest since it belongs here since it uses indexer fields mostly
 
     public Query extractFullFacetQuery(String queryString, SearchOptions options, String facet) throws ParseException {
@@ -1457,13 +1612,22 @@ public class TextIndexer implements Closeable, ProcessListener {
     }
 
 	public <R> R withSearcher(SearcherFunction<R> worker) throws Exception {
+		return withSearcherAndTaxonomy((searcher, taxon) -> worker.apply(searcher));
+	}
+
+	/**
+	 * Run the given function with a searcher and the taxonomy reader
+	 * that matches it. Both are released when the function returns
+	 * so neither should be used outside of it.
+	 */
+	public <R> R withSearcherAndTaxonomy(SearcherAndTaxonomyFunction<R> worker) throws Exception {
 		searchManager.maybeRefresh();
-		IndexSearcher searcher = searchManager.acquire();
+		SearcherAndTaxonomy pair = searchManager.acquire();
 		try {
-			return worker.apply(searcher); //what happens if this starts using the
-										   //searcher in another thread?
+			return worker.apply(pair.searcher, pair.taxonomyReader); //what happens if this starts using the
+																	 //searcher in another thread?
 		} finally {
-			searchManager.release(searcher);
+			searchManager.release(pair);
 		}
 	}
 
@@ -1489,8 +1653,8 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 	protected TextIndexer config(TextIndexer indexer) throws IOException {
 
-		indexer.searchManager = indexer.indexerService.createSearchManager();
 		indexer.taxonWriter = new DirectoryTaxonomyWriter(indexer.taxonDir);
+		indexer.searchManager = indexer.indexerService.createSearcherTaxonomyManager(indexer.taxonWriter);
         try {
             CheckIndex checker = new CheckIndex(taxonDir);
         }
@@ -1907,7 +2071,7 @@ public class TextIndexer implements Closeable, ProcessListener {
 	}
 
 	protected SearchResult search(GsrsRepository gsrsRepository, SearchResult searchResult, Query query, Query filter) throws Exception {
-		return withSearcher(searcher -> search(gsrsRepository, searcher, searchResult, query, filter));
+		return withSearcherAndTaxonomy((searcher, taxon) -> search(gsrsRepository, searcher, taxon, searchResult, query, filter));
 	}
 
 	public Map<String,List<Query>> createAndRemoveRangeFiltersFromOptions(SearchOptions options) {
@@ -2193,13 +2357,9 @@ public class TextIndexer implements Closeable, ProcessListener {
 	}
 
 	// This is the most important method, everything goes here
-	protected SearchResult search(GsrsRepository gsrsRepository,  IndexSearcher searcher, SearchResult searchResult, Query query, Query filter)
+	protected SearchResult search(GsrsRepository gsrsRepository,  IndexSearcher searcher, TaxonomyReader taxon, SearchResult searchResult, Query query, Query filter)
 			throws IOException {
-		final TopDocs hits;
-
-		try (TaxonomyReader taxon = new DirectoryTaxonomyReader(taxonWriter)) {
-		    hits=firstPassLuceneSearch(searcher,taxon,searchResult,filter, query, gsrsRepository);
-		}
+		final TopDocs hits=firstPassLuceneSearch(searcher,taxon,searchResult,filter, query, gsrsRepository);
 
 		try {
 			LuceneSearchResultPopulator payload = new LuceneSearchResultPopulator(gsrsRepository, searchResult, hits, searcher);
@@ -2407,11 +2567,11 @@ public class TextIndexer implements Closeable, ProcessListener {
     						}
     						LuceneSearchProviderResult lspResult = lsp.search(searcher, taxon, tq,new FacetsCollector()); //special q
     						TopDocs td = lspResult.getTopDocs();
+    						LuceneSearchResultPopulator.DocValuesKeyResolver resolver = new LuceneSearchResultPopulator.DocValuesKeyResolver(searcher);
     						for (int j = 0; j < td.scoreDocs.length; j++) {
-    							Document doc = searcher.doc(td.scoreDocs[j].doc);
     							//TODO katzelda October 2020 : don't do sponsored yet
     							try {
-    								Key k = LuceneSearchResultPopulator.keyOf(doc);
+    								Key k = resolver.keyOf(td.scoreDocs[j].doc);
     								
     								searchResult.addSponsoredNamedCallable(new EntityFetcher(k));
     							} catch (Exception e) {
@@ -2898,14 +3058,238 @@ public class TextIndexer implements Closeable, ProcessListener {
 	}
 
 	public IndexRecord getIndexRecord(Key k) throws Exception {
-		Document d =getFullRecordDoc(k);
+		return getIndexRecord(getFullRecordDoc(k));
+	}
+
+	private IndexRecord getIndexRecord(Document d) throws Exception {
 		if(d!=null) {
+			BytesRef bin =d.getBinaryValue(FULL_DOC_BINARY_FIELD);
+			if(bin!=null) {
+				return IndexRecordCodec.decode(bin);
+			}
 			BytesRef br =d.getBinaryValue(FULL_DOC_FIELD);
-			IndexRecord ir= EntityUtils.getEntityInfoFor(IndexRecord.class).fromJson(br.utf8ToString());
-			return ir;
+			if(br!=null) {
+				IndexRecord ir= EntityUtils.getEntityInfoFor(IndexRecord.class).fromJson(br.utf8ToString());
+				return ir;
+			}
 		}
 		return null;
 	}
+
+	/**
+	 * Serializing the entity forces everything lazy to be loaded
+	 * before the index value makers walk it. This can be turned off
+	 * since the value makers load what they need anyway.
+	 */
+	private void warmUp(EntityWrapper ew) {
+		if(textIndexerConfig.isWarmUpSerialization()) {
+			ew.toInternalJson();
+		}
+	}
+
+	/**
+	 * Make the document storing the {@link IndexRecord} so it can be
+	 * used later for partial updates and to take back suggestions on removal.
+	 * Kinds configured to not store it only get their suggestions stored,
+	 * or null if they have none.
+	 */
+	private Document createFullRecordDoc(Key kk, IndexRecord ix) {
+		FullIndexRecordFormat format = textIndexerConfig.getFullIndexRecordFormat(kk.getKind());
+		if(format==FullIndexRecordFormat.NONE && ix.getSuggest().isEmpty()) {
+			return null;
+		}
+		Tuple<String,String> luceneKey = kk.asLuceneIdTuple();
+		Document docExact = new Document();
+		//ID
+		docExact.add(new StringField(FULL_DOC_PREFIX + luceneKey.k() , luceneKey.v(),YES));
+
+		docExact.add(new StringField(FIELD_KIND, FULL_DOC_PREFIX + kk.getKind(),YES));
+		docExact.add(new SortedDocValuesField(FIELD_KIND,new BytesRef(FULL_DOC_PREFIX + kk.getKind())));
+		docExact.add(new StoredField(FIELD_KIND, new BytesRef(FULL_DOC_PREFIX + kk.getKind())));
+
+		if(format==FullIndexRecordFormat.NONE) {
+			IndexRecord suggestOnly = new IndexRecord();
+			suggestOnly.setKind(ix.getKind());
+			suggestOnly.setIdField(ix.getIdField());
+			suggestOnly.setId(ix.getId());
+			suggestOnly.setSuggest(ix.getSuggest());
+			docExact.add(new StoredField(FULL_DOC_SUGGEST_FIELD, IndexRecordCodec.encode(suggestOnly)));
+		}else if(format==FullIndexRecordFormat.BINARY) {
+			docExact.add(new StoredField(FULL_DOC_BINARY_FIELD, IndexRecordCodec.encode(ix)));
+		}else {
+			docExact.add(new StoredField(FULL_DOC_FIELD, new BytesRef(EntityWrapper.of(ix).toInternalJson())));
+		}
+		docExact.add(new StringField(ANALYZER_MARKER_FIELD, "false",YES));
+
+		return docExact;
+	}
+
+	/**
+	 * Index all the documents of one entity as a single block: the main
+	 * document, the full index record and the field analyzer documents.
+	 * Every document in the block gets the {@link #FIELD_ROOT_KEY} term, so
+	 * replacing swaps the old block for the new one atomically and searches
+	 * never see the entity missing or twice.
+	 */
+	private void writeEntityDocuments(Key kk, IndexRecord ix, IndexRecordProcessor irp, Document doc, boolean replace) throws IOException {
+		List<Document> block = new ArrayList<>();
+		block.add(facetsConfig.build(taxonWriter, doc));
+
+		Document fullDoc = createFullRecordDoc(kk, ix);
+		if(fullDoc!=null) {
+			block.add(fullDoc);
+		}
+
+		if(ix.isDeepAnalyzed() && !kk.getIdString().equals("")){
+			Tuple<String,String> luceneKey = kk.asLuceneIdTuple();
+			StringField toAnalyze=new StringField(FIELD_KIND, ANALYZER_VAL_PREFIX + kk.getKind(),YES);
+			SortedDocValuesField toAnalyze2= new SortedDocValuesField(FIELD_KIND,new BytesRef(ANALYZER_VAL_PREFIX + kk.getKind()));
+			StoredField toAnalyze3= new StoredField(FIELD_KIND, new BytesRef(ANALYZER_VAL_PREFIX + kk.getKind()));
+			StringField analyzeMarker=new StringField(ANALYZER_MARKER_FIELD, "true",YES);
+
+			StringField docParent=new StringField(ANALYZER_VAL_PREFIX+luceneKey.k(),luceneKey.v(),YES);
+			FacetField docParentFacet =new FacetField(ANALYZER_VAL_PREFIX+luceneKey.k(),luceneKey.v());
+			//This is a test of a terrible idea, which just. might. work.
+			irp.fullText.forEach((name,group)->{
+				try{
+					Document fielddoc = new Document();
+					fielddoc.add(toAnalyze);
+					fielddoc.add(toAnalyze2);
+					fielddoc.add(toAnalyze3);
+					fielddoc.add(analyzeMarker);
+					fielddoc.add(docParent);
+					fielddoc.add(docParentFacet);
+					fielddoc.add(new FacetField(ANALYZER_FIELD,name));
+					for(String f:group){
+						fielddoc.add(new TextField(FULL_TEXT_FIELD, f, NO));
+					}
+					block.add(facetsConfig.build(taxonWriter, fielddoc));
+				}catch(Exception e){
+					log.error("Analyzing index failed", e);
+				}
+			});
+		}
+
+		Term rootKeyTerm = getRootKeyTerm(kk);
+		StringField rootKeyField = new StringField(FIELD_ROOT_KEY, rootKeyTerm.text(), NO);
+		block.forEach(d->d.add(rootKeyField));
+
+		EntityDocumentBlock entityBlock = new EntityDocumentBlock(kk, rootKeyTerm, block, fullDoc, replace);
+		List<EntityDocumentBlock> bulkBlocks = pendingBulkBlocks.get();
+		if(bulkBlocks!=null) {
+			//written by addBatch at the end of the batch
+			bulkBlocks.add(entityBlock);
+			return;
+		}
+		writeBlocks(Collections.singletonList(entityBlock));
+		markChange(Collections.singletonList(kk));
+	}
+
+	/**
+	 * The documents of one entity, ready to be written.
+	 */
+	private static class EntityDocumentBlock {
+		private final Key key;
+		private final Term rootKeyTerm;
+		private final List<Document> docs;
+		private final Document fullDoc;
+		private final boolean replace;
+
+		EntityDocumentBlock(Key key, Term rootKeyTerm, List<Document> docs, Document fullDoc, boolean replace) {
+			this.key = key;
+			this.rootKeyTerm = rootKeyTerm;
+			this.docs = docs;
+			this.fullDoc = fullDoc;
+			this.replace = replace;
+		}
+	}
+
+	private void writeBlocks(List<EntityDocumentBlock> blocks) {
+		//new entities can all go in with one call, only
+		//replacements need their own call to delete the old documents
+		List<Document> added = new ArrayList<>();
+		for(EntityDocumentBlock b : blocks) {
+			if(b.replace) {
+				//taking back the old record's suggestions and replacing it has to happen
+				//one update at a time, or two updates both take back the same old record
+				Lock l = stripedLock.get(b.key);
+				l.lock();
+				try {
+					takeBackSuggestions(b.key);
+					if(mayHaveDocumentsWithoutRootKey) {
+						removeByLegacyQueries(b.key);
+					}
+					indexerService.updateDocuments(b.rootKeyTerm, b.docs);
+					writtenSinceRefresh.add(b.key.toString());
+				}finally {
+					l.unlock();
+				}
+				notifyListenersDeleteDocuments(new TermQuery(b.rootKeyTerm));
+			}else {
+				added.addAll(b.docs);
+			}
+		}
+		if(!added.isEmpty()) {
+			indexerService.addDocuments(added);
+			for(EntityDocumentBlock b : blocks) {
+				if(!b.replace) {
+					writtenSinceRefresh.add(b.key.toString());
+				}
+			}
+		}
+		//the full record was never sent to listeners
+		for(EntityDocumentBlock b : blocks) {
+			b.docs.stream()
+				.filter(d->d!=b.fullDoc)
+				.forEach(this::notifyListenersAddDocument);
+		}
+	}
+
+	/**
+	 * Index a batch of entities on the calling thread, as done while
+	 * reindexing: the documents of the whole batch are written with one call,
+	 * the change is marked and listeners are notified once per batch instead
+	 * of once per entity. The same rules as {@link #add(EntityWrapper)} decide
+	 * which entities get indexed. Several threads can each add their own batch,
+	 * which is how reindexing uses more than one core.
+	 * @throws IOException if writing the batch to the index failed.
+	 */
+	public void addBatch(Collection<? extends EntityWrapper> batch) throws IOException {
+		List<EntityDocumentBlock> blocks = new ArrayList<>(batch.size());
+		pendingBulkBlocks.set(blocks);
+		try {
+			for(EntityWrapper ew : batch) {
+				add(ew);
+			}
+		}finally {
+			pendingBulkBlocks.remove();
+		}
+		if(!blocks.isEmpty()) {
+			writeBlocks(blocks);
+			markChange(blocks.stream().map(b->b.key).collect(Collectors.toList()));
+		}
+	}
+
+	private static Term getRootKeyTerm(Key key) {
+		return new Term(FIELD_ROOT_KEY, key.toRootKey().toString());
+	}
+	/**
+	 * Reopen the searcher so it sees everything written so far.
+	 * @param block wait for a refresh another thread is doing instead of skipping it.
+	 */
+	private void refreshSearcher(boolean block) throws IOException {
+		List<String> written = new ArrayList<>(writtenSinceRefresh);
+		boolean refreshed = true;
+		if(block) {
+			searchManager.maybeRefreshBlocking();
+		}else {
+			refreshed = searchManager.maybeRefresh();
+		}
+		if(refreshed) {
+			writtenSinceRefresh.removeAll(written);
+		}
+	}
+
 	public Document getFullRecordDoc(Key k) throws Exception {
 		Query uq=getUniqueEntityFullDocQuery(k);
 		
@@ -2975,39 +3359,21 @@ public class TextIndexer implements Closeable, ProcessListener {
 	}
 
 	public void update(EntityWrapper ew) throws IOException{
-
-	    Lock l = stripedLock.get(ew.getKey());
-	    l.lock();
-	    try {    
-	    	//Removal is now done right before the final add to reduce time where the document is not
-	    	//found in the index
-            //remove(ew);
-            add(ew, true);
-        }finally{
-	        l.unlock();
-        }
-
+		//the old documents are replaced atomically with the new ones
+		//so there is no time where the entity is missing from the index
+		add(ew, true);
     }
 	
 	public void update(EntityWrapper ew, RestrictedType type) throws IOException{
-
-	    Lock l = stripedLock.get(ew.getKey());
-	    l.lock();
-	    try {    
-	    	//Removal is now done right before the final add to reduce time where the document is not
-	    	//found in the index
-            //remove(ew);
-            add(ew, true, RestrictedIVMSpecification.getRestrictedIVMSpecs(type));
-        }finally{
-	        l.unlock();
-        }
-
+		add(ew, true, RestrictedIVMSpecification.getRestrictedIVMSpecs(type));
     }
 	
 	//This is currently only used for including specified IVMs
+	//it still locks since it reads the stored record, modifies it and writes it back
 	public void updateFields(EntityWrapper ew, RestrictedIVMSpecification ivmSpecs) throws IOException{
 
-	    Lock l = stripedLock.get(ew.getKey());
+	    //the same stripe the write takes, the lock is reentrant
+	    Lock l = stripedLock.get(ew.getKey().toRootKey());
 	    l.lock();
 	  	    
 	    try{
@@ -3020,6 +3386,12 @@ public class TextIndexer implements Closeable, ProcessListener {
 	    	//retrieve the indexed record as it was before so it can be directly
 	    	//modified
 	    	IndexRecord ix =getIndexRecord(ew.getKey());    	
+	    	if(ix==null) {
+	    		//the full record isn't stored for this kind
+	    		//so there's nothing to update partially
+	    		add(ew, true);
+	    		return;
+	    	}
 	    	
 	    	Set<String> fields = valueMaker.getFieldNames();	    	
 	    	
@@ -3054,9 +3426,8 @@ public class TextIndexer implements Closeable, ProcessListener {
 	 */
 	private void add(EntityWrapper ew, RestrictedIVMSpecification ivmSpecs, IndexRecord ix, boolean removeOld) throws IOException {
 
-		ew.toInternalJson();
+		warmUp(ew);
         Document doc = new Document();
-        Document docExact = new Document();
         if(textIndexerConfig.isShouldLog()){
             LogUtil.debug(()->{
                 String beanId;
@@ -3102,60 +3473,7 @@ public class TextIndexer implements Closeable, ProcessListener {
 			});
 		
 
-		if(removeOld) {
-			remove(ew);
-		}
-		
-		// now index
-		addDoc(doc);
-		
-
-		Tuple<String,String> luceneKey = kk.asLuceneIdTuple();
-		
-		//ID
-		docExact.add(new StringField(FULL_DOC_PREFIX + luceneKey.k() , luceneKey.v(),YES));
-		
-		docExact.add(new StringField(FIELD_KIND, FULL_DOC_PREFIX + kk.getKind(),YES));
-		docExact.add(new SortedDocValuesField(FIELD_KIND,new BytesRef(FULL_DOC_PREFIX + kk.getKind())));
-		docExact.add(new StoredField(FIELD_KIND, new BytesRef(FULL_DOC_PREFIX + kk.getKind())));
-		
-		docExact.add(new StoredField("FULL_INDEX", new BytesRef(EntityWrapper.of(ix).toInternalJson())));
-		docExact.add(new StringField(ANALYZER_MARKER_FIELD, "false",YES));
-		
-		indexerService.addDocument(docExact);
-		
-		if(ix.isDeepAnalyzed()){
-			
-			if(!kk.getIdString().equals("")){  //probably not needed
-				StringField toAnalyze=new StringField(FIELD_KIND, ANALYZER_VAL_PREFIX + kk.getKind(),YES);
-				SortedDocValuesField toAnalyze2= new SortedDocValuesField(FIELD_KIND,new BytesRef(ANALYZER_VAL_PREFIX + kk.getKind()));
-				StoredField toAnalyze3= new StoredField(FIELD_KIND, new BytesRef(ANALYZER_VAL_PREFIX + kk.getKind()));
-				StringField analyzeMarker=new StringField(ANALYZER_MARKER_FIELD, "true",YES);
-
-
-				StringField docParent=new StringField(ANALYZER_VAL_PREFIX+luceneKey.k(),luceneKey.v(),YES);
-				FacetField docParentFacet =new FacetField(ANALYZER_VAL_PREFIX+luceneKey.k(),luceneKey.v());
-				//This is a test of a terrible idea, which just. might. work.
-				irp.fullText.forEach((name,group)->{
-						try{
-                            Document fielddoc = new Document();
-							fielddoc.add(toAnalyze);
-							fielddoc.add(toAnalyze2);
-							fielddoc.add(toAnalyze3);
-							fielddoc.add(analyzeMarker);
-							fielddoc.add(docParent);
-							fielddoc.add(docParentFacet);
-							fielddoc.add(new FacetField(ANALYZER_FIELD,name));
-							for(String f:group){
-									fielddoc.add(new TextField(FULL_TEXT_FIELD, f, NO));
-							}
-							addDoc(fielddoc);
-						}catch(Exception e){
-							log.error("Analyzing index failed", e);
-						}
-					});
-			}
-		}
+		writeEntityDocuments(kk, ix, irp, doc, removeOld);
 
 	}
 	
@@ -3180,12 +3498,9 @@ public class TextIndexer implements Closeable, ProcessListener {
 		    return;
 		}
 
-        Lock l = stripedLock.get(ew.getKey());
-        l.lock();
         try{
-            ew.toInternalJson();
+            warmUp(ew);
             Document doc = new Document();
-            Document docExact = new Document();
             if(textIndexerConfig.isShouldLog()){
                 LogUtil.debug(()->{
                     String beanId;
@@ -3264,66 +3579,11 @@ public class TextIndexer implements Closeable, ProcessListener {
 				  }
 				});
 			
-			if(removeFirst) {
-				remove(ew);
-			}
-
-			// now index
-			addDoc(doc);
-			
-
-			Tuple<String,String> luceneKey = kk.asLuceneIdTuple();
-			
-			//ID
-			docExact.add(new StringField(FULL_DOC_PREFIX + luceneKey.k() , luceneKey.v(),YES));
-			
-			docExact.add(new StringField(FIELD_KIND, FULL_DOC_PREFIX + kk.getKind(),YES));
-			docExact.add(new SortedDocValuesField(FIELD_KIND,new BytesRef(FULL_DOC_PREFIX + kk.getKind())));
-			docExact.add(new StoredField(FIELD_KIND, new BytesRef(FULL_DOC_PREFIX + kk.getKind())));
-			
-			docExact.add(new StoredField("FULL_INDEX", new BytesRef(EntityWrapper.of(ix).toInternalJson())));
-			docExact.add(new StringField(ANALYZER_MARKER_FIELD, "false",YES));
-			
-			indexerService.addDocument(docExact);
-			
-			if(ix.isDeepAnalyzed()){
-				
-				if(!kk.getIdString().equals("")){  //probably not needed
-					StringField toAnalyze=new StringField(FIELD_KIND, ANALYZER_VAL_PREFIX + kk.getKind(),YES);
-					SortedDocValuesField toAnalyze2= new SortedDocValuesField(FIELD_KIND,new BytesRef(ANALYZER_VAL_PREFIX + kk.getKind()));
-					StoredField toAnalyze3= new StoredField(FIELD_KIND, new BytesRef(ANALYZER_VAL_PREFIX + kk.getKind()));
-					StringField analyzeMarker=new StringField(ANALYZER_MARKER_FIELD, "true",YES);
-
-
-					StringField docParent=new StringField(ANALYZER_VAL_PREFIX+luceneKey.k(),luceneKey.v(),YES);
-					FacetField docParentFacet =new FacetField(ANALYZER_VAL_PREFIX+luceneKey.k(),luceneKey.v());
-					//This is a test of a terrible idea, which just. might. work.
-					irp.fullText.forEach((name,group)->{
-							try{
-                                Document fielddoc = new Document();
-								fielddoc.add(toAnalyze);
-								fielddoc.add(toAnalyze2);
-								fielddoc.add(toAnalyze3);
-								fielddoc.add(analyzeMarker);
-								fielddoc.add(docParent);
-								fielddoc.add(docParentFacet);
-								fielddoc.add(new FacetField(ANALYZER_FIELD,name));
-								for(String f:group){
-										fielddoc.add(new TextField(FULL_TEXT_FIELD, f, NO));
-								}
-								addDoc(fielddoc);
-							}catch(Exception e){
-								log.error("Analyzing index failed", e);
-							}
-						});
-				}
-			}
+			writeEntityDocuments(kk, ix, irp, doc, removeFirst);
 
 		}catch(Exception e){
 			log.error("Error indexing record [" + ew.toString() + "] This may cause consistency problems", e);
-		}finally{
-            l.unlock();
-        }
+		}
 	}
 	
    
@@ -3332,30 +3592,56 @@ public class TextIndexer implements Closeable, ProcessListener {
     }
 		
     public void add(EntityWrapper ew, boolean removeFirst) throws IOException {
-        //Don't index if any of the following:
-        // 1. The entity doesn't have an Indexable annotation OR
-        // 2. The config is set to only index things with Indexable Root annotation and the entity doesn't have that annotation
-        // 3. Reindexing is happening and the entity has already been indexed
-        boolean shouldNotAdd=     !ew.shouldIndex() ||
-                (textIndexerConfig.isRootIndexOnly() && !ew.isRootIndex()) ||
-                (isReindexing.get() && !alreadySeenDuringReindexingMode.add(ew.getKey().toString()));
-        
-        add(ew, !shouldNotAdd, removeFirst);
-        
+        add(ew, shouldAdd(ew), removeFirst);
     }
     
     public void add(EntityWrapper ew, boolean removeFirst, RestrictedIVMSpecification ivmSpecs) throws IOException {    	
+        add(ew, shouldAdd(ew), removeFirst, ivmSpecs);
+    }	
+
+    private boolean shouldAdd(EntityWrapper ew) {
         //Don't index if any of the following:
         // 1. The entity doesn't have an Indexable annotation OR
         // 2. The config is set to only index things with Indexable Root annotation and the entity doesn't have that annotation
         // 3. Reindexing is happening and the entity has already been indexed
-        boolean shouldNotAdd=     !ew.shouldIndex() ||
-                (textIndexerConfig.isRootIndexOnly() && !ew.isRootIndex()) ||
-                (isReindexing.get() && !alreadySeenDuringReindexingMode.add(ew.getKey().toString()));
-        
-        add(ew, !shouldNotAdd, removeFirst, ivmSpecs);
-        
-    }	
+        Set<String> seen = alreadySeenDuringReindexingMode;
+        return isIndexable(ew) && (seen ==null || seen.add(ew.getKey().toString()));
+    }
+
+    private boolean isIndexable(EntityWrapper ew) {
+        return ew.shouldIndex() && !(textIndexerConfig.isRootIndexOnly() && !ew.isRootIndex());
+    }
+
+    /**
+     * Index a change made to an entity outside of reindexing, like an edit.
+     * Unlike {@link #add(EntityWrapper, boolean)} it isn't skipped while
+     * reindexing when the reindex already wrote the entity, it replaces what
+     * the reindex wrote. The reindex then skips the entity since what it
+     * loaded may be older than this change.
+     */
+    public void addChange(EntityWrapper ew, boolean removeFirst) throws IOException {
+        add(ew, isIndexable(ew), markChangedWhileReindexing(ew.getKey()) || removeFirst);
+    }
+
+    /**
+     * Like {@link #addChange(EntityWrapper, boolean)} only using the selected index value makers.
+     */
+    public void addChange(EntityWrapper ew, boolean removeFirst, RestrictedIVMSpecification ivmSpecs) throws IOException {
+        add(ew, isIndexable(ew), markChangedWhileReindexing(ew.getKey()) || removeFirst, ivmSpecs);
+    }
+
+    /**
+     * @return true if reindexing, in which case the reindex may have written
+     * the entity already so it has to be replaced.
+     */
+    private boolean markChangedWhileReindexing(Key key) {
+        Set<String> seen = alreadySeenDuringReindexingMode;
+        if(seen ==null) {
+            return false;
+        }
+        seen.add(key.toString());
+        return true;
+    }
     
     private static boolean shouldIndexAsIdentifier(EntityInfo ei, String field) {
         // Identifiers are fields considered worth matching exactly, as opposed to a general text field.
@@ -3568,6 +3854,9 @@ public class TextIndexer implements Closeable, ProcessListener {
     	 
     	 public void process() {
     		 ix.elements().forEach(this::processIndexedElement);
+    		 if(ix.id!=null && !ix.id.isEmpty()) {
+    			 doc.add(new BinaryDocValuesField(FIELD_ROOT_ID, new BytesRef(ix.id)));
+    		 }
     	 }
     	 
     	 private void processIndexedElement(IndexedElement fe) {
@@ -3715,12 +4004,9 @@ public class TextIndexer implements Closeable, ProcessListener {
 		    return;
 		}
 
-        Lock l = stripedLock.get(ew.getKey());
-        l.lock();
         try{
-            ew.toInternalJson();
+            warmUp(ew);
             Document doc = new Document();
-            Document docExact = new Document();
             if(textIndexerConfig.isShouldLog()){
                 LogUtil.debug(()->{
                     String beanId;
@@ -3776,66 +4062,11 @@ public class TextIndexer implements Closeable, ProcessListener {
 				  }
 				});
 			
-			if(removeFirst) {
-				remove(ew);
-			}
-
-			// now index
-			addDoc(doc);
-			
-
-			Tuple<String,String> luceneKey = kk.asLuceneIdTuple();
-			
-			//ID
-			docExact.add(new StringField(FULL_DOC_PREFIX + luceneKey.k() , luceneKey.v(),YES));
-			
-			docExact.add(new StringField(FIELD_KIND, FULL_DOC_PREFIX + kk.getKind(),YES));
-			docExact.add(new SortedDocValuesField(FIELD_KIND,new BytesRef(FULL_DOC_PREFIX + kk.getKind())));
-			docExact.add(new StoredField(FIELD_KIND, new BytesRef(FULL_DOC_PREFIX + kk.getKind())));
-			
-			docExact.add(new StoredField("FULL_INDEX", new BytesRef(EntityWrapper.of(ix).toInternalJson())));
-			docExact.add(new StringField(ANALYZER_MARKER_FIELD, "false",YES));
-			
-			indexerService.addDocument(docExact);
-			
-			if(ix.isDeepAnalyzed()){
-				
-				if(!kk.getIdString().equals("")){  //probably not needed
-					StringField toAnalyze=new StringField(FIELD_KIND, ANALYZER_VAL_PREFIX + kk.getKind(),YES);
-					SortedDocValuesField toAnalyze2= new SortedDocValuesField(FIELD_KIND,new BytesRef(ANALYZER_VAL_PREFIX + kk.getKind()));
-					StoredField toAnalyze3= new StoredField(FIELD_KIND, new BytesRef(ANALYZER_VAL_PREFIX + kk.getKind()));
-					StringField analyzeMarker=new StringField(ANALYZER_MARKER_FIELD, "true",YES);
-
-
-					StringField docParent=new StringField(ANALYZER_VAL_PREFIX+luceneKey.k(),luceneKey.v(),YES);
-					FacetField docParentFacet =new FacetField(ANALYZER_VAL_PREFIX+luceneKey.k(),luceneKey.v());
-					//This is a test of a terrible idea, which just. might. work.
-					irp.fullText.forEach((name,group)->{
-							try{
-                                Document fielddoc = new Document();
-								fielddoc.add(toAnalyze);
-								fielddoc.add(toAnalyze2);
-								fielddoc.add(toAnalyze3);
-								fielddoc.add(analyzeMarker);
-								fielddoc.add(docParent);
-								fielddoc.add(docParentFacet);
-								fielddoc.add(new FacetField(ANALYZER_FIELD,name));
-								for(String f:group){
-										fielddoc.add(new TextField(FULL_TEXT_FIELD, f, NO));
-								}
-								addDoc(fielddoc);
-							}catch(Exception e){
-								log.error("Analyzing index failed", e);
-							}
-						});
-				}
-			}
+			writeEntityDocuments(kk, ix, irp, doc, removeFirst);
 
 		}catch(Exception e){
 			log.error("Error indexing record [" + ew.toString() + "] This may cause consistency problems", e);
-		}finally{
-            l.unlock();
-        }
+		}
 	}
 
 
@@ -3856,11 +4087,29 @@ public class TextIndexer implements Closeable, ProcessListener {
 	//TODO: Should be an interface, which can throw a DataHasChange event ... or something
 	// like that
 	public void markChange(){
-		lastModified.set(TimeUtil.getCurrentTimeMillis());
+		markIndexChanged(1);
 		if(gsrscache!=null) {
 		    gsrscache.markChange();
 		}
+	}
+
+	/**
+	 * Like {@link #markChange()} but only the cached values of
+	 * the given entities are made dirty.
+	 */
+	private void markChange(List<Key> keys){
+		markIndexChanged(keys.size());
+		if(gsrscache!=null) {
+			keys.forEach(gsrscache::markChange);
+		}
+	}
 
+	private void markIndexChanged(int count){
+		long now = TimeUtil.getCurrentTimeMillis();
+		lastModified.set(now);
+		if(flushDaemon!=null) {
+			flushDaemon.changed(now, count);
+		}
 	}
 
 
@@ -3887,42 +4136,85 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 	public void remove(Key tkey) throws IOException {
 		Key key = tkey.toRootKey();
-        Lock l = stripedLock.get(key);
-        l.lock();
-        try {
-        	
-            Tuple<String, String> docKey = key.asLuceneIdTuple();
-            Query q = getUniqueEntityQuery(key);
-
-            indexerService.deleteDocuments(q);
-            notifyListenersDeleteDocuments(q);
+		//a reindex that hasn't got to it yet mustn't add it back
+		markChangedWhileReindexing(tkey);
+		markChangedWhileReindexing(key);
+		Query q = new TermQuery(getRootKeyTerm(key));
+		Lock l = stripedLock.get(key);
+		l.lock();
+		try {
+			takeBackSuggestions(key);
+			indexerService.deleteDocuments(q);
+			if(mayHaveDocumentsWithoutRootKey) {
+				removeByLegacyQueries(key);
+			}
+			writtenSinceRefresh.add(key.toString());
+		}finally {
+			l.unlock();
+		}
+		notifyListenersDeleteDocuments(q);
+		markChange(Collections.singletonList(key));
+	}
 
-            if (textIndexerConfig.isFieldsuggest()) { //eliminate
-                Query qa = getUniqueEntityAnalyzerQuery(key);
-                indexerService.deleteDocuments(qa);
-                notifyListenersDeleteDocuments(qa);
-            }
-            try {
-				IndexRecord ix =getIndexRecord(key);
-				if(ix!=null && ix.getSuggest()!=null) {
-					ix.getSuggest().forEach(is->{
-						addSuggestedField(is.getSuggestName(), is.getSuggestValue(),-is.getSuggestWeight());
-					});
-				}
-			} catch (Exception e1) {
-                log.warn("trouble removing autosugget index elements",e1);
+	//must hold the key's striped lock
+	private void takeBackSuggestions(Key key) {
+		try {
+			if(writtenSinceRefresh.contains(key.toString())) {
+				//the searcher would still return the record from before that write
+				refreshSearcher(true);
+			}
+			Document d = getFullRecordDoc(key);
+			BytesRef suggestOnly = d==null? null: d.getBinaryValue(FULL_DOC_SUGGEST_FIELD);
+			IndexRecord ix = suggestOnly!=null? IndexRecordCodec.decode(suggestOnly) : getIndexRecord(d);
+			if(ix!=null && ix.getSuggest()!=null) {
+				ix.getSuggest().forEach(is->{
+					addSuggestedField(is.getSuggestName(), is.getSuggestValue(),-is.getSuggestWeight());
+				});
 			}
+		} catch (Exception e1) {
+			log.warn("trouble removing autosugget index elements",e1);
+		}
+	}
 
-            try {
-            	Query qf = getUniqueEntityFullDocQuery(key);
-            	indexerService.deleteDocuments(qf);
-            }catch(Exception e) {
-            	
-            }
-            markChange();
-        }finally{
-            l.unlock();
-        }
+	/**
+	 * Documents indexed before {@link #FIELD_ROOT_KEY} existed can only
+	 * be found with these queries.
+	 */
+	private void removeByLegacyQueries(Key key) {
+		Query q = getUniqueEntityQuery(key);
+		indexerService.deleteDocuments(q);
+		notifyListenersDeleteDocuments(q);
+
+		if (textIndexerConfig.isFieldsuggest()) { //eliminate
+			Query qa = getUniqueEntityAnalyzerQuery(key);
+			indexerService.deleteDocuments(qa);
+			notifyListenersDeleteDocuments(qa);
+		}
+		try {
+			Query qf = getUniqueEntityFullDocQuery(key);
+			indexerService.deleteDocuments(qf);
+		}catch(Exception e) {
+
+		}
+	}
+
+	/**
+	 * Checks whether any entity documents were indexed before
+	 * {@link #FIELD_ROOT_KEY} was added, which means removals
+	 * also have to use the older, slower delete queries until
+	 * the next full reindex.
+	 */
+	private boolean hasDocumentsWithoutRootKey() {
+		Query q = new BooleanQuery.Builder()
+				.add(new TermQuery(new Term(ANALYZER_MARKER_FIELD, "false")), Occur.MUST)
+				.add(new PrefixQuery(new Term(FIELD_ROOT_KEY, "")), Occur.MUST_NOT)
+				.build();
+		try {
+			return withSearcher(searcher -> searcher.count(q) > 0);
+		} catch (Exception e) {
+			log.warn("Can't check for documents without root keys", e);
+			return true;
+		}
 	}
 
 	public void removeAllType(EntityInfo<?> ei) throws Exception{
@@ -3940,8 +4232,10 @@ public class TextIndexer implements Closeable, ProcessListener {
     	        }
     	  });
 	    
-        
-		markChange();
+		markIndexChanged(1);
+		if(gsrscache!=null) {
+			gsrscache.markChangeOfKind(ei.getInherittedRootEntityInfo().getName());
+		}
 	}
 
 
@@ -4184,6 +4478,7 @@ public class TextIndexer implements Closeable, ProcessListener {
                 //0. Notify and mark that it's happening
                 isReindexing.set(true);
                 notifyListenersRemoveAll();
+                useMaintenanceRamBuffer();
                 
                 //0.5 Set up space for use in reindexing
                 alreadySeenDuringReindexingMode = Collections.newSetFromMap(new ConcurrentHashMap<>(100_000));
@@ -4220,6 +4515,9 @@ public class TextIndexer implements Closeable, ProcessListener {
                 //*************
                 //4. START CLEAR FACETS [THIS IS NEW]
                 //*************
+                //the searcher/taxonomy pair holds on to the old taxonomy writer
+                //so it has to be closed first, a new one is made in initialSetup
+                IOUtil.closeQuietly(searchManager);
                 IOUtil.closeQuietly(taxonWriter);
                 IOUtil.closeQuietly(taxonDir);
                 IOUtil.deleteRecursivelyQuitely(facetFileDir);
@@ -4234,6 +4532,8 @@ public class TextIndexer implements Closeable, ProcessListener {
                 } catch (Exception e) {
                     log.error("Trouble starting up textindexer on reindexing", e);
                 }
+                //everything written from now on has a root key
+                mayHaveDocumentsWithoutRootKey = false;
 
                
             }finally {
@@ -4258,6 +4558,27 @@ public class TextIndexer implements Closeable, ProcessListener {
     private void finishReindexing() {
         isReindexing.set(false);
         alreadySeenDuringReindexingMode =null;
+        restoreRamBuffer();
+        mayHaveDocumentsWithoutRootKey = hasDocumentsWithoutRootKey();
+    }
+
+    /**
+     * While reindexing nothing is committed anyway, so a bigger
+     * buffer means fewer small segments to merge later.
+     */
+    private synchronized void useMaintenanceRamBuffer() {
+        double mb = textIndexerConfig.getBulkMaintenanceRamBufferMB();
+        if(mb > 0 && normalRamBufferMB == null) {
+            normalRamBufferMB = indexerService.getRAMBufferSizeMB();
+            indexerService.setRAMBufferSizeMB(mb);
+        }
+    }
+
+    private synchronized void restoreRamBuffer() {
+        if(normalRamBufferMB != null) {
+            indexerService.setRAMBufferSizeMB(normalRamBufferMB);
+            normalRamBufferMB = null;
+        }
     }
     
 	@Override
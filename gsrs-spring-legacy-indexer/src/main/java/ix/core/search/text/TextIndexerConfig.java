@@ -38,6 +38,92 @@ public class TextIndexerConfig {
     @Value("#{new Boolean('${ix.index.rootIndexOnly:false}')}")
     private boolean rootIndexOnly;
 
+    /*
+     * Commit policy: the index is committed (fsync'd) as soon as any one
+     * of these limits is reached. Searches don't wait for a commit, they see
+     * new documents after the next near real time refresh. By default changes
+     * are committed at most 35 seconds after they're made like the old fixed flush,
+     * idleSeconds can commit sooner once writes stop, 0 turns that off.
+     */
+    @Value("#{new Integer('${ix.textindex.commit.maxUncommittedDocs:10000}')}")
+    private int commitMaxUncommittedDocs = 10000;
+
+    @Value("#{new Integer('${ix.textindex.commit.maxRamMB:64}')}")
+    private int commitMaxRamMB = 64;
+
+    @Value("#{new Long('${ix.textindex.commit.maxLatencySeconds:35}')}")
+    private long commitMaxLatencySeconds = 35;
+
+    @Value("#{new Long('${ix.textindex.commit.idleSeconds:0}')}")
+    private long commitIdleSeconds = 0;
+
+    @Value("#{new Long('${ix.textindex.commit.checkIntervalMillis:1000}')}")
+    private long commitCheckIntervalMillis = 1000;
+
+    @Value("#{new Long('${ix.textindex.nrt.refreshIntervalMillis:1000}')}")
+    private long nrtRefreshIntervalMillis = 1000;
+
+    /*
+     * Reindexed entities loaded in the same transaction are written as one
+     * batch (TextIndexer.addBatch) of at most batchSize entities. While
+     * reindexing in maintenance mode the writer uses a bigger RAM buffer to
+     * flush fewer, larger segments, 0 keeps the normal buffer (16MB).
+     */
+    @Value("#{new Integer('${ix.textindex.bulk.batchSize:500}')}")
+    private int bulkBatchSize = 500;
+
+    @Value("#{new Double('${ix.textindex.bulk.maintenanceRamBufferMB:128}')}")
+    private double bulkMaintenanceRamBufferMB = 128;
+
+    /*
+     * When true a full reindex builds a new index next to the live one
+     * and swaps it in at the end, so searches keep working while reindexing.
+     * Otherwise the live index is wiped first.
+     */
+    @Value("#{new Boolean('${ix.textindex.reindex.shadow:false}')}")
+    private boolean shadowReindex = false;
+
+    /*
+     * How long the old index stays open after a shadow index is swapped in,
+     * so searches and lazy fetches that got it just before the swap can finish.
+     */
+    @Value("#{new Long('${ix.textindex.reindex.shadow.retireSeconds:60}')}")
+    private long shadowRetireSeconds = 60;
+
+    /**
+     * How the full index record of an entity is stored.
+     * It's needed for partial updates and for removing suggestions
+     * when an entity is removed; kinds which are never partially
+     * updated can skip it with NONE, only their suggestions are stored then.
+     */
+    public enum FullIndexRecordFormat{
+        JSON,
+        BINARY,
+        NONE
+    }
+
+    @Value("#{new Boolean('${ix.textindex.warmUpSerialization:true}')}")
+    private boolean warmUpSerialization = true;
+
+    @Value("${ix.textindex.fullIndexRecord.format:JSON}")
+    private FullIndexRecordFormat fullIndexRecordFormat = FullIndexRecordFormat.JSON;
+
+    //per kind overrides, e.g. "ix.core.models.Principal=NONE;ix.ginas.models.v1.Substance=BINARY"
+    @Value("#{new String('${ix.textindex.fullIndexRecord.kindFormatsRaw:}').split(';')}")
+    private String[] fullIndexRecordKindFormatsRaw;
+
+
+    public FullIndexRecordFormat getFullIndexRecordFormat(String kind){
+        if(fullIndexRecordKindFormatsRaw!=null){
+            for(String kindFormat : fullIndexRecordKindFormatsRaw){
+                int i = kindFormat.lastIndexOf('=');
+                if(i > 0 && kindFormat.substring(0, i).trim().equals(kind)){
+                    return FullIndexRecordFormat.valueOf(kindFormat.substring(i+1).trim());
+                }
+            }
+        }
+        return fullIndexRecordFormat;
+    }
 
     public List<String> getDeepFields(){
         if(deepFieldsRaw==null || deepFieldsRaw.length == 0 || deepFieldsRaw[0]==null || "".equals(deepFieldsRaw[0])){
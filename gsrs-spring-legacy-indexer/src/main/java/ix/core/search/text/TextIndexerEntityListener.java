@@ -1,17 +1,23 @@
 package ix.core.search.text;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
 
+import gsrs.events.BeginReindexEvent;
 import gsrs.events.ClearIndexByTypeEvent;
+import gsrs.events.EndReindexEvent;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import gsrs.events.MaintenanceModeEvent;
 import gsrs.events.ReindexEntityEvent;
@@ -49,6 +55,12 @@ public class TextIndexerEntityListener {
     @Autowired
     private TextIndexerFactory textIndexerFactory;
 
+    @Autowired
+    private TextIndexerConfig textIndexerConfig;
+
+    //the reindex batch of the current transaction is bound to it with this key
+    private final Object reindexBatchKey = new Object();
+
 //    
 //    @PersistenceContext(unitName =  DefaultDataSourceConfig.NAME_ENTITY_MANAGER)
 //    private EntityManager em;
@@ -63,18 +75,20 @@ public class TextIndexerEntityListener {
     public void created(IndexCreateEntityEvent event) throws Exception{
         autowireIfNeeded();
         try {
-            TextIndexer indexer = textIndexerFactory.getDefaultInstance();
-            if(indexer !=null) {
-                
-                //refetch from db
-                Optional<EntityUtils.EntityWrapper> opt = EntityFetcher.of(event.getSource()).getIfPossible().map(m->EntityWrapper.of(m));
-                if(opt.isPresent()) {
-                    EntityUtils.EntityWrapper ew = opt.get();
-
-                    if (event.shouldDeleteFirst()) {
-                        indexer.remove(ew);
+            //refetch from db
+            Optional<EntityUtils.EntityWrapper> opt = EntityFetcher.of(event.getSource()).getIfPossible().map(m->EntityWrapper.of(m));
+            if(opt.isPresent()) {
+                EntityUtils.EntityWrapper ew = opt.get();
+                //a failure in one index (like the live one being swapped out) mustn't skip the shadow one
+                for(TextIndexer indexer : textIndexerFactory.getWritableInstances()) {
+                    if(indexer ==null) {
+                        continue;
+                    }
+                    try {
+                        indexer.addChange(ew, event.shouldDeleteFirst());
+                    }catch(Throwable t){
+                        log.warn("trouble adding to index:" + ew.getKey(), t);
                     }
-                    indexer.add(ew);
                 }
             }
         } catch (Throwable e) {
@@ -89,27 +103,110 @@ public class TextIndexerEntityListener {
         Optional<EntityUtils.EntityWrapper<?>> opt = event.getOptionalFetchedEntityToReindex();
         
         if(opt.isPresent()){
-        	if(event.isRequiresDelete()) {
-                log.trace("updating");
-                if(event.isExcludeExternal()) {
-                	log.trace("updating excluding external"); 
-                	textIndexerFactory.getDefaultInstance().update(opt.get(), RestrictedType.EXCLUDE_EXTERNAL);
-                }else {
-                	log.trace("updating including external");
-                	textIndexerFactory.getDefaultInstance().update(opt.get());
-                }
-        	}else {
-                log.trace("adding");
-        		textIndexerFactory.getDefaultInstance().add(opt.get());	
-        	}
-            
+            TextIndexer indexer = textIndexerFactory.getReindexInstance();
+            try {
+            	if(event.isRequiresDelete()) {
+                    log.trace("updating");
+                    if(event.isExcludeExternal()) {
+                    	log.trace("updating excluding external"); 
+                    	indexer.update(opt.get(), RestrictedType.EXCLUDE_EXTERNAL);
+                    }else {
+                    	log.trace("updating including external");
+                    	indexer.update(opt.get());
+                    }
+            	}else {
+                    log.trace("adding");
+                    addInBatch(opt.get());
+            	}
+            }catch(IOException | RuntimeException e) {
+                textIndexerFactory.shadowWriteFailed(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * New entities of a reindex are collected until the transaction they were
+     * loaded in is about to end and written as one batch then, still on the
+     * thread of that transaction so anything lazily loaded can be read.
+     * Without a transaction they're written right away.
+     */
+    private void addInBatch(EntityWrapper<?> ew) throws IOException {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            textIndexerFactory.getReindexInstance().add(ew);
+            return;
         }
+        ReindexBatch batch = (ReindexBatch) TransactionSynchronizationManager.getResource(reindexBatchKey);
+        if(batch ==null) {
+            batch = new ReindexBatch();
+            TransactionSynchronizationManager.bindResource(reindexBatchKey, batch);
+            TransactionSynchronizationManager.registerSynchronization(batch);
+        }
+        batch.add(ew);
     }
+
+    private class ReindexBatch implements TransactionSynchronization {
+        private final List<EntityWrapper<?>> entities = new ArrayList<>();
+
+        void add(EntityWrapper<?> ew) throws IOException {
+            entities.add(ew);
+            if(entities.size() >= Math.max(1, textIndexerConfig.getBulkBatchSize())) {
+                write();
+            }
+        }
+
+        void write() throws IOException {
+            if(entities.isEmpty()) {
+                return;
+            }
+            List<EntityWrapper<?>> batch = new ArrayList<>(entities);
+            entities.clear();
+            try {
+                textIndexerFactory.getReindexInstance().addBatch(batch);
+            }catch(IOException | RuntimeException e) {
+                textIndexerFactory.shadowWriteFailed(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public void beforeCompletion() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(reindexBatchKey);
+            try {
+                write();
+            }catch(Throwable t) {
+                log.warn("trouble adding reindexed entities to index", t);
+            }
+        }
+    }
+
     @EventListener
-    public void reindexing(MaintenanceModeEvent event) {
+    public void beginReindex(BeginReindexEvent event) {
+        autowireIfNeeded();
+        if(event.getIndexBehavior() == BeginReindexEvent.IndexBehavior.WIPE_ALL_INDEXES) {
+            textIndexerFactory.reindexStarted(event.getId());
+        }
+    }
+
+    @EventListener
+    public void endReindex(EndReindexEvent event) {
+        autowireIfNeeded();
+        textIndexerFactory.reindexEnded(event.getId());
+    }
+    @EventListener
+    public void reindexing(MaintenanceModeEvent event) throws IOException {
         autowireIfNeeded();
         //TODO: it shouldn't be the maintenance mode itself that triggers this
         // it should be a "WipeAllIndexes" event or something.
+        if(textIndexerConfig.isShadowReindex()) {
+            //the live index keeps answering searches until the new one is done
+            if(event.getSource().isInMaintenanceMode()){
+                textIndexerFactory.beginShadowReindex();
+            }else{
+                textIndexerFactory.endShadowReindex();
+            }
+            return;
+        }
         if(event.getSource().isInMaintenanceMode()){
             textIndexerFactory.getDefaultInstance().newProcess();
         }else{
@@ -121,7 +218,13 @@ public class TextIndexerEntityListener {
     public void clearIndexByType(ClearIndexByTypeEvent event) {
         autowireIfNeeded();
         try {
-            textIndexerFactory.getDefaultInstance().removeAllType(event.getTypeToClear());
+            for(TextIndexer indexer : textIndexerFactory.getWritableInstances()) {
+                try {
+                    indexer.removeAllType(event.getTypeToClear());
+                }catch(Throwable t){
+                    log.warn("trouble clearing index of type:" + event.getTypeToClear(), t);
+                }
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -145,12 +248,14 @@ public class TextIndexerEntityListener {
             if(PREVENT_RECURSION) {
                 working.add(k);
             }
-            TextIndexer indexer = textIndexerFactory.getDefaultInstance();
-            if(indexer !=null) {
+            for(TextIndexer indexer : textIndexerFactory.getWritableInstances()) {
+                if(indexer ==null) {
+                    continue;
+                }
 //            	log.warn("In update Entity IndexUpdateEntityEvent");
                 try {
                     EntityUtils.EntityWrapper ew = event.getOptionalFetchedEntity().orElse(null);
-                    indexer.update(ew, RestrictedType.EXCLUDE_EXTERNAL); // exclude external 
+                    indexer.addChange(ew, true, RestrictedIVMSpecification.getRestrictedIVMSpecs(RestrictedType.EXCLUDE_EXTERNAL)); // exclude external 
                 }catch(Throwable t){
                     log.warn("trouble updating index for:" + event.getSource().toString(), t);
                 }
@@ -166,6 +271,12 @@ public class TextIndexerEntityListener {
     public void deleteEntity(IndexRemoveEntityEvent event) throws Exception {
 //        System.out.println("removing from index " + obj);
         autowireIfNeeded();
-        textIndexerFactory.getDefaultInstance().remove(event.getSource());
+        for(TextIndexer indexer : textIndexerFactory.getWritableInstances()) {
+            try {
+                indexer.remove(event.getSource());
+            }catch(Throwable t){
+                log.warn("trouble removing from index:" + event.getSource(), t);
+            }
+        }
     }
 }
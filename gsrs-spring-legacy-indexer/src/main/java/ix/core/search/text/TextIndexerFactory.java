@@ -2,13 +2,24 @@ package ix.core.search.text;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import javax.annotation.PreDestroy;
@@ -17,16 +28,30 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import gov.nih.ncats.common.io.IOUtil;
 import gov.nih.ncats.common.util.CachedSupplier;
+import gov.nih.ncats.common.util.TimeUtil;
 import gsrs.cache.GsrsCache;
 import gsrs.indexer.IndexValueMakerFactory;
 import gsrs.springUtils.AutowireHelper;
 import ix.core.search.bulk.UserSavedListService;
 import ix.core.util.EntityUtils;
+import lombok.extern.slf4j.Slf4j;
 
 @Service
+@Slf4j
 public class TextIndexerFactory {
 
+    /**
+     * Written in the default directory when the text index lives in
+     * a sub directory (after a shadow reindex), it holds that sub directory's name.
+     */
+    static final String CURRENT_INDEX_FILE = "textindex.current";
+    static final String INDEX_DIR_PREFIX = "textindex-";
+    //what the text index keeps in its base directory
+    private static final List<String> INDEX_FILES = Arrays.asList("index", "facet", "suggest",
+            TextIndexer.FACETS_CONFIG_FILE, TextIndexer.SORTER_CONFIG_FILE);
+
     private Set<String> deepKinds;
 
     private ConcurrentMap<File, TextIndexer> indexers = new ConcurrentHashMap<>();
@@ -49,10 +74,29 @@ public class TextIndexerFactory {
     
     private UserSavedListService userSavedListService = new UserSavedListService();
 
-    private TextIndexer defaultIndexer;
+    private volatile TextIndexer defaultIndexer;
+
+    //the index being built by a shadow reindex, null otherwise
+    private volatile TextIndexer shadowIndexer;
+
+    //the shadow index is only swapped in if every reindex writing to it ended
+    //and nothing failed to be written to it
+    private final Set<UUID> unfinishedReindexes = ConcurrentHashMap.newKeySet();
+    private volatile boolean shadowReindexEnded;
+    private volatile boolean shadowWriteFailed;
+
+    //old indexes swapped out by a shadow reindex, still open for whoever got them before the swap
+    private final Set<TextIndexer> retiring = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService retirer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "text-index-retirer");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final CachedSupplier<Void> initializer = IndexValueMakerFactory.INDEX_VALUE_MAKER_INTIALIZATION_GROUP.add(CachedSupplier.ofInitializer(()->{
-        defaultIndexer = getInstanceWithoutSync(new File(defaultDir));
+        File currentDir = getCurrentIndexDir();
+        deleteUnusedIndexDirs(currentDir);
+        defaultIndexer = getInstanceWithoutSync(currentDir);
         // this logic was taken from the static init method of the Play G-SRS TextIndexer and moved to a new factory
         //so it could be used with dependency injection
 
@@ -108,9 +152,218 @@ public class TextIndexerFactory {
         initializer.getSync();
         return defaultIndexer;
     }
+
+    /**
+     * The index being built by a shadow reindex, if one is running.
+     */
+    public Optional<TextIndexer> getShadowInstance(){
+        initializer.getSync();
+        return Optional.ofNullable(shadowIndexer);
+    }
+
+    /**
+     * The instance reindexed entities should be written to:
+     * the shadow index while one is being built, the default one otherwise.
+     */
+    public TextIndexer getReindexInstance(){
+        return getShadowInstance().orElseGet(this::getDefaultInstance);
+    }
+
+    /**
+     * All the instances live changes have to be written to, so changes made
+     * while a shadow reindex runs aren't lost when it is swapped in.
+     */
+    public List<TextIndexer> getWritableInstances(){
+        List<TextIndexer> list = new ArrayList<>(2);
+        list.add(getDefaultInstance());
+        getShadowInstance().ifPresent(list::add);
+        return list;
+    }
+
+    /**
+     * Start building a complete new index in a new sub directory of ix.home.
+     * The current index keeps serving searches until {@link #finishShadowReindex()}
+     * swaps the new one in.
+     */
+    public synchronized void beginShadowReindex() throws IOException {
+        initializer.getSync();
+        if(shadowIndexer !=null){
+            //a previous one never finished, start again
+            discardShadowReindex();
+        }
+        File dir = new File(defaultDir, INDEX_DIR_PREFIX + TimeUtil.getCurrentTimeMillis());
+        Files.createDirectories(dir.toPath());
+        TextIndexer indexer = getInstanceWithoutSync(dir);
+        if(indexer ==null){
+            throw new IOException("could not create shadow text index in " + dir);
+        }
+        //it's empty, this only turns on the reindexing mode
+        indexer.newProcess();
+        shadowReindexEnded = false;
+        shadowWriteFailed = false;
+        shadowIndexer = indexer;
+        log.info("building shadow text index in " + dir);
+    }
+
+    /**
+     * A reindex of everything started, it writes to the shadow index if there is one.
+     */
+    public void reindexStarted(UUID reindexId){
+        unfinishedReindexes.add(reindexId);
+    }
+
+    /**
+     * A reindex went through all of its records.
+     */
+    public void reindexEnded(UUID reindexId){
+        if(unfinishedReindexes.remove(reindexId)){
+            shadowReindexEnded = true;
+        }
+    }
+
+    /**
+     * Writing a reindexed entity to the shadow index failed, so it's incomplete.
+     */
+    public void shadowWriteFailed(Throwable t){
+        if(shadowIndexer !=null){
+            shadowWriteFailed = true;
+            log.error("writing to the shadow text index failed, it won't be swapped in", t);
+        }
+    }
+
+    /**
+     * Called when maintenance mode ends: swap the shadow index in if the
+     * reindex completed, otherwise throw it away and keep the current index,
+     * which live changes kept up to date.
+     */
+    public synchronized void endShadowReindex() throws IOException {
+        try {
+            if(shadowIndexer ==null){
+                return;
+            }
+            if(shadowReindexEnded && unfinishedReindexes.isEmpty() && !shadowWriteFailed){
+                finishShadowReindex();
+            }else{
+                log.warn("reindex didn't complete, discarding shadow text index " + shadowIndexer.getBaseDir());
+                discardShadowReindex();
+            }
+        }finally {
+            unfinishedReindexes.clear();
+        }
+    }
+
+    /**
+     * Commit the shadow index and atomically make it the default one.
+     * The old index keeps serving whoever got it before the swap for
+     * ix.textindex.reindex.shadow.retireSeconds, then it's closed and deleted.
+     * If the application stops before that it's deleted on the next startup.
+     */
+    public synchronized void finishShadowReindex() throws IOException {
+        TextIndexer shadow = shadowIndexer;
+        if(shadow ==null){
+            return;
+        }
+        shadow.doneProcess();
+        shadow.commitNow();
+
+        //after this it's the shadow index that is opened on restart
+        File shadowDir = shadow.getBaseDir();
+        Path pointer = new File(defaultDir, CURRENT_INDEX_FILE).toPath();
+        Path tmp = new File(defaultDir, CURRENT_INDEX_FILE + ".tmp").toPath();
+        Files.write(tmp, shadowDir.getName().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, pointer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        TextIndexer old = defaultIndexer;
+        defaultIndexer = shadow;
+        shadowIndexer = null;
+        log.info("swapped in shadow text index " + shadowDir);
+
+        if(old !=null){
+            indexers.remove(old.getBaseDir());
+            retiring.add(old);
+            long delay = textIndexerConfig ==null ? 0 : textIndexerConfig.getShadowRetireSeconds();
+            retirer.schedule(()-> retire(old), Math.max(0, delay), TimeUnit.SECONDS);
+        }
+    }
+
+    private void retire(TextIndexer old){
+        //false if it was already closed by destroy()
+        if(retiring.remove(old)){
+            old.close();
+            deleteIndexFiles(old.getBaseDir());
+            log.info("closed and deleted old text index " + old.getBaseDir());
+        }
+    }
+
+    /**
+     * Throw away the shadow index without swapping it in.
+     */
+    public synchronized void discardShadowReindex() {
+        TextIndexer shadow = shadowIndexer;
+        if(shadow ==null){
+            return;
+        }
+        shadowIndexer = null;
+        indexers.remove(shadow.getBaseDir());
+        shadow.close();
+        deleteIndexFiles(shadow.getBaseDir());
+    }
+
+    private File getCurrentIndexDir(){
+        File base = new File(defaultDir);
+        File pointer = new File(base, CURRENT_INDEX_FILE);
+        if(pointer.exists()){
+            try {
+                String name = new String(Files.readAllBytes(pointer.toPath()), StandardCharsets.UTF_8).trim();
+                File dir = new File(base, name);
+                if(dir.isDirectory()){
+                    return dir;
+                }
+                log.warn("text index directory " + dir + " is missing, using " + base);
+            } catch (IOException e) {
+                log.warn("can't read " + pointer + ", using " + base, e);
+            }
+        }
+        return base;
+    }
+
+    //left over from the index before the last swap or from a reindex that never finished
+    private void deleteUnusedIndexDirs(File currentDir){
+        File base = new File(defaultDir);
+        File[] dirs = base.listFiles(f-> f.isDirectory() && f.getName().startsWith(INDEX_DIR_PREFIX));
+        if(dirs !=null){
+            for(File dir : dirs){
+                if(!dir.equals(currentDir)){
+                    IOUtil.deleteRecursivelyQuitely(dir);
+                }
+            }
+        }
+        if(!currentDir.equals(base)){
+            deleteIndexFiles(base);
+        }
+    }
+
+    //the base directory is shared with other things so only the text index parts can be deleted
+    private void deleteIndexFiles(File dir){
+        if(dir.getName().startsWith(INDEX_DIR_PREFIX)){
+            IOUtil.deleteRecursivelyQuitely(dir);
+            return;
+        }
+        for(String name : INDEX_FILES){
+            IOUtil.deleteRecursivelyQuitely(new File(dir, name));
+        }
+    }
     
     @PreDestroy
     public void destroy() {
+        retirer.shutdownNow();
+        //closed but not deleted, the files of anything not in use are deleted on the next startup
+        for(TextIndexer old : new ArrayList<>(retiring)){
+            if(retiring.remove(old)){
+                old.close();
+            }
+        }
+        discardShadowReindex();
         getDefaultInstance().close();
     }
 }
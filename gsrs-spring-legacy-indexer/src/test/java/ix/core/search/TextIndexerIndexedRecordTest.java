@@ -4,14 +4,21 @@ import static org.mockito.Mockito.mock;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import javax.persistence.Entity;
 import javax.persistence.Id;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -23,6 +30,7 @@ import gsrs.indexer.IndexValueMakerFactory;
 import ix.core.search.bulk.UserSavedListService;
 import ix.core.search.text.IndexValueMaker;
 import ix.core.search.text.IndexableValue;
+import ix.core.search.text.IndexerService;
 import ix.core.search.text.Lucene4IndexServiceFactory;
 import ix.core.search.text.ReflectingIndexValueMaker;
 import ix.core.search.text.TextIndexer;
@@ -30,6 +38,7 @@ import ix.core.search.text.TextIndexer.IndexRecord;
 import ix.core.search.text.TextIndexer.IndexedField;
 import ix.core.search.text.TextIndexer.IndexedSuggestField;
 import ix.core.search.text.TextIndexerConfig;
+import ix.core.search.text.TextIndexerConfig.FullIndexRecordFormat;
 import ix.core.util.EntityUtils.EntityWrapper;
 import ix.core.util.EntityUtils.Key;
 import lombok.Builder;
@@ -53,11 +62,24 @@ public class TextIndexerIndexedRecordTest {
     
     
     private TextIndexer getNewTextIndexer() throws IOException {
+    	return getNewTextIndexer(FullIndexRecordFormat.JSON);
+    }
+
+    private TextIndexer getNewTextIndexer(FullIndexRecordFormat format) throws IOException {
     	Lucene4IndexServiceFactory fac = new Lucene4IndexServiceFactory();
+    	return getNewTextIndexer(file, fac, fac.createForDir(file), format);
+    }
+
+    private TextIndexer getNewTextIndexer(File dir, Lucene4IndexServiceFactory fac, IndexerService indexerService,
+    		FullIndexRecordFormat format) throws IOException {
 		TextIndexerConfig conf = new TextIndexerConfig();
+		conf.setFullIndexRecordFormat(format);
 		conf.setEnabled(true);
 		conf.setFieldsuggest(true);
 		conf.setShouldLog(false);
+		//searches refresh the searcher themselves, a background refresh
+		//running at the same time could make them miss what was just added
+		conf.setNrtRefreshIntervalMillis(0);
 		UserSavedListService userSavedListService = mock(UserSavedListService.class);
 		Mockito.when(userSavedListService.getUserSearchResultLists(ArgumentMatchers.anyString(), ArgumentMatchers.anyString())).thenReturn(new ArrayList<String>());
 				
@@ -81,7 +103,7 @@ public class TextIndexerIndexedRecordTest {
 			}
 		};
 		GsrsCache cache = mock(GsrsCache.class);
-		TextIndexer ti= new TextIndexer(file, fac, fac.createForDir(file), conf, singleIVMMaker, cache, (ee)->false, userSavedListService);
+		TextIndexer ti= new TextIndexer(dir, fac, indexerService, conf, singleIVMMaker, cache, (ee)->false, userSavedListService);
 		return ti;
     }
     
@@ -118,6 +140,22 @@ public class TextIndexerIndexedRecordTest {
 		assertSuggestFieldExistsWithValue(ir, "Type Ahead", "TVALUE");
 	}
 	
+	@Test
+	public void testBinaryIndexRecordGetsSavedAndCanBeRetrieved() throws NoSuchElementException, Exception {
+		
+		TextIndexer ti=getNewTextIndexer(FullIndexRecordFormat.BINARY);
+		
+		TestEntity addTest = TestEntity.builder().id(1l).field("demo").build();
+		EntityWrapper wrapped = EntityWrapper.of(addTest);
+		ti.add(wrapped, true);
+		IndexRecord ir = ti.getIndexRecord(wrapped.getKey());
+		Assertions.assertNotNull(ir);
+		Assertions.assertEquals(addTest.getId().toString(),ir.getId());
+		assertFieldExistsWithValue(ir,"field","demo");
+		assertFieldExistsWithValue(ir,"foo","bar");
+		assertSuggestFieldExistsWithValue(ir, "Type Ahead", "TVALUE");
+	}
+	
 	@Test
 	public void testIndexRecordGetsSavedAndCanBeRetrievedAndRemoved() throws NoSuchElementException, Exception {
 		TextIndexer ti=getNewTextIndexer();
@@ -135,6 +173,97 @@ public class TextIndexerIndexedRecordTest {
 		Assertions.assertNull(ir2);
 	}
 	
+	@Test
+	public void testSuggestionsAreTakenBackWithoutTheIndexRecord(@TempDir File dir) throws NoSuchElementException, Exception {
+		Lucene4IndexServiceFactory fac = new Lucene4IndexServiceFactory();
+		TextIndexer ti=getNewTextIndexer(dir, fac, fac.createForDir(dir), FullIndexRecordFormat.NONE);
+		EntityWrapper wrapped = EntityWrapper.of(TestEntity.builder().id(1l).field("demo").build());
+		ti.add(wrapped, true);
+		Assertions.assertNull(ti.getIndexRecord(wrapped.getKey()));
+		Assertions.assertEquals(1, ti.suggest("Type_Ahead", "TV", 10).size());
+
+		ti.remove(wrapped.getKey());
+		Assertions.assertEquals(0, ti.suggest("Type_Ahead", "TV", 10).size());
+		ti.shutdown();
+	}
+
+	@Test
+	public void testUpdateReplacesIndexRecord() throws NoSuchElementException, Exception {
+		TextIndexer ti=getNewTextIndexer();
+		TestEntity addTest = TestEntity.builder().id(1l).field("demo").build();
+		EntityWrapper wrapped = EntityWrapper.of(addTest);
+		ti.add(wrapped, true);
+		addTest.setField("changed");
+		ti.update(EntityWrapper.of(addTest));
+
+		IndexRecord ir = ti.getIndexRecord(wrapped.getKey());
+		Assertions.assertNotNull(ir);
+		assertFieldExistsWithValue(ir,"field","changed");
+
+		SearchResult sr = ti.search(null, "foo:bar", 50);
+		Assertions.assertTrue(sr.finished());
+		Assertions.assertEquals(1,sr.getMatches().size());
+	}
+	
+	@Test
+	public void testChangesWhileReindexingReplaceTheReindexedRecord() throws NoSuchElementException, Exception {
+		TextIndexer ti=getNewTextIndexer();
+		ti.newProcess();
+		TestEntity old = TestEntity.builder().id(1l).field("demo").build();
+		ti.add(EntityWrapper.of(old));
+
+		TestEntity changed = TestEntity.builder().id(1l).field("changed").build();
+		ti.addChange(EntityWrapper.of(changed), true);
+		//the reindex loaded it before the change
+		ti.add(EntityWrapper.of(old));
+		ti.doneProcess();
+
+		IndexRecord ir = ti.getIndexRecord(EntityWrapper.of(changed).getKey());
+		Assertions.assertNotNull(ir);
+		assertFieldExistsWithValue(ir,"field","changed");
+		SearchResult sr = ti.search(null, "foo:bar", 50);
+		Assertions.assertTrue(sr.finished());
+		Assertions.assertEquals(1,sr.getMatches().size());
+	}
+	
+	@Test
+	public void testAddBatchIndexesEveryEntity() throws NoSuchElementException, Exception {
+		TextIndexer ti=getNewTextIndexer();
+		ti.addBatch(LongStream.rangeClosed(1, 1234)
+				.mapToObj(i->EntityWrapper.of(TestEntity.builder().id(i).field("demo"+i).build()))
+				.collect(Collectors.toList()));
+
+		SearchResult sr = ti.search(null, "foo:bar", 2000);
+		Assertions.assertTrue(sr.finished());
+		Assertions.assertEquals(1234,sr.getMatches().size());
+
+		IndexRecord ir = ti.getIndexRecord(EntityWrapper.of(TestEntity.builder().id(77l).build()).getKey());
+		Assertions.assertNotNull(ir);
+		assertFieldExistsWithValue(ir,"field","demo77");
+	}
+	
+	@Test
+	public void testReindexingForgetsDocumentsWithoutRootKey(@TempDir File dir) throws Exception {
+		Lucene4IndexServiceFactory fac = new Lucene4IndexServiceFactory();
+		IndexerService indexerService = fac.createForDir(dir);
+		//written the way entities were before they had a root key
+		Document legacy = new Document();
+		legacy.add(new StringField("ANALYZER_MARKER", "false", Store.YES));
+		indexerService.addDocuments(Collections.singletonList(legacy));
+
+		TextIndexer ti=getNewTextIndexer(dir, fac, indexerService, FullIndexRecordFormat.JSON);
+		Field mayHave = TextIndexer.class.getDeclaredField("mayHaveDocumentsWithoutRootKey");
+		mayHave.setAccessible(true);
+		Assertions.assertTrue(mayHave.getBoolean(ti));
+
+		ti.clearAllIndexes(true);
+		Assertions.assertFalse(mayHave.getBoolean(ti));
+		ti.addBatch(Collections.singletonList(EntityWrapper.of(TestEntity.builder().id(1l).field("demo").build())));
+		ti.doneProcess();
+		Assertions.assertFalse(mayHave.getBoolean(ti));
+		ti.shutdown();
+	}
+
 	@Test
 	public void testIndexRecordGetsSavedAndCanBeSearched() throws NoSuchElementException, Exception {
 		TextIndexer ti=getNewTextIndexer();
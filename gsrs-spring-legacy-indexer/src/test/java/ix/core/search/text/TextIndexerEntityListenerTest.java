@@ -0,0 +1,79 @@
+package ix.core.search.text;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import gsrs.events.ReindexEntityEvent;
+import ix.core.search.TextIndexerIndexedRecordTest.TestEntity;
+import ix.core.util.EntityUtils.EntityWrapper;
+
+public class TextIndexerEntityListenerTest {
+
+	private static void setField(Object o, String name, Object value) throws Exception {
+		Field f = o.getClass().getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(o, value);
+	}
+
+	@Test
+	public void reindexedEntitiesAreWrittenAsOneBatchBeforeTheTransactionEnds() throws Exception {
+		TextIndexer indexer = mock(TextIndexer.class);
+		TextIndexerFactory factory = mock(TextIndexerFactory.class);
+		when(factory.getReindexInstance()).thenReturn(indexer);
+		TextIndexerEntityListener listener = new TextIndexerEntityListener();
+		setField(listener, "textIndexerFactory", factory);
+		setField(listener, "textIndexerConfig", new TextIndexerConfig());
+
+		UUID reindexId = UUID.randomUUID();
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			for(long i=1; i<=3; i++) {
+				EntityWrapper<?> ew = EntityWrapper.of(TestEntity.builder().id(i).field("demo"+i).build());
+				listener.reindexEntity(new ReindexEntityEvent(reindexId, ew.getKey(), Optional.of(ew)));
+			}
+			verify(indexer, never()).add(any());
+			verify(indexer, never()).addBatch(any());
+
+			for(TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+				s.beforeCompletion();
+			}
+		}finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Collection<EntityWrapper>> batch = ArgumentCaptor.forClass(Collection.class);
+		verify(indexer).addBatch(batch.capture());
+		Assertions.assertEquals(3, batch.getValue().size());
+	}
+
+	@Test
+	public void withoutATransactionReindexedEntitiesAreWrittenRightAway() throws Exception {
+		TextIndexer indexer = mock(TextIndexer.class);
+		TextIndexerFactory factory = mock(TextIndexerFactory.class);
+		when(factory.getReindexInstance()).thenReturn(indexer);
+		TextIndexerEntityListener listener = new TextIndexerEntityListener();
+		setField(listener, "textIndexerFactory", factory);
+		setField(listener, "textIndexerConfig", new TextIndexerConfig());
+
+		EntityWrapper<?> ew = EntityWrapper.of(TestEntity.builder().id(1l).field("demo").build());
+		listener.reindexEntity(new ReindexEntityEvent(UUID.randomUUID(), ew.getKey(), Optional.of(ew)));
+
+		verify(indexer).add(ew);
+		verify(indexer, never()).addBatch(any());
+	}
+}
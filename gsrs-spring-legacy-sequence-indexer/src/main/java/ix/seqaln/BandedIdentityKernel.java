@@ -0,0 +1,313 @@
+package ix.seqaln;
+
+import java.util.Arrays;
+
+/**
+ * A banded global alignment, used to skip the full alignment of candidates
+ * which can't reach an identity cutoff and to align the ones which can
+ * without it.
+ *
+ * The identity of a global alignment is the number of identical residues
+ * divided by the alignment length, which is at least as long as the longer
+ * sequence, and the number of identical residues is at most the longest
+ * common subsequence. So a candidate can only pass if the longest common
+ * subsequence is at least {@code ceil(cutoff * max length)}. A path through
+ * the alignment matrix with that many matches can only have so many gaps
+ * on each side, which limits how far it can wander from the diagonal, so only
+ * that band of the matrix is computed. For high cutoffs that's a thin band.
+ */
+final class BandedIdentityKernel {
+
+    private static final int DIAGONAL = 1;
+    private static final int HORIZONTAL = 2;
+    private static final int VERTICAL = 3;
+
+    //low enough to never win, high enough to not overflow when a gap is added
+    private static final int OUTSIDE_BAND = Integer.MIN_VALUE / 2;
+
+    //traceback matrices bigger than this aren't kept around for the next call
+    private static final int MAX_KEPT_TRACEBACK = 1 << 20;
+
+    /**
+     * The rows, gap flags and traceback reused by each thread.
+     */
+    private static final class Scratch {
+        int[] prev = new int[0];
+        int[] cur = new int[0];
+        boolean[] horizontalGap = new boolean[0];
+        boolean[] verticalGap = new boolean[0];
+        byte[] traceback = new byte[0];
+
+        void ensureColumns(int columns) {
+            if (prev.length < columns) {
+                prev = new int[columns];
+                cur = new int[columns];
+                horizontalGap = new boolean[columns];
+                verticalGap = new boolean[columns];
+            }
+        }
+
+        byte[] traceback(int size) {
+            if (traceback.length >= size) {
+                return traceback;
+            }
+            byte[] tb = new byte[size];
+            if (size <= MAX_KEPT_TRACEBACK) {
+                traceback = tb;
+            }
+            return tb;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The identity and, if it reached the cutoff, the gapped residues
+     * of a banded global alignment.
+     */
+    static final class GlobalAlignment {
+        final double percentIdentity;
+        /**
+         * null if the identity didn't reach the cutoff.
+         */
+        final String gappedQuery;
+        final String gappedTarget;
+
+        GlobalAlignment(double percentIdentity, String gappedQuery, String gappedTarget) {
+            this.percentIdentity = percentIdentity;
+            this.gappedQuery = gappedQuery;
+            this.gappedTarget = gappedTarget;
+        }
+    }
+
+    private BandedIdentityKernel() {
+    }
+
+    private static int needed(byte[] query, byte[] target, double minIdentity) {
+        return (int) Math.ceil(minIdentity * Math.max(query.length, target.length));
+    }
+
+    /**
+     * @return false only if no global alignment of these residues
+     * can have an identity of at least minIdentity.
+     */
+    static boolean couldReachIdentity(byte[] query, byte[] target, double minIdentity) {
+        int needed = needed(query, target, minIdentity);
+        if (needed <= 0) {
+            return true;
+        }
+        if (needed > Math.min(query.length, target.length)) {
+            return false;
+        }
+        return longestCommonSubsequenceReaches(query, target, needed);
+    }
+
+    /**
+     * @return true if the longest common subsequence of a and b is at least needed.
+     */
+    static boolean longestCommonSubsequenceReaches(byte[] a, byte[] b, int needed) {
+        int n = a.length;
+        int m = b.length;
+        //a path with at least needed matches has at most n-needed steps only in a
+        //and m-needed steps only in b, so j-i stays in [lo, hi]
+        int lo = -(n - needed);
+        int hi = m - needed;
+
+        Scratch scratch = SCRATCH.get();
+        scratch.ensureColumns(m + 1);
+        //cells outside the band are read as they are, they have to be
+        //values for these sequences and not ones left from the last call
+        Arrays.fill(scratch.prev, 0, m + 1, 0);
+        Arrays.fill(scratch.cur, 0, m + 1, 0);
+        int[] prev = scratch.prev;
+        int[] cur = scratch.cur;
+
+        for (int i = 1; i <= n; i++) {
+            byte ai = a[i - 1];
+            int from = Math.max(1, i + lo);
+            int to = Math.min(m, i + hi);
+            int rowMax = 0;
+            for (int j = from; j <= to; j++) {
+                int v;
+                if (ai == b[j - 1]) {
+                    v = prev[j - 1] + 1;
+                } else {
+                    v = Math.max(prev[j], cur[j - 1]);
+                }
+                cur[j] = v;
+                if (v > rowMax) {
+                    rowMax = v;
+                }
+            }
+            if (rowMax >= needed) {
+                return true;
+            }
+            //each remaining row of a adds at most one match
+            if (rowMax + (n - i) < needed) {
+                return false;
+            }
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return false;
+    }
+
+    /**
+     * Globally align the residues the way jillion's Needleman-Wunsch aligner does
+     * with a substitution matrix scoring identical residues 1 and different ones 0
+     * and a gap penalty only for opening a gap, but only within the band that
+     * any alignment reaching minIdentity has to stay in.
+     *
+     * An alignment reaching minIdentity whose path runs along the edge of the band
+     * might have been beaten by one from outside of it, so then the full alignment
+     * has to be done instead. Matrices which score different residues below 0
+     * can prefer paths with more gaps and less identity which leave the band,
+     * so they can't use this.
+     *
+     * @param query the query residues, that should
+     *              {@link #couldReachIdentity(byte[], byte[], double) could reach} minIdentity
+     *              with the target.
+     * @return the alignment, or null if the full alignment has to be done.
+     */
+    static GlobalAlignment alignGlobal(byte[] query, byte[] target, int gapPenalty, double minIdentity) {
+        int n = query.length;
+        int m = target.length;
+        int needed = Math.max(0, Math.min(needed(query, target, minIdentity), Math.min(n, m)));
+        int lo = -(n - needed);
+        int hi = m - needed;
+        int width = hi - lo + 1;
+        int open = -gapPenalty;
+
+        Scratch scratch = SCRATCH.get();
+        scratch.ensureColumns(m + 1);
+        int[] prev = scratch.prev;
+        int[] cur = scratch.cur;
+        boolean[] horizontalGap = scratch.horizontalGap;
+        boolean[] verticalGap = scratch.verticalGap;
+        Arrays.fill(horizontalGap, 0, m + 1, false);
+        Arrays.fill(verticalGap, 0, m + 1, false);
+        byte[] traceback = scratch.traceback((n + 1) * width);
+
+        //leading gaps in the target cost one gap, leading gaps in the query are free
+        prev[0] = 0;
+        cur[0] = 0;
+        for (int j = 1, to = Math.min(m, hi); j <= to; j++) {
+            prev[j] = open;
+        }
+        for (int i = 1; i <= n; i++) {
+            byte qi = query[i - 1];
+            int from = Math.max(1, i + lo);
+            int to = Math.min(m, i + hi);
+            for (int j = from; j <= to; j++) {
+                int vertical;
+                if (j <= i - 1 + hi) {
+                    int up = prev[j];
+                    vertical = up + open;
+                    if (verticalGap[j] && up > vertical) {
+                        vertical = up;
+                    }
+                } else {
+                    vertical = OUTSIDE_BAND;
+                }
+                int horizontal;
+                if (j - 1 >= i + lo) {
+                    int left = cur[j - 1];
+                    horizontal = left + open;
+                    if (horizontalGap[j - 1] && left >= horizontal) {
+                        horizontal = left;
+                    }
+                } else {
+                    horizontal = OUTSIDE_BAND;
+                }
+                int diagonal = prev[j - 1] + (qi == target[j - 1] ? 1 : 0);
+
+                //same tie breaking as jillion, the gap flags are only
+                //updated the way jillion does too
+                int best;
+                byte direction;
+                if (diagonal >= horizontal) {
+                    if (diagonal >= vertical) {
+                        best = diagonal;
+                        direction = DIAGONAL;
+                    } else {
+                        best = vertical;
+                        direction = VERTICAL;
+                    }
+                } else if (horizontal >= vertical) {
+                    best = horizontal;
+                    direction = HORIZONTAL;
+                } else {
+                    best = vertical;
+                    direction = VERTICAL;
+                }
+                cur[j] = best;
+                traceback[i * width + (j - i - lo)] = direction;
+                if (direction == HORIZONTAL) {
+                    horizontalGap[j] = true;
+                } else if (direction == VERTICAL) {
+                    verticalGap[j] = true;
+                } else {
+                    horizontalGap[j] = false;
+                    verticalGap[j] = false;
+                }
+            }
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+
+        //first walk back to count, the gapped residues are only needed for hits
+        int matches = 0;
+        int length = 0;
+        boolean alongEdge = false;
+        for (int i = n, j = m; i > 0 || j > 0; length++) {
+            if (j - i == lo || j - i == hi) {
+                alongEdge = true;
+            }
+            int direction = direction(traceback, width, lo, i, j);
+            if (direction == DIAGONAL) {
+                i--;
+                j--;
+                if (query[i] == target[j]) {
+                    matches++;
+                }
+            } else if (direction == HORIZONTAL) {
+                j--;
+            } else {
+                i--;
+            }
+        }
+        double percentIdentity = length == 0 ? 0 : matches / (double) length;
+        if (percentIdentity < minIdentity) {
+            return new GlobalAlignment(percentIdentity, null, null);
+        }
+        if (alongEdge) {
+            return null;
+        }
+        char[] gappedQuery = new char[length];
+        char[] gappedTarget = new char[length];
+        for (int i = n, j = m, k = length - 1; k >= 0; k--) {
+            int direction = direction(traceback, width, lo, i, j);
+            if (direction != HORIZONTAL) {
+                i--;
+            }
+            if (direction != VERTICAL) {
+                j--;
+            }
+            gappedQuery[k] = direction == HORIZONTAL ? '-' : (char) (query[i] & 0xff);
+            gappedTarget[k] = direction == VERTICAL ? '-' : (char) (target[j] & 0xff);
+        }
+        return new GlobalAlignment(percentIdentity, new String(gappedQuery), new String(gappedTarget));
+    }
+
+    private static int direction(byte[] traceback, int width, int lo, int i, int j) {
+        if (i == 0) {
+            return HORIZONTAL;
+        }
+        if (j == 0) {
+            return VERTICAL;
+        }
+        return traceback[i * width + (j - i - lo)];
+    }
+}
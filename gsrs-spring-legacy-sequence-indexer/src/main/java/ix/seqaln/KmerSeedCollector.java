@@ -0,0 +1,111 @@
+package ix.seqaln;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Finds the sequences which share kmers with a query in one pass over the
+ * positional postings of the query's kmers. Hits are counted per diagonal
+ * (target position - query position) of each sequence, and a sequence
+ * is scored by the number of kmers on its best diagonal, so a long
+ * shared stretch ranks above the same number of scattered kmers.
+ */
+class KmerSeedCollector {
+
+    static class Seed {
+        /**
+         * The top level doc id in the kmer index.
+         */
+        final int doc;
+        final int score;
+
+        Seed(int doc, int score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+
+    /**
+     * @return the seeds, best score first.
+     */
+    static List<Seed> collect(IndexReader reader, Kmers query, List<String> mustHaveAtLeastOneTag) throws IOException {
+        List<Seed> seeds = new ArrayList<>();
+        for (LeafReaderContext ctx : reader.leaves()) {
+            LeafReader leaf = ctx.reader();
+            Terms terms = leaf.terms(SequenceIndexer.FIELD_KMER);
+            if (terms == null) {
+                continue;
+            }
+            //postings include deleted docs
+            Bits live = leaf.getLiveDocs();
+            FixedBitSet tagged = mustHaveAtLeastOneTag.isEmpty() ? null : docsWithAnyTag(leaf, mustHaveAtLeastOneTag);
+
+            //doc << 32 | diagonal -> count
+            Map<Long, int[]> diagonals = new HashMap<>();
+            Map<Integer, int[]> best = new HashMap<>();
+
+            TermsEnum te = terms.iterator();
+            PostingsEnum pe = null;
+            for (Map.Entry<String, BitSet> entry : query.positionEntrySet()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return Collections.emptyList();
+                }
+                if (!te.seekExact(new BytesRef(entry.getKey()))) {
+                    continue;
+                }
+                BitSet queryPositions = entry.getValue();
+                pe = te.postings(pe, PostingsEnum.POSITIONS);
+                int doc;
+                while ((doc = pe.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    if ((live != null && !live.get(doc)) || (tagged != null && !tagged.get(doc))) {
+                        continue;
+                    }
+                    int[] top = best.computeIfAbsent(doc, d -> new int[1]);
+                    for (int i = pe.freq(); i > 0; i--) {
+                        int tpos = pe.nextPosition();
+                        for (int qpos = queryPositions.nextSetBit(0); qpos >= 0; qpos = queryPositions.nextSetBit(qpos + 1)) {
+                            long key = ((long) doc << 32) | ((tpos - qpos) & 0xFFFFFFFFL);
+                            int[] count = diagonals.computeIfAbsent(key, k -> new int[1]);
+                            if (++count[0] > top[0]) {
+                                top[0] = count[0];
+                            }
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<Integer, int[]> e : best.entrySet()) {
+                seeds.add(new Seed(ctx.docBase + e.getKey(), e.getValue()[0]));
+            }
+        }
+        seeds.sort((a, b) -> b.score != a.score ? Integer.compare(b.score, a.score) : Integer.compare(a.doc, b.doc));
+        return seeds;
+    }
+
+    private static FixedBitSet docsWithAnyTag(LeafReader leaf, List<String> tags) throws IOException {
+        FixedBitSet bits = new FixedBitSet(leaf.maxDoc());
+        Terms terms = leaf.terms(SequenceIndexer.FIELD_TAGS);
+        if (terms == null) {
+            return bits;
+        }
+        TermsEnum te = terms.iterator();
+        PostingsEnum pe = null;
+        for (String tag : tags) {
+            if (te.seekExact(new BytesRef(tag))) {
+                pe = te.postings(pe, PostingsEnum.NONE);
+                bits.or(pe);
+            }
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,45 @@
+package ix.seqaln;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+/**
+ * Every overlapping kmer of a sequence, with the position
+ * of each token being the offset of the kmer in the sequence.
+ */
+final class KmerTokenStream extends TokenStream {
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+    private final char[] chars;
+    private final int K;
+    private int pos;
+
+    KmerTokenStream(String seq, int K) {
+        if (K <= 0)
+            throw new IllegalArgumentException ("Bogus K value "+K);
+        this.chars = seq.toUpperCase().toCharArray();
+        this.K = K;
+    }
+
+    @Override
+    public boolean incrementToken() {
+        if (pos + K > chars.length) {
+            return false;
+        }
+        clearAttributes();
+        termAtt.copyBuffer(chars, pos, K);
+        posIncAtt.setPositionIncrement(1);
+        pos++;
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        pos = 0;
+    }
+}
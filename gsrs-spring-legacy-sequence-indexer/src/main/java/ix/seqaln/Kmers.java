@@ -117,6 +117,23 @@ public class Kmers implements Comparator<String> {
 
         }
 
+        static HoloFingerprint of(int[] fp){
+            int max=0;
+            for(int v: fp){
+                if(v > max){
+                    max=v;
+                }
+            }
+            return new HoloFingerprint(fp, max);
+        }
+
+        /**
+         * The count of each bin, this is the backing array so don't modify it.
+         */
+        int[] counts(){
+            return fp;
+        }
+
         private HoloFingerprint(int[] fp, int maxValue){
             this.fp = fp;
             this.maxValue = maxValue;
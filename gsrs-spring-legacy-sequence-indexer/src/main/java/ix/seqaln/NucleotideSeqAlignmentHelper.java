@@ -6,6 +6,8 @@ import org.jcvi.jillion.align.pairwise.PairwiseAlignmentBuilder;
 import org.jcvi.jillion.core.residue.nt.Nucleotide;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Created by katzelda on 11/7/18.
  */
@@ -15,6 +17,17 @@ public class NucleotideSeqAlignmentHelper implements SequenceAlignmentHelper<Nuc
         return NucleotideSequence.of(Nucleotide.cleanSequence(seq, "N"));
     }
 
+    @Override
+    public byte[] toResidues(String seq) {
+        //the identity matrix scores uracil and thymine as different residues too
+        return Nucleotide.cleanSequence(seq, "N").toUpperCase().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public int mismatchScore() {
+        return (int) NucleotideSubstitutionMatrices.getIdentityMatrix().getValue(Nucleotide.Adenine, Nucleotide.Guanine);
+    }
+
     @Override
     public PairwiseAlignmentBuilder<Nucleotide, NucleotideSequence, NucleotidePairwiseSequenceAlignment> createAlignmentBuilder(NucleotideSequence query, NucleotideSequence target) {
         return PairwiseAlignmentBuilder.createNucleotideAlignmentBuilder(query, target, NucleotideSubstitutionMatrices.getIdentityMatrix());
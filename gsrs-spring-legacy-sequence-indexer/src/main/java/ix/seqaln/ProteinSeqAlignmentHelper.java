@@ -6,6 +6,8 @@ import org.jcvi.jillion.align.pairwise.ProteinPairwiseSequenceAlignment;
 import org.jcvi.jillion.core.residue.aa.AminoAcid;
 import org.jcvi.jillion.core.residue.aa.ProteinSequence;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Created by katzelda on 11/7/18.
  */
@@ -22,4 +24,14 @@ class ProteinSeqAlignmentHelper implements SequenceAlignmentHelper<AminoAcid, Pr
     public ProteinSequence toSequence(String seq) {
         return ProteinSequence.of(AminoAcid.cleanSequence(seq, "X"));
     }
+
+    @Override
+    public byte[] toResidues(String seq) {
+        return AminoAcid.cleanSequence(seq, "X").toUpperCase().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public int mismatchScore() {
+        return (int) MATRIX.getValue(AminoAcid.Alanine, AminoAcid.Glycine);
+    }
 }
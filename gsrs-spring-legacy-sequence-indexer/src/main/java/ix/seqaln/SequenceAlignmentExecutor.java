@@ -0,0 +1,163 @@
+package ix.seqaln;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The threads sequence alignments run on, kept apart from the common
+ * fork join pool so heavy sequence searches don't starve every other
+ * parallel stream in the JVM.
+ *
+ * The queue is bounded, when it's full the searching thread runs the
+ * alignment itself which slows down whoever is adding the most work.
+ * Each search only has {@link #getSearchParallelism()} alignments
+ * submitted at a time so one search can't take over the whole pool.
+ *
+ * Once closed, submitting throws {@link RejectedExecutionException}.
+ */
+@Slf4j
+public class SequenceAlignmentExecutor implements Closeable {
+
+    /**
+     * A snapshot of how the executor has been doing.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Stats {
+        private long completed;
+        private long cancelled;
+        private long ranOnCaller;
+        private int active;
+        private int queued;
+        private double averageQueueWaitMillis;
+        private double averageAlignmentMillis;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int searchParallelism;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder ranOnCaller = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder alignmentNanos = new LongAdder();
+
+    public static SequenceAlignmentExecutor createDefault() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new SequenceAlignmentExecutor(processors, 1000, processors);
+    }
+
+    /**
+     * @param threads the number of alignment threads.
+     * @param queueSize the most alignments waiting for a thread.
+     * @param searchParallelism the most alignments one search runs at the same time.
+     */
+    public SequenceAlignmentExecutor(int threads, int queueSize, int searchParallelism) {
+        int nThreads = Math.max(1, threads);
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                r -> {
+                    Thread t = new Thread(r, "sequence-alignment-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, e) -> {
+                    if (e.isShutdown()) {
+                        //don't hand back a future that will never finish
+                        throw new RejectedExecutionException("sequence alignment executor is closed");
+                    }
+                    ranOnCaller.increment();
+                    r.run();
+                });
+        this.searchParallelism = Math.max(1, searchParallelism);
+    }
+
+    public int getSearchParallelism() {
+        return searchParallelism;
+    }
+
+    /**
+     * Run an alignment. Cancelling the returned future with
+     * {@code cancel(true)} interrupts the alignment if it already started.
+     */
+    public <T> Future<T> submit(Callable<T> alignment) {
+        long queuedAt = System.nanoTime();
+        Future<T> f = executor.submit(() -> {
+            long start = System.nanoTime();
+            queueWaitNanos.add(start - queuedAt);
+            try {
+                return alignment.call();
+            } finally {
+                alignmentNanos.add(System.nanoTime() - start);
+                completed.increment();
+            }
+        });
+        return new CountingFuture<>(f);
+    }
+
+    /**
+     * Drop cancelled alignments still waiting for a thread,
+     * call once when a search is done rather than per cancel.
+     */
+    public void purge() {
+        executor.purge();
+    }
+
+    public Stats getStats() {
+        long done = completed.sum();
+        double n = Math.max(1, done);
+        return new Stats(done, cancelled.sum(), ranOnCaller.sum(),
+                executor.getActiveCount(), executor.getQueue().size(),
+                queueWaitNanos.sum() / n / 1_000_000D,
+                alignmentNanos.sum() / n / 1_000_000D);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private class CountingFuture<T> implements Future<T> {
+        private final Future<T> delegate;
+
+        CountingFuture(Future<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean c = delegate.cancel(mayInterruptIfRunning);
+            if (c) {
+                cancelled.increment();
+            }
+            return c;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return delegate.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return delegate.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return delegate.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return delegate.get(timeout, unit);
+        }
+    }
+}
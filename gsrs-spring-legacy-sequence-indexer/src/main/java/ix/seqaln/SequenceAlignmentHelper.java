@@ -12,6 +12,17 @@ public interface SequenceAlignmentHelper<R extends Residue, T extends ResidueSeq
 
     T toSequence(String seq);
 
+    /**
+     * The residues of the cleaned sequence as one upper case byte each,
+     * two residues are the same only if their bytes are equal.
+     */
+    byte[] toResidues(String seq);
+
+    /**
+     * The score of two different residues, two identical ones score 1.
+     */
+    int mismatchScore();
+
 
     <A extends PairwiseSequenceAlignment<R,T>> PairwiseAlignmentBuilder<R, T, A> createAlignmentBuilder(T query, T target);
 
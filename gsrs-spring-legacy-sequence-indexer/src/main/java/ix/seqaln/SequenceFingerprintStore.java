@@ -0,0 +1,296 @@
+package ix.seqaln;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the kmer fingerprints of every indexed sequence in memory so
+ * a similarity search doesn't have to load and decode them from lucene
+ * each time.
+ *
+ * Each fingerprint only keeps its non-empty bins, packed into an int
+ * (bin in the high bits, count in the low bits), and searches walk a
+ * snapshot of the entries sorted by sequence length so the length
+ * bounds are just a binary search. The snapshot is rebuilt by the
+ * first search after a change.
+ */
+@Slf4j
+class SequenceFingerprintStore {
+
+    private static final int COUNT_BITS = 22;
+    //counts above this are saturated, that only happens for very long sequences with k=1
+    private static final int MAX_COUNT = (1 << COUNT_BITS) - 1;
+
+    static class Entry {
+        final String id;
+        final int length;
+        final List<String> tags;
+        //index k-1, sorted by bin
+        final int[][] packed;
+        final int[] totals;
+
+        Entry(String id, int length, List<String> tags, int[][] packed) {
+            this.id = id;
+            this.length = length;
+            this.tags = tags;
+            this.packed = packed;
+            this.totals = new int[packed.length];
+            for (int k = 0; k < packed.length; k++) {
+                if (packed[k] == null) {
+                    continue;
+                }
+                int total = 0;
+                for (int p : packed[k]) {
+                    total += p & MAX_COUNT;
+                }
+                totals[k] = total;
+            }
+        }
+
+        boolean hasAnyTag(List<String> mustHaveAtLeastOneTag) {
+            if (mustHaveAtLeastOneTag.isEmpty()) {
+                return true;
+            }
+            for (String tag : mustHaveAtLeastOneTag) {
+                if (tags.contains(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        SequenceIndexer.KmerFingerprintWrapper toWrapper() {
+            SequenceIndexer.KmerFingerprintWrapper kwrap = SequenceIndexer.KmerFingerprintWrapper.of(id, length);
+            for (int k = 0; k < packed.length; k++) {
+                if (packed[k] == null) {
+                    continue;
+                }
+                int[] fp = new int[Kmers.FP_SIZE];
+                for (int p : packed[k]) {
+                    fp[p >>> COUNT_BITS] = p & MAX_COUNT;
+                }
+                kwrap.addHolo(k + 1, Kmers.HoloFingerprint.of(fp));
+            }
+            return kwrap;
+        }
+    }
+
+    private static class Snapshot {
+        final Entry[] entries;
+        final int[] lengths;
+
+        Snapshot(Entry[] entries) {
+            this.entries = entries;
+            this.lengths = new int[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                lengths[i] = entries[i].length;
+            }
+        }
+
+        /**
+         * @return the index of the first entry at least this long.
+         */
+        int firstAtLeast(int length) {
+            int lo = 0, hi = lengths.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lengths[mid] < length) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(new Entry[0]);
+
+    //more than one sequence can be indexed under the same id, the lists are never modified once in the map
+    private final Map<String, List<Entry>> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile Snapshot snapshot = EMPTY;
+
+    static int[] pack(Kmers.HoloFingerprint fp) {
+        int[] counts = fp.counts();
+        int n = 0;
+        for (int c : counts) {
+            if (c != 0) {
+                n++;
+            }
+        }
+        int[] packed = new int[n];
+        for (int bin = 0, i = 0; bin < counts.length; bin++) {
+            int c = counts[bin];
+            if (c != 0) {
+                packed[i++] = (bin << COUNT_BITS) | Math.min(c, MAX_COUNT);
+            }
+        }
+        return packed;
+    }
+
+    public void add(String id, int length, List<String> tags, SequenceIndexer.KmerFingerprintWrapper kwrap) {
+        int maxK = kwrap.kmap.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+        int[][] packed = new int[maxK][];
+        for (Map.Entry<Integer, Kmers.HoloFingerprint> e : kwrap.kmap.entrySet()) {
+            packed[e.getKey() - 1] = pack(e.getValue());
+        }
+        Entry entry = new Entry(id, length, tags, packed);
+        entries.compute(id, (k, old) -> {
+            List<Entry> list = old == null ? new ArrayList<>(1) : new ArrayList<>(old);
+            list.add(entry);
+            return list;
+        });
+        dirty.set(true);
+    }
+
+    public void remove(String id) {
+        if (entries.remove(id) != null) {
+            dirty.set(true);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        dirty.set(true);
+    }
+
+    public int size() {
+        return entries.values().stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * Read the fingerprints of every sequence already in the index.
+     */
+    public void load(IndexReader reader) throws IOException {
+        int maxDoc = Math.max(1, reader.maxDoc());
+        IndexSearcher searcher = new IndexSearcher(reader);
+
+        Map<Integer, List<String>> tagsByDoc = SequenceIndexer.readTagsByDoc(reader);
+
+        TopDocs docs = searcher.search(new MatchAllDocsQuery(), maxDoc);
+        for (ScoreDoc sd : docs.scoreDocs) {
+            Document d = searcher.doc(sd.doc);
+            String id = d.get(SequenceIndexer.FIELD_ID);
+            String ks = d.get(SequenceIndexer.FIELD_FP_K);
+            if (id == null || ks == null) {
+                continue;
+            }
+            try {
+                SequenceIndexer.KmerFingerprintWrapper kwrap = SequenceIndexer.KmerFingerprintWrapper.of(id,
+                        Integer.parseInt(d.get(SequenceIndexer.FIELD_LENGTH)));
+                for (String k : ks.split(",")) {
+                    String fpenc = d.get(SequenceIndexer.FIELD_FP + "_" + k);
+                    kwrap.addHolo(Integer.parseInt(k), Kmers.HoloFingerprint.decode(fpenc));
+                }
+                add(id, kwrap.length, tagsByDoc.getOrDefault(sd.doc, Collections.emptyList()), kwrap);
+            } catch (Exception e) {
+                log.warn("Error making sequence fingerprint", e);
+            }
+        }
+        log.debug("loaded " + size() + " sequence fingerprints");
+    }
+
+    private Snapshot snapshot() {
+        if (dirty.get()) {
+            synchronized (this) {
+                if (dirty.getAndSet(false)) {
+                    Entry[] sorted = entries.values().stream().flatMap(List::stream).toArray(Entry[]::new);
+                    Arrays.sort(sorted, Comparator.comparingInt(e -> e.length));
+                    snapshot = new Snapshot(sorted);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    public List<SequenceIndexer.KmerFingerprintWrapper> getWithBounds(int lowerBound, int upperBound, List<String> mustHaveAtLeastOneTag) {
+        Snapshot s = snapshot();
+        List<SequenceIndexer.KmerFingerprintWrapper> list = new ArrayList<>();
+        for (int i = s.firstAtLeast(lowerBound); i < s.entries.length && s.lengths[i] <= upperBound; i++) {
+            Entry e = s.entries[i];
+            if (e.hasAnyTag(mustHaveAtLeastOneTag)) {
+                list.add(e.toWrapper());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Find the sequences whose fingerprints are close enough to the query's
+     * for every k up to K. This is the same check the search used to do on each
+     * decoded {@link Kmers.HoloFingerprint}: the counts the target has more of and
+     * the counts it has less of must each be within {@code maxDistance*k}
+     * (plus the extra length of the target for the "more" side when
+     * {@code allowLongerTargets} is set), and the score is their sum for the last
+     * k that shares any kmer with the query.
+     *
+     * @return the ids and scores of the matches, sorted by length.
+     */
+    public List<SequenceIndexer.StringAndDouble> search(SequenceIndexer.KmerFingerprintWrapper query, int K,
+                                                        int queryLength, int lowerBound, int upperBound,
+                                                        List<String> mustHaveAtLeastOneTag,
+                                                        int maxDistance, boolean allowLongerTargets) {
+        //dense query so the scan is one array read per target bin
+        int[][] q = new int[K][];
+        int[] qTotals = new int[K];
+        for (int k = 0; k < K; k++) {
+            q[k] = query.kmap.get(k + 1).counts();
+            int total = 0;
+            for (int c : q[k]) {
+                total += c;
+            }
+            qTotals[k] = total;
+        }
+
+        Snapshot s = snapshot();
+        List<SequenceIndexer.StringAndDouble> hits = new ArrayList<>();
+        for (int i = s.firstAtLeast(lowerBound); i < s.entries.length && s.lengths[i] <= upperBound; i++) {
+            Entry e = s.entries[i];
+            if (e.packed.length < K || !e.hasAnyTag(mustHaveAtLeastOneTag)) {
+                continue;
+            }
+            int d = e.length - queryLength;
+            int fudge = (allowLongerTargets && d >= 0) ? d : 0;
+            int score = -1;
+            for (int k = 0; k < K; k++) {
+                int[] fp = e.packed[k];
+                if (fp == null) {
+                    score = -1;
+                    break;
+                }
+                int[] qk = q[k];
+                int shared = 0;
+                for (int p : fp) {
+                    shared += Math.min(p & MAX_COUNT, qk[p >>> COUNT_BITS]);
+                }
+                int more = e.totals[k] - shared;
+                int less = qTotals[k] - shared;
+                int maxKmerDistance = maxDistance * (k + 1);
+                if (more <= maxKmerDistance + fudge && less <= maxKmerDistance) {
+                    //must have at least one kmer in agreement
+                    if (shared > 0) {
+                        score = more + less;
+                    }
+                } else {
+                    score = -1;
+                    break;
+                }
+            }
+            if (score >= 0) {
+                hits.add(SequenceIndexer.StringAndDouble.from(e.id, score));
+            }
+        }
+        return hits;
+    }
+}
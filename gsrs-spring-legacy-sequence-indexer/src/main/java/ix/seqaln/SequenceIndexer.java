@@ -1,33 +1,42 @@
 package ix.seqaln;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import gov.nih.ncats.common.util.CachedSupplier;
+import gsrs.cache.GsrsCache;
 import lombok.extern.slf4j.Slf4j;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Element;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.IntField;
-import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.store.NoLockFactory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 
 import org.jcvi.jillion.align.pairwise.PairwiseSequenceAlignment;
-import org.jcvi.jillion.core.residue.Residue;
 import org.jcvi.jillion.core.residue.ResidueSequence;
 import org.jcvi.jillion.core.residue.aa.ProteinSequence;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
@@ -36,10 +45,16 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.apache.lucene.document.Field.Store.NO;
 import static org.apache.lucene.document.Field.Store.YES;
@@ -50,21 +65,11 @@ import static org.apache.lucene.document.Field.Store.YES;
  */
 @Slf4j
 public class SequenceIndexer {
-    static final String CACHE_NAME = SequenceIndexer.class.getName()+".Cache";
     static final Version LUCENE_VERSION = Version.LATEST;
 
-    CacheManager CACHE_MANAGER;
-
     static int DEFAULT_KMER_SIZE = 3;
 
 
-
-
-    CachedSupplier<Ehcache> CACHE = CachedSupplier.of(()->{
-        CACHE_MANAGER = CacheManager.getInstance();
-        return CACHE_MANAGER.addCacheIfAbsent(CACHE_NAME);
-    });
-
     public static enum CutoffType{
 //        LOCAL,
         GLOBAL,
@@ -81,6 +86,31 @@ public class SequenceIndexer {
     }
 
 
+    /**
+     * How candidates are aligned.
+     */
+    public static enum AlignmentStrategy{
+        /**
+         * Every candidate gets a full alignment.
+         */
+        JILLION,
+        /**
+         * For GLOBAL cutoffs, first check with a banded kernel whether
+         * the candidate could reach the cutoff at all. Protein candidates
+         * which can are aligned by the kernel too, only falling back to the full
+         * alignment when the best path might leave the band. This gives the same results.
+         */
+        BANDED;
+
+        public static AlignmentStrategy valueOfOrDefault(String s){
+            try{
+                return AlignmentStrategy.valueOf(s);
+            }catch(Exception e){
+                return JILLION;
+            }
+        }
+    }
+
     public static class SEG implements Comparable<SEG>, Serializable {
         /**
          * 
@@ -297,14 +327,43 @@ public class SequenceIndexer {
         }
     }
 
+    /**
+     * One page of the results of a search, sorted best first.
+     */
+    public static class ResultPage {
+        public final int total;
+        public final int skip;
+        public final List<Result> results;
+
+        public ResultPage (int total, int skip, List<Result> results) {
+            this.total = total;
+            this.skip = skip;
+            this.results = results;
+        }
+    }
+
+    //best score first, then by id so pages are stable
+    public static final Comparator<Result> BEST_FIRST = Comparator.<Result>comparingDouble(r -> r.score).reversed()
+            .thenComparing(r -> r.id, Comparator.nullsLast(Comparator.naturalOrder()));
+
     static final Result POISON_RESULT = new Result ();
+    //an alignment or search that threw an exception, on the results
+    //queue it means some candidates are missing from the results
+    static final Result FAILED_RESULT = new Result ();
 
     public static class ResultEnumeration implements Enumeration<Result> {
         final BlockingQueue<Result> queue;
         Result next;
+        private final Future<?> task;
+        private volatile boolean complete = true;
 
         ResultEnumeration (BlockingQueue<Result> queue) {
+            this (queue, null);
+        }
+
+        ResultEnumeration (BlockingQueue<Result> queue, Future<?> task) {
             this.queue = queue;
+            this.task = task;
             if(queue==null){
                 next=POISON_RESULT;
             }else{
@@ -315,9 +374,20 @@ public class SequenceIndexer {
         void next () {
             try {
                 next = queue.take();
+                while (next == FAILED_RESULT) {
+                    complete = false;
+                    next = queue.take();
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                cancel();
+                complete = false;
+                next = POISON_RESULT; // terminate
             }
             catch (Exception ex) {
                 log.error(ex.getMessage(), ex);
+                complete = false;
                 next = POISON_RESULT; // terminate
             }
         }           
@@ -326,6 +396,27 @@ public class SequenceIndexer {
             return next != POISON_RESULT;
         }
 
+        /**
+         * Whether the search looked at every candidate. It's false when
+         * the search or one of its alignments failed, or it was cancelled,
+         * so the results read so far may be missing hits.
+         * Stopping at the max results or time limit still counts as complete.
+         * Only final once {@link #hasMoreElements()} returns false.
+         */
+        public boolean isComplete () {
+            return complete;
+        }
+
+        /**
+         * Stop the search, including any alignments it's running.
+         * Results which were already found can still be read.
+         */
+        public void cancel () {
+            if (task != null && task.cancel(true)) {
+                complete = false;
+            }
+        }
+
         public Result nextElement () {
             if(!hasMoreElements()){
                 throw new NoSuchElementException();
@@ -340,20 +431,37 @@ public class SequenceIndexer {
 
     public static final String FIELD_KMER = "_KMER";
     public static final String FIELD_ID = "_ID";
+    /**
+     * The stored sequence, only in indexes written before
+     * the sequence was kept as {@link #FIELD_SEQ_DV} doc values.
+     */
     public static final String FIELD_SEQ = "_SEQ";
+    /**
+     * The sequence as a UTF-8 binary doc value, so candidate sequences can be
+     * read for a whole segment without loading stored documents. This is the only
+     * copy of the sequence, indexes written before this was added only have {@link #FIELD_SEQ}.
+     */
+    public static final String FIELD_SEQ_DV = "_SEQ_DV";
     public static final String FIELD_FP = "_FP";
     public static final String FIELD_FP_K = "_FP_K";
    
     public static final String FIELD_TAGS = "_TAG";
     public static final String FIELD_SOURCE = "_SOURCE";
     public static final String FIELD_LENGTH = "_LENGTH";
+    /**
+     * Only in kmer indexes written before the kmers of a sequence
+     * were put in one document with their positions.
+     */
     public static final String FIELD_POSITION = "_POSITION";
     public static final String FIELD_TEXT = "text";
     
     //public static final String FIELD_FP_1MER = "_FP1";
 
+    private static final char GAP = '-';
+
 
     private boolean useFingerprints=true;
+    private AlignmentStrategy alignmentStrategy = AlignmentStrategy.JILLION;
 
     private File baseDir;
     private Directory indexDir;
@@ -366,11 +474,27 @@ public class SequenceIndexer {
 
     private ExecutorService threadPool;
     private boolean localThreadPool = false;
+    private SequenceAlignmentExecutor alignmentExecutor;
+    private boolean localAlignmentExecutor = false;
     private SearcherManager kmerSearchManager;
     private SearcherManager seqSearchManager;
 
     private AtomicLong lastModified = new AtomicLong (0);
 
+    //every fingerprint kept in memory so similarity searches don't have to decode them from the index
+    private final SequenceFingerprintStore fingerprints = new SequenceFingerprintStore();
+
+    //sorted results of recent searches, see searchPage()
+    private final SequenceResultCache resultCache = new SequenceResultCache(100);
+
+    //group commit, see beginBatch()
+    private volatile boolean batchMode = false;
+    private int commitBatchSize = 1000;
+    private long commitIntervalMillis = TimeUnit.SECONDS.toMillis(10);
+    private final AtomicInteger uncommitted = new AtomicInteger();
+    private final AtomicLong lastCommit = new AtomicLong (System.currentTimeMillis());
+    private final Object commitLock = new Object();
+
     private int kmerSize = DEFAULT_KMER_SIZE;
 
     private int proteinKmer = DEFAULT_KMER_SIZE;
@@ -384,6 +508,22 @@ public class SequenceIndexer {
         this.nucleicKmer = nucleicKmer;
     }
 
+    /**
+     * The number of sequences added in batch mode
+     * before the index is committed.
+     */
+    public void setCommitBatchSize(int commitBatchSize) {
+        this.commitBatchSize = commitBatchSize;
+    }
+
+    /**
+     * The longest time in batch mode before added sequences
+     * are committed, as long as more sequences keep being added.
+     */
+    public void setCommitIntervalMillis(long commitIntervalMillis) {
+        this.commitIntervalMillis = commitIntervalMillis;
+    }
+
     public static SequenceIndexer openReadOnly (File dir) throws IOException {
         return new SequenceIndexer (dir, true);
     }
@@ -394,7 +534,11 @@ public class SequenceIndexer {
 
 
     private SequenceIndexer (File dir, boolean readOnly) throws IOException {
-        this (dir, readOnly, ForkJoinPool.commonPool());
+        this (dir, readOnly, Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "sequence-search");
+            t.setDaemon(true);
+            return t;
+        }));
         localThreadPool = true;
     }
 
@@ -435,6 +579,11 @@ public class SequenceIndexer {
             seqSearchManager = new SearcherManager (indexDir, null);
         }
 
+        fingerprints.load(_indexReader);
+        if (!readOnly && MultiFields.getTerms(_kmerReader, FIELD_POSITION) != null) {
+            rebuildKmerIndex();
+        }
+
         this.baseDir = dir;
         this.threadPool = threadPool;
     }
@@ -443,6 +592,26 @@ public class SequenceIndexer {
         return kmerSize;
     }
 
+    /**
+     * Use this executor for the alignments of every search.
+     * It isn't shut down with this indexer.
+     */
+    public synchronized void setAlignmentExecutor(SequenceAlignmentExecutor alignmentExecutor) {
+        if (localAlignmentExecutor) {
+            this.alignmentExecutor.close();
+            localAlignmentExecutor = false;
+        }
+        this.alignmentExecutor = alignmentExecutor;
+    }
+
+    public synchronized SequenceAlignmentExecutor getAlignmentExecutor() {
+        if (alignmentExecutor == null) {
+            alignmentExecutor = SequenceAlignmentExecutor.createDefault();
+            localAlignmentExecutor = true;
+        }
+        return alignmentExecutor;
+    }
+
     public void setKmerSize(int kmerSize) {
         this.kmerSize = kmerSize;
     }
@@ -499,6 +668,11 @@ public class SequenceIndexer {
         if (localThreadPool) {
             threadPool.shutdownNow();
         }
+        synchronized (this) {
+            if (localAlignmentExecutor) {
+                alignmentExecutor.close();
+            }
+        }
 
 
     }
@@ -507,13 +681,15 @@ public class SequenceIndexer {
         Objects.requireNonNull(id);
         indexWriter.deleteDocuments(new Term (FIELD_ID, id));
         kmerWriter.deleteDocuments(new Term (FIELD_ID, id));
-        removeSeqFromCache(id);
+        fingerprints.remove(id);
+        touch();
     }
 
     public void removeAll() throws IOException {
         indexWriter.deleteAll();
         kmerWriter.deleteAll();
-        CACHE.get().removeAll();
+        fingerprints.clear();
+        touch();
     }
 
 
@@ -556,6 +732,7 @@ public class SequenceIndexer {
     }
 
 
+    private static final Set<String> ID_FIELDS = Collections.singleton(FIELD_ID);
     private static final List<String> DNA_TAGS = Arrays.asList("DNA");
     private static final List<String> RNA_TAGS = Arrays.asList("RNA");
     private static final List<String> PROTEIN_TAGS = Arrays.asList("PROTEIN");
@@ -586,74 +763,322 @@ public class SequenceIndexer {
         }
         return DEFAULT_KMER_SIZE;
     }
+    /**
+     * A sequence to add with {@link #addAll(Stream)}.
+     */
+    public static class SequenceEntry {
+        public final String id;
+        public final String seq;
+        public final List<String> tags;
+
+        public SequenceEntry(String id, String seq, List<String> tags) {
+            this.id = Objects.requireNonNull(id);
+            this.seq = Objects.requireNonNull(seq);
+            this.tags = tags;
+        }
+
+        public static SequenceEntry of(String id, NucleotideSequence seq) {
+            return new SequenceEntry(id, seq.toString(), seq.isDna()? DNA_TAGS: RNA_TAGS);
+        }
+
+        public static SequenceEntry of(String id, ProteinSequence seq) {
+            return new SequenceEntry(id, seq.toString(), PROTEIN_TAGS);
+        }
+
+        public static SequenceEntry of(String id, String seq) {
+            return new SequenceEntry(id, seq, Collections.emptyList());
+        }
+    }
+
     public void add (String id, String seq, List<String> tags) throws IOException {
         if (indexWriter == null)
             throw new RuntimeException ("Index is read-only!");
 
         try {
-            Document doc = new Document ();
-            int myKmerSize = getKmerSizeFor(tags);
-            
-            KmerFingerprintWrapper kwrap = KmerFingerprintWrapper.create(id, seq, myKmerSize);
-            Kmers kmers = Kmers.create(seq, myKmerSize);
-            StringBuilder ks = new StringBuilder();
-            
-            for(int i=1;i<=myKmerSize;i++){
-            	if(i>1)ks.append(",");
-            	ks.append(i);
-            	doc.add(new StringField (FIELD_FP +"_" + i, kwrap.kmap.get(i).encode(),YES));	
+            writeDocuments(id, seq, tags);
+            uncommitted.incrementAndGet();
+            if (batchMode) {
+                commitIfDue();
+            } else {
+                commit();
             }
-            doc.add(new StringField (FIELD_FP_K, ks.toString(),YES));
-            
+        }
+        finally {
+            touch();
+        }
+    }
 
-            StringField idf = new StringField (FIELD_ID, id, YES);
+    /**
+     * Add many sequences committing only every {@link #setCommitBatchSize(int)}
+     * sequences and once at the end instead of after each one.
+     * Building the documents is most of the work so a parallel stream
+     * can be passed in.
+     *
+     * @return the number of sequences added.
+     */
+    public long addAll (Stream<SequenceEntry> sequences) throws IOException {
+        if (indexWriter == null)
+            throw new RuntimeException ("Index is read-only!");
 
+        LongAdder count = new LongAdder();
+        try {
+            sequences.forEach(e -> {
+                try {
+                    writeDocuments(e.id, e.seq, e.tags);
+                    count.increment();
+                    uncommitted.incrementAndGet();
+                    commitIfDue();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            touch();
+        }
+        return count.sum();
+    }
+
+    /**
+     * Start batch mode, sequences that are added after this aren't committed
+     * one at a time but every {@link #setCommitBatchSize(int)} sequences
+     * or {@link #setCommitIntervalMillis(long)}, whichever comes first.
+     * Searches still see them right away since they read from the writers.
+     * Used while reindexing.
+     */
+    public void beginBatch () {
+        batchMode = true;
+    }
 
-            doc.add(idf);
-            doc.add(new IntField (FIELD_LENGTH, seq.length(), YES));
-            doc.add(new StoredField (FIELD_SEQ, seq.toString())); //why toString?
-            
-            
-            
-           // doc.add(new StringField (FIELD_FP_1MER, onemers.holoFingerPrint().encode(),YES));
+    /**
+     * Leave batch mode and commit anything still pending.
+     */
+    public void endBatch () throws IOException {
+        batchMode = false;
+        commit();
+    }
 
+    public boolean isInBatchMode () {
+        return batchMode;
+    }
 
+    private void commitIfDue () throws IOException {
+        if (uncommitted.get() >= commitBatchSize
+                || System.currentTimeMillis() - lastCommit.get() >= commitIntervalMillis) {
+            commit();
+        }
+    }
 
-            for(String tag: tags){
-                doc.add(new StringField (FIELD_TAGS,tag,NO));
+    private void commit () throws IOException {
+        synchronized (commitLock) {
+            //another thread may have committed ours already
+            int pending = uncommitted.get();
+            if (pending == 0) {
+                return;
             }
-            indexWriter.addDocument(doc);
-            // indexWriter.updateDocument(new Term (FIELD_ID, id), doc);
-
-
-            for (String kmer : kmers.kmers()) {
-                BitSet positions = kmers.positions(kmer);
-                StringField kmerf = new StringField (FIELD_KMER, kmer, YES);
-                Document doc2 = new Document ();
-                doc2.add(idf);
-                doc2.add(kmerf);
-                for(String tag: tags){
-                    doc2.add(new StringField (FIELD_TAGS,tag,NO));
+            indexWriter.commit();
+            kmerWriter.commit();
+            //only once both committed, if either failed the next commit tries again
+            uncommitted.addAndGet(-pending);
+            lastCommit.set(System.currentTimeMillis());
+        }
+    }
+
+    private void writeDocuments (String id, String seq, List<String> tags) throws IOException {
+        Document doc = new Document ();
+        int myKmerSize = getKmerSizeFor(tags);
+
+        KmerFingerprintWrapper kwrap = KmerFingerprintWrapper.create(id, seq, myKmerSize);
+        StringBuilder ks = new StringBuilder();
+
+        for(int i=1;i<=myKmerSize;i++){
+            if(i>1)ks.append(",");
+            ks.append(i);
+            doc.add(new StringField (FIELD_FP +"_" + i, kwrap.kmap.get(i).encode(),YES));
+        }
+        doc.add(new StringField (FIELD_FP_K, ks.toString(),YES));
+
+
+        StringField idf = new StringField (FIELD_ID, id, YES);
+
+
+        doc.add(idf);
+        doc.add(new IntField (FIELD_LENGTH, seq.length(), YES));
+        doc.add(new BinaryDocValuesField(FIELD_SEQ_DV, new BytesRef(seq)));
+
+
+
+       // doc.add(new StringField (FIELD_FP_1MER, onemers.holoFingerPrint().encode(),YES));
+
+
+
+        for(String tag: tags){
+            doc.add(new StringField (FIELD_TAGS,tag,NO));
+        }
+        indexWriter.addDocument(doc);
+        // indexWriter.updateDocument(new Term (FIELD_ID, id), doc);
+        fingerprints.add(id, seq.length(), tags, kwrap);
+
+
+        kmerWriter.addDocument(createKmerDocument(id, seq, myKmerSize, tags));
+       // allKmers.add(KmerTest.of(id,kmers));
+    }
+
+    private static final FieldType KMER_FIELD_TYPE = new FieldType();
+    static {
+        KMER_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        KMER_FIELD_TYPE.setTokenized(true);
+        KMER_FIELD_TYPE.setOmitNorms(true);
+        KMER_FIELD_TYPE.freeze();
+    }
+
+    /**
+     * One document per sequence holding every kmer, the position of
+     * each kmer is its offset in the sequence.
+     */
+    private static Document createKmerDocument (String id, String seq, int kmerSize, List<String> tags) {
+        Document doc = new Document ();
+        doc.add(new StringField (FIELD_ID, id, YES));
+        doc.add(new Field (FIELD_KMER, new KmerTokenStream(seq, kmerSize), KMER_FIELD_TYPE));
+        for(String tag: tags){
+            doc.add(new StringField (FIELD_TAGS,tag,NO));
+        }
+        return doc;
+    }
+
+    /**
+     * Replace a kmer index written with one document per kmer
+     * with one document per sequence, from the indexed sequences.
+     */
+    private void rebuildKmerIndex () throws IOException {
+        log.info("rebuilding the kmer index of " + baseDir);
+        kmerWriter.deleteAll();
+        Map<Integer, List<String>> tagsByDoc = readTagsByDoc(_indexReader);
+        for (LeafReaderContext ctx : _indexReader.leaves()) {
+            LeafReader leaf = ctx.reader();
+            Bits liveDocs = leaf.getLiveDocs();
+            BinaryDocValues values = leaf.getBinaryDocValues(FIELD_SEQ_DV);
+            Bits hasValue = values == null ? null : leaf.getDocsWithField(FIELD_SEQ_DV);
+            for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
                 }
-                for (int i = positions.nextSetBit(0);
-                        i>=0; i = positions.nextSetBit(i+1)) {
-                    doc2.add(new IntField (FIELD_POSITION, i, YES));
-                  
+                Document d = leaf.document(doc);
+                String id = d.get(FIELD_ID);
+                String seq = readSeq(leaf, values, hasValue, doc);
+                String ks = d.get(FIELD_FP_K);
+                if (id == null || seq == null) {
+                    continue;
                 }
-                kmerWriter.addDocument(doc2);
+                List<String> tags = tagsByDoc.getOrDefault(ctx.docBase + doc, Collections.emptyList());
+                //the kmer size used when it was indexed
+                int myKmerSize = ks == null ? getKmerSizeFor(tags) : ks.split(",").length;
+                kmerWriter.addDocument(createKmerDocument(id, seq, myKmerSize, tags));
             }
-           // allKmers.add(KmerTest.of(id,kmers));
-            indexWriter.commit();
-            kmerWriter.commit();
         }
-        finally {
-            lastModified.set(System.currentTimeMillis());
+        kmerWriter.commit();
+    }
+
+    /**
+     * @return the sequence of a document from its {@link #FIELD_SEQ_DV} doc value,
+     * or from the stored {@link #FIELD_SEQ} of older indexes.
+     */
+    private static String readSeq (LeafReader leaf, BinaryDocValues values, Bits hasValue, int doc) throws IOException {
+        if (hasValue != null && hasValue.get(doc)) {
+            return values.get(doc).utf8ToString();
         }
+        return leaf.document(doc).get(FIELD_SEQ);
+    }
+
+    /**
+     * Tags aren't stored so find them by looking up each indexed tag.
+     * @return the tags of each doc, by top level doc id.
+     */
+    static Map<Integer, List<String>> readTagsByDoc (IndexReader reader) throws IOException {
+        Map<Integer, List<String>> tagsByDoc = new HashMap<>();
+        Terms terms = MultiFields.getTerms(reader, FIELD_TAGS);
+        if (terms == null) {
+            return tagsByDoc;
+        }
+        IndexSearcher searcher = new IndexSearcher(reader);
+        int maxDoc = Math.max(1, reader.maxDoc());
+        TermsEnum te = terms.iterator();
+        BytesRef br;
+        while ((br = te.next()) != null) {
+            String tag = br.utf8ToString();
+            for (ScoreDoc sd : searcher.search(new TermQuery(new Term(FIELD_TAGS, tag)), maxDoc).scoreDocs) {
+                tagsByDoc.computeIfAbsent(sd.doc, d -> new ArrayList<>(2)).add(tag);
+            }
+        }
+        return tagsByDoc;
     }
 
 
     public long lastModified () { return lastModified.get(); }
 
+    //always moves forward so changes in the same millisecond still look like a change
+    private void touch () {
+        lastModified.updateAndGet(old -> Math.max(old + 1, System.currentTimeMillis()));
+    }
+
+    /**
+     * How many searches {@link #searchPage} keeps the results of, 0 turns the cache off.
+     */
+    public void setResultCacheSize (int size) {
+        resultCache.setMaxSize(size);
+    }
+
+    public int getResultCacheSize () {
+        return resultCache.getMaxSize();
+    }
+
+    /**
+     * Hits, misses and search times of the search results cache.
+     */
+    public GsrsCache.CacheStatistics getResultCacheStatistics () {
+        return resultCache.getStatistics();
+    }
+
+    /**
+     * Every result of a search sorted by score, best first.
+     * The results of recent searches are kept until the index changes,
+     * so asking for the same search again doesn't align anything.
+     *
+     * @return the results, which must not be modified.
+     */
+    public List<Result> searchSorted (String query, double identity, int gap, CutoffType rt, String seqType) {
+        if (query == null || query.length() == 0) {
+            return Collections.emptyList();
+        }
+        String key = SequenceResultCache.key(query, seqType, identity, gap, rt);
+        //read before searching so a change during the search makes the entry stale
+        long modified = lastModified();
+        return resultCache.getOrSearch(key, modified, () -> {
+            List<Result> results = new ArrayList<>();
+            ResultEnumeration en = search(query, identity, gap, rt, seqType);
+            while (en.hasMoreElements()) {
+                results.add(en.nextElement());
+            }
+            results.sort(BEST_FIRST);
+            return new SequenceResultCache.Searched(results, en.isComplete());
+        });
+    }
+
+    /**
+     * A page of {@link #searchSorted}.
+     * @param skip how many of the best results to skip.
+     * @param top the most results in the page.
+     */
+    public ResultPage searchPage (String query, double identity, int gap, CutoffType rt, String seqType,
+                                  int skip, int top) {
+        List<Result> all = searchSorted(query, identity, gap, rt, seqType);
+        int from = Math.min(Math.max(0, skip), all.size());
+        int to = (int) Math.min((long) from + Math.max(0, top), all.size());
+        return new ResultPage(all.size(), from, all.subList(from, to));
+    }
+
 
     public ResultEnumeration search(String query, double identity, CutoffType rt, String seqType) {
         return search (query, identity, 1,rt, seqType);
@@ -661,35 +1086,64 @@ public class SequenceIndexer {
 
     public ResultEnumeration search (final String query,
             final double identity, final int gap,CutoffType rt, String seqType) {
+        return search (query, identity, gap, rt, seqType, 0, 0);
+    }
+
+    /**
+     * Search returning at most maxResults results, and only the ones found
+     * within timeoutMillis. Candidates are aligned in the order of their
+     * fingerprint score and each result is available as soon as its
+     * alignment is done, so these are the first hits found among
+     * the best candidates rather than the best of all possible hits.
+     *
+     * @param maxResults the most results to return, 0 or less for no limit.
+     * @param timeoutMillis how long to look for results, 0 or less for no limit.
+     */
+    public ResultEnumeration search (final String query,
+            final double identity, final int gap,CutoffType rt, String seqType,
+            int maxResults, long timeoutMillis) {
         if (getSize()<=0 || query == null || query.length() == 0) {
             return new ResultEnumeration(null);
         }
         final BlockingQueue<Result> out = new LinkedBlockingQueue<Result>();
-        threadPool.submit(()->{
+        final long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+        Future<?> task = threadPool.submit(()->{
             //TODO katzelda turn off stopwatch for now
 //            ix.core.util.StopWatch.timeElapsed(()->{
+                boolean complete = false;
                 try {
-                    search (out, query, identity, gap, rt, seqType);
+                    search (out, query, identity, gap, rt, seqType, maxResults, deadline);
+                    //a cancelled search can stop early without throwing
+                    complete = !Thread.currentThread().isInterrupted();
+                }catch (InterruptedException ex) {
+                    log.debug("sequence search cancelled");
                 }catch (Exception ex) {
 
                     log.warn("trouble searching sequence", ex);
                 }finally{
-                    try {
-                        out.put(POISON_RESULT);// finish
-                    }catch (InterruptedException e) {
-                        log.error(e.getMessage(), e);
-                    } 
+                    //offer since the queue is unbounded and put would fail if cancelled
+                    if (!complete) {
+                        out.offer(FAILED_RESULT);
+                    }
+                    out.offer(POISON_RESULT);// finish
                 }
 //            });
 
         });
 
-        return new ResultEnumeration (out);
+        return new ResultEnumeration (out, task);
     }
 
     protected void search (BlockingQueue<Result> results,
             String query, double identity, int gap,CutoffType rt, String seqType)
                     throws Exception {
+        search (results, query, identity, gap, rt, seqType, 0, 0);
+    }
+
+    protected void search (BlockingQueue<Result> results,
+            String query, double identity, int gap,CutoffType rt, String seqType,
+            int maxResults, long deadline)
+                    throws Exception {
 
         /*
          * this can be expensive if we call search often. having a daemon
@@ -699,13 +1153,21 @@ public class SequenceIndexer {
         kmerSearchManager.maybeRefresh();
         IndexSearcher searcher = kmerSearchManager.acquire();
         try {
-            search (searcher, results, query, identity, gap, rt, seqType);
+            search (searcher, results, query, identity, gap, rt, seqType, maxResults, deadline);
         }finally {
             kmerSearchManager.release(searcher);
         }
         searcher = null;
     }
 
+    public AlignmentStrategy getAlignmentStrategy(){
+        return alignmentStrategy;
+    }
+
+    public void setAlignmentStrategy(AlignmentStrategy alignmentStrategy){
+        this.alignmentStrategy = Objects.requireNonNull(alignmentStrategy);
+    }
+
     public boolean getUseFingerprint(){
     	return this.useFingerprints;
     }
@@ -761,6 +1223,18 @@ public class SequenceIndexer {
             BlockingQueue<Result> results,
             String query, double identityStart, int gap, CutoffType rt, String seqType)
                     throws Exception {
+        search (kmerSearcher, results, query, identityStart, gap, rt, seqType, 0, 0);
+    }
+
+    /**
+     * @param maxResults the most results to put on the queue, 0 or less for no limit.
+     * @param deadline the time in millis to stop aligning, 0 or less for no limit.
+     */
+    protected void search (IndexSearcher kmerSearcher,
+            BlockingQueue<Result> results,
+            String query, double identityStart, int gap, CutoffType rt, String seqType,
+            int maxResults, long deadline)
+                    throws Exception {
 
     	
         final int K = getKmerSizeForType(seqType);
@@ -804,240 +1278,68 @@ public class SequenceIndexer {
         		}
         		
 
-        		List<KmerFingerprintWrapper> res = getFPSequencesWithBounds(lowerBoundLength,upperBoundLength,tags);
-        		for(KmerFingerprintWrapper tup: res){
-        			StringAndDouble score = null;
-        			int d=tup.length-query.length();
-        			int fudge=0;
-        			if(d>=0 && rt== CutoffType.SUB){
-        				fudge=d;
-        			}
-        			for(int i=1;i<=K;i++){
-        				Kmers.HoloFingerprint kqi=qwrap.kmap.get(i);
-                		int maxKmerDistance = maxDistance*(i);
-       				
-            			int[] hammingKd=tup.kmap.get(i).hammingMoreAndLessDistanceTo(kqi);
-            			if((hammingKd[0] <= maxKmerDistance + fudge && 
-            			    hammingKd[1] <= maxKmerDistance  )){
-            				//must have at least one kmer in agreement
-            				if(tup.kmap.get(i).sharedCount(kqi)>0){
-            					score = StringAndDouble.from(tup.id,hammingKd[0]+hammingKd[1]);
-            				}
-            			}else{
-            				score=null;
-            				break;
-            			}
-        			}
-        			if(score!=null){
-        				seqMap.computeIfAbsent(score, k->getSeq(k.s));
-        			}
-        		}
+        		List<StringAndDouble> res = fingerprints.search(qwrap, K, query.length(),
+        				lowerBoundLength, upperBoundLength, tags, maxDistance, rt== CutoffType.SUB);
+        		putSequences(seqMap, res);
         }else{
 
-            int ndocs = Math.max(1, kmerSearcher.getIndexReader().numDocs());
         	//Use only for local alignment
-	        for (Map.Entry<String, BitSet> entry : kmers.positionEntrySet()) {
-	            if(Thread.currentThread().isInterrupted()){
-	                return;
-	            }
-	            String kmer = entry.getKey();
-	            TermQuery tq = new TermQuery (new Term (FIELD_KMER, kmer));
-	            Query fullQ=tq;
-            	
-            	if(!tags.isEmpty()){
-            		BooleanQuery bq=new BooleanQuery();
-            		bq.setMinimumNumberShouldMatch(1);
-            		for(String tag: tags){
-                		bq.add(new TermQuery (new Term (FIELD_TAGS, tag)),Occur.SHOULD);
-                	}
-            		BooleanQuery fq=new BooleanQuery();
-            		fq.add(fullQ,Occur.MUST);
-            		fq.add(bq,Occur.MUST);
-            		fullQ=fq;
-            	}
-	            
-	            TopDocs docs = kmerSearcher.search(fullQ, ndocs);
-		            //BitSet positions = entry.getValue();
-	
-	            for (int i = 0; i < docs.totalHits; ++i) {
-	                Document doc = kmerSearcher.doc(docs.scoreDocs[i].doc);
-	                final String id = doc.get(FIELD_ID);
-
-	                StringAndDouble sd = StringAndDouble.from(id, 0);
-		                seqMap.computeIfAbsent(sd, k->getSeq(k.s));
-		            }
+            Set<String> seen = new HashSet<>();
+            List<StringAndDouble> res = new ArrayList<>();
+            for (KmerSeedCollector.Seed seed : KmerSeedCollector.collect(kmerSearcher.getIndexReader(), kmers, tags)) {
+                if(Thread.currentThread().isInterrupted()){
+                    return;
+                }
+                String id = kmerSearcher.doc(seed.doc, ID_FIELDS).get(FIELD_ID);
+                if (id != null && seen.add(id)) {
+                    //more kmers on the best diagonal sorts first
+                    res.add(StringAndDouble.from(id, -seed.score));
+                }
             }
+            putSequences(seqMap, res);
         }
 
         SequenceAlignmentHelper alignmentHelper = SequenceAlignmentHelper.createFor(seqType);
 
         ResidueSequence querySeq = alignmentHelper.toSequence(query);
+        byte[] queryResidues = (alignmentStrategy == AlignmentStrategy.BANDED && rt == CutoffType.GLOBAL)
+                ? alignmentHelper.toResidues(query) : null;
         
         Map<String,Result> _cachedResults = new ConcurrentHashMap<>();
         int qlength=query.length();
 
-        List<Result> alignedResults = seqMap.entrySet()
-                .parallelStream()
-                .filter(e->{
-                            if(rt!= CutoffType.GLOBAL){
-                                return true;
-                            }
-                    //Don't bother doing the alignment if it's a global cutoff and the lengths
-                    //of the strings would make it impossible for there to be overlap
-                    int tlength= e.getValue().length();
-                    return Math.min(qlength, tlength) >= Math.max(qlength, tlength)*identity;
-                } )
-              .map(entry-> {
-
-                      String tseq = entry.getValue();
-                      //this is a computationally intensive operation
-                      //and concurrentHashMap will block
-
-                      Result cachedResult= _cachedResults.computeIfAbsent(tseq, k -> {
-                          Result r = new Result(entry.getKey().s, querySeq.toString(), tseq);
-                          r.setScore(-1, rt);
-                                  try {
-
-                                      ResidueSequence targetSeq;
-                                      try {
-                                          targetSeq = alignmentHelper.toSequence(entry.getValue());
-                                      } catch (Exception e) {
-                                          //prob a bad seq
-
-                                          log.warn("trouble performing alignment for sequence", e);
-                                          return r;
-                                      }
-                                      PairwiseSequenceAlignment alignment = alignmentHelper.align(querySeq, targetSeq, gap, rt);
-
-                                      
-                                      r.setScore(alignment.getPercentIdentity(), rt);
-
-                                      if (r.score >= identity) {
-
-                                          ResidueSequence gappedQuery = alignment.getGappedQueryAlignment();
-                                          ResidueSequence gappedSubject = alignment.getGappedSubjectAlignment();
-                                          BitSet qbits = new BitSet((int) querySeq.getLength());
-                                          BitSet tbits = new BitSet((int) targetSeq.getLength());
-
-                                          int qOffset = (int) alignment.getQueryRange().getBegin();
-                                          int tOffset = (int) alignment.getSubjectRange().getBegin();
-                                          Iterator<Residue> qIter = gappedQuery.iterator();
-                                          Iterator<Residue> sIter = gappedSubject.iterator();
-                                          int qGaps = 0, sGaps = 0;
-                                          int currentOffset = 0;
-                                          StringBuilder fullBuilder = new StringBuilder(4 * alignment.getAlignmentLength());
-
-                                          StringBuilder topBuilder = new StringBuilder(100);
-                                          StringBuilder middleBuilder = new StringBuilder(100);
-                                          StringBuilder bottomBuilder = new StringBuilder(100);
-
-                                          int len =query.length();
-                                          int matched = 0;
-
-                                          int count=0;
-                                          boolean hasDataOnCurrentLine=false;
-                                          if(qIter.hasNext()){
-                                              topBuilder.append(   String.format("Query  %5d  ",qOffset + currentOffset +1));
-                                              middleBuilder.append("              ");
-                                              bottomBuilder.append(String.format("Sbjct  %5d  ",tOffset + currentOffset +1));
-
-                                          }
-                                          while (qIter.hasNext()) {
-                                              hasDataOnCurrentLine = true;
-                                              Residue q = qIter.next();
-                                              Residue s = sIter.next();
-                                              if (q.isGap()) {
-                                                  qGaps++;
-                                                  if(matched>0){
-                                                	  len++;
-                                                  }
-                                                  middleBuilder.append(' ');
-                                              } else if (s.isGap()) {
-                                                  sGaps++;
-                                                  middleBuilder.append(' ');
-                                              } else if (q.equals(s)) {
-                                                  qbits.set(qOffset + currentOffset - qGaps);
-                                                  tbits.set(tOffset + currentOffset - sGaps);
-
-                                                  middleBuilder.append('|');
-                                                  matched++;
-                                              } else {
-                                                  middleBuilder.append(' ');
-                                              }
-                                              topBuilder.append(q.getCharacter());
-                                              bottomBuilder.append(s.getCharacter());
-                                              count++;
-                                              if(count % 80 ==0){
-                                                  topBuilder.append(   String.format("  %5d  \n",qOffset + currentOffset - qGaps +1));
-                                                  middleBuilder.append("\n");
-                                                  bottomBuilder.append(String.format("  %5d  \n",tOffset + currentOffset - sGaps +1));
-
-                                                  fullBuilder.append(topBuilder).append(middleBuilder).append(bottomBuilder);
-                                                  topBuilder.setLength(0);
-                                                  middleBuilder.setLength(0);
-                                                  bottomBuilder.setLength(0);
-                                                  //check for next line
-                                                  if(qIter.hasNext()){
-                                                      //more data
-                                                      topBuilder.append(   String.format("Query  %5d  ",qOffset + currentOffset -qGaps +2));
-                                                      middleBuilder.append("              ");
-                                                      bottomBuilder.append(String.format("Sbjct  %5d  ",tOffset + currentOffset -sGaps +2));
-                                                  }else{
-                                                      hasDataOnCurrentLine = false;
-                                                  }
-                                              }
-                                              currentOffset++;
-
-                                          }
-                                          if(hasDataOnCurrentLine){
-                                                //end of last line of something
-                                              //current offset is already at +1 so we don't need a +1 for the end of the line
-                                              topBuilder.append(   String.format("  %5d  \n",qOffset + currentOffset -qGaps));
-                                              middleBuilder.append("\n");
-                                              bottomBuilder.append(String.format("  %5d  \n",tOffset + currentOffset -sGaps));
-                                              fullBuilder.append(topBuilder).append(middleBuilder).append(bottomBuilder);
-                                          }
-
-
-
-
-                                          Alignment aln = new Alignment(null, query, entry.getValue(),
-
-                                                    fullBuilder.toString(),
-
-                                                  matched, matched / (double) query.length(),
-                                                  alignment.getPercentIdentity(),
-                                                  matched / (double) query.length(), qbits, tbits);
-
-
-                                          r.alignments.add(aln);
-                                          if (rt == CutoffType.SUB) {
-                                        	  double dd=matched / (double) len;
-                                        	  r.setScore(dd, rt);
-                                          }
-                                      }
-                                  } catch (Exception e) {
-
-                                      log.warn("trouble calculating alignment score", e);
-                                      r.setScore(-1, rt);
-
-                                  }
-                          return r;
-                              });
-                      //we have to make a copy with the  correct ID of the substance we are aligning
-                  //but we can re-use the alignments
-
-
-	              		return cachedResult.copyWithNewId(entry.getKey().s);
-
-                      }
-
-              )
-                      .filter(result -> result.score>=identity)
-
-                      .collect(Collectors.toList());
-        for(Result r : alignedResults) {
-            results.put(r);
+        Predicate<Map.Entry<StringAndDouble, String>> couldMatch = e->{
+            if(e.getValue()==null){
+                return false;
+            }
+            if(rt!= CutoffType.GLOBAL){
+                return true;
+            }
+            //Don't bother doing the alignment if it's a global cutoff and the lengths
+            //of the strings would make it impossible for there to be overlap
+            int tlength= e.getValue().length();
+            return Math.min(qlength, tlength) >= Math.max(qlength, tlength)*identity;
+        };
+        Function<Map.Entry<StringAndDouble, String>, Result> aligner = entry-> {
+            String tseq = entry.getValue();
+            //this is a computationally intensive operation
+            //and concurrentHashMap will block
+            Result cachedResult= _cachedResults.computeIfAbsent(tseq, k ->
+                    alignTarget(entry.getKey().s, query, querySeq, queryResidues, tseq, alignmentHelper, gap, rt, identity));
+            //we have to make a copy with the  correct ID of the substance we are aligning
+            //but we can re-use the alignments
+            return cachedResult.copyWithNewId(entry.getKey().s);
+        };
+
+        if(maxResults <= 0 && deadline <= 0){
+            alignAll(results, seqMap.entrySet().stream().filter(couldMatch).iterator(),
+                    aligner, identity);
+        }else{
+            alignUntilLimit(results, seqMap.entrySet().stream().filter(couldMatch).iterator(),
+                    aligner, identity, maxResults, deadline);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("sequence alignments so far: " + getAlignmentExecutor().getStats());
         }
 
                   //Sub alignment score
@@ -1061,6 +1363,286 @@ public class SequenceIndexer {
 
     }
 
+    /**
+     * Align every candidate, a few at a time on the alignment executor,
+     * putting the hits on the queue in the same order as the candidates.
+     */
+    private void alignAll (BlockingQueue<Result> results,
+            Iterator<Map.Entry<StringAndDouble, String>> candidates,
+            Function<Map.Entry<StringAndDouble, String>, Result> aligner,
+            double identity) throws InterruptedException {
+        SequenceAlignmentExecutor executor = getAlignmentExecutor();
+        Deque<Future<Result>> window = new ArrayDeque<>();
+        try {
+            while (candidates.hasNext() || !window.isEmpty()) {
+                while (window.size() < executor.getSearchParallelism() && candidates.hasNext()) {
+                    Map.Entry<StringAndDouble, String> candidate = candidates.next();
+                    window.add(executor.submit(() -> aligner.apply(candidate)));
+                }
+                try {
+                    Result r = window.poll().get();
+                    if (r.score >= identity) {
+                        results.put(r);
+                    }
+                } catch (ExecutionException e) {
+                    log.warn("trouble calculating alignment score", e.getCause());
+                    results.put(FAILED_RESULT);
+                }
+            }
+        } finally {
+            //only left over if this search was cancelled
+            cancelAll(executor, window);
+        }
+    }
+
+    /**
+     * Align candidates in the order given, best fingerprint score first,
+     * putting each hit on the queue as soon as its alignment is done.
+     * Only a few alignments run at a time so nothing more is aligned
+     * once enough hits are found or the time is up.
+     *
+     * @param maxResults stop after this many hits, 0 or less for no limit.
+     * @param deadline stop at this time in millis, 0 or less for no limit.
+     */
+    private void alignUntilLimit (BlockingQueue<Result> results,
+            Iterator<Map.Entry<StringAndDouble, String>> candidates,
+            Function<Map.Entry<StringAndDouble, String>, Result> aligner,
+            double identity, int maxResults, long deadline) throws InterruptedException {
+        SequenceAlignmentExecutor executor = getAlignmentExecutor();
+        BlockingQueue<Result> completed = new LinkedBlockingQueue<>();
+        List<Future<?>> submitted = new ArrayList<>();
+        int running = 0;
+        int found = 0;
+        try {
+            while (maxResults <= 0 || found < maxResults) {
+                while (running < executor.getSearchParallelism() && candidates.hasNext()) {
+                    Map.Entry<StringAndDouble, String> candidate = candidates.next();
+                    submitted.add(executor.submit(() -> {
+                        Result r = FAILED_RESULT;
+                        try {
+                            r = aligner.apply(candidate);
+                        } catch (RuntimeException e) {
+                            log.warn("trouble calculating alignment score", e);
+                        } finally {
+                            completed.add(r);
+                        }
+                        return r;
+                    }));
+                    running++;
+                }
+                if (running == 0) {
+                    break;
+                }
+                Result r;
+                if (deadline > 0) {
+                    long wait = deadline - System.currentTimeMillis();
+                    r = wait > 0 ? completed.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (r == null) {
+                        log.debug("sequence search stopped at its time limit with " + found + " results");
+                        break;
+                    }
+                } else {
+                    r = completed.take();
+                }
+                running--;
+                if (r == FAILED_RESULT) {
+                    results.put(r);
+                } else if (r.score >= identity) {
+                    results.put(r);
+                    found++;
+                }
+            }
+        } finally {
+            cancelAll(executor, submitted);
+        }
+    }
+
+    /**
+     * Cancel what's left of a search, purging the executor's queue
+     * once at the end instead of for every cancelled alignment.
+     */
+    private static void cancelAll (SequenceAlignmentExecutor executor, Collection<? extends Future<?>> futures) {
+        boolean cancelled = false;
+        for (Future<?> f : futures) {
+            cancelled |= f.cancel(true);
+        }
+        if (cancelled) {
+            executor.purge();
+        }
+    }
+
+    /**
+     * Align the query to one target sequence.
+     * @param queryResidues when not null, first check with {@link BandedIdentityKernel}
+     *                      that a global alignment could reach the identity cutoff,
+     *                      and if the substitution matrix allows it let the kernel do the alignment.
+     * @return the result, with a score of -1 if the alignment failed or couldn't reach the cutoff.
+     */
+    private Result alignTarget (String id, String query, ResidueSequence querySeq, byte[] queryResidues, String tseq,
+            SequenceAlignmentHelper alignmentHelper, int gap, CutoffType rt, double identity) {
+        Result r = new Result(id, querySeq.toString(), tseq);
+        r.setScore(-1, rt);
+        if (Thread.currentThread().isInterrupted()) {
+            //the search was cancelled
+            return r;
+        }
+        try {
+            if (queryResidues != null) {
+                //the same target residues are used for the check and the banded alignment
+                byte[] targetResidues = alignmentHelper.toResidues(tseq);
+                if (!BandedIdentityKernel.couldReachIdentity(queryResidues, targetResidues, identity)) {
+                    return r;
+                }
+                if (alignmentHelper.mismatchScore() == 0) {
+                    BandedIdentityKernel.GlobalAlignment banded =
+                            BandedIdentityKernel.alignGlobal(queryResidues, targetResidues, gap, identity);
+                    if (banded != null) {
+                        r.setScore(banded.percentIdentity, rt);
+                        if (r.score >= identity) {
+                            addAlignment(r, query, tseq, banded.gappedQuery, banded.gappedTarget, 0, 0,
+                                    banded.percentIdentity, rt);
+                        }
+                        return r;
+                    }
+                    //the best path might have come from outside of the band
+                }
+            }
+
+            ResidueSequence targetSeq;
+            try {
+                targetSeq = alignmentHelper.toSequence(tseq);
+            } catch (Exception e) {
+                //prob a bad seq
+
+                log.warn("trouble performing alignment for sequence", e);
+                return r;
+            }
+            PairwiseSequenceAlignment alignment = alignmentHelper.align(querySeq, targetSeq, gap, rt);
+
+
+            r.setScore(alignment.getPercentIdentity(), rt);
+
+            if (r.score >= identity) {
+                addAlignment(r, query, tseq,
+                        alignment.getGappedQueryAlignment().toString(), alignment.getGappedSubjectAlignment().toString(),
+                        (int) alignment.getQueryRange().getBegin(), (int) alignment.getSubjectRange().getBegin(),
+                        alignment.getPercentIdentity(), rt);
+            }
+        } catch (Exception e) {
+
+            log.warn("trouble calculating alignment score", e);
+            r.setScore(-1, rt);
+
+        }
+        return r;
+    }
+
+    /**
+     * Render an alignment which reached the cutoff and add it to the result.
+     * @param gappedQuery the aligned query residues, with {@link #GAP} for gaps.
+     * @param gappedSubject the aligned target residues, as long as the gapped query.
+     * @param qOffset where in the query the alignment starts.
+     * @param tOffset where in the target the alignment starts.
+     */
+    private static void addAlignment (Result r, String query, String tseq, String gappedQuery, String gappedSubject,
+            int qOffset, int tOffset, double percentIdentity, CutoffType rt) {
+        BitSet qbits = new BitSet(query.length());
+        BitSet tbits = new BitSet(tseq.length());
+
+        int qGaps = 0, sGaps = 0;
+        int currentOffset = 0;
+        StringBuilder fullBuilder = new StringBuilder(4 * gappedQuery.length());
+
+        StringBuilder topBuilder = new StringBuilder(100);
+        StringBuilder middleBuilder = new StringBuilder(100);
+        StringBuilder bottomBuilder = new StringBuilder(100);
+
+        int len =query.length();
+        int matched = 0;
+
+        int count=0;
+        boolean hasDataOnCurrentLine=false;
+        if(gappedQuery.length() > 0){
+            topBuilder.append(   String.format("Query  %5d  ",qOffset + currentOffset +1));
+            middleBuilder.append("              ");
+            bottomBuilder.append(String.format("Sbjct  %5d  ",tOffset + currentOffset +1));
+
+        }
+        for (int i = 0; i < gappedQuery.length(); i++) {
+            hasDataOnCurrentLine = true;
+            char q = gappedQuery.charAt(i);
+            char s = gappedSubject.charAt(i);
+            if (q == GAP) {
+                qGaps++;
+                if(matched>0){
+              	  len++;
+                }
+                middleBuilder.append(' ');
+            } else if (s == GAP) {
+                sGaps++;
+                middleBuilder.append(' ');
+            } else if (q == s) {
+                qbits.set(qOffset + currentOffset - qGaps);
+                tbits.set(tOffset + currentOffset - sGaps);
+
+                middleBuilder.append('|');
+                matched++;
+            } else {
+                middleBuilder.append(' ');
+            }
+            topBuilder.append(q);
+            bottomBuilder.append(s);
+            count++;
+            if(count % 80 ==0){
+                topBuilder.append(   String.format("  %5d  \n",qOffset + currentOffset - qGaps +1));
+                middleBuilder.append("\n");
+                bottomBuilder.append(String.format("  %5d  \n",tOffset + currentOffset - sGaps +1));
+
+                fullBuilder.append(topBuilder).append(middleBuilder).append(bottomBuilder);
+                topBuilder.setLength(0);
+                middleBuilder.setLength(0);
+                bottomBuilder.setLength(0);
+                //check for next line
+                if(i + 1 < gappedQuery.length()){
+                    //more data
+                    topBuilder.append(   String.format("Query  %5d  ",qOffset + currentOffset -qGaps +2));
+                    middleBuilder.append("              ");
+                    bottomBuilder.append(String.format("Sbjct  %5d  ",tOffset + currentOffset -sGaps +2));
+                }else{
+                    hasDataOnCurrentLine = false;
+                }
+            }
+            currentOffset++;
+
+        }
+        if(hasDataOnCurrentLine){
+              //end of last line of something
+            //current offset is already at +1 so we don't need a +1 for the end of the line
+            topBuilder.append(   String.format("  %5d  \n",qOffset + currentOffset -qGaps));
+            middleBuilder.append("\n");
+            bottomBuilder.append(String.format("  %5d  \n",tOffset + currentOffset -sGaps));
+            fullBuilder.append(topBuilder).append(middleBuilder).append(bottomBuilder);
+        }
+
+
+
+
+        Alignment aln = new Alignment(null, query, tseq,
+
+                  fullBuilder.toString(),
+
+                matched, matched / (double) query.length(),
+                percentIdentity,
+                matched / (double) query.length(), qbits, tbits);
+
+
+        r.alignments.add(aln);
+        if (rt == CutoffType.SUB) {
+      	  double dd=matched / (double) len;
+      	  r.setScore(dd, rt);
+        }
+    }
+
     /**
      * There might be additional bases that can be aligned
      * beyond the Segments that weren't included because they were at the edges
@@ -1125,131 +1707,95 @@ public class SequenceIndexer {
     }
 
     public String getSeq (final String id) {
-        try {
-            return
-                    getOrElse
-                    (getClass().getName()+"/"+FIELD_SEQ+"/"+id,
-                            ()->{
-                                seqSearchManager.maybeRefresh();
-                                IndexSearcher searcher = seqSearchManager.acquire();
-                                try {
-                                    TopDocs docs = searcher.search
-                                            (new TermQuery (new Term (FIELD_ID, id)), 1);
-                                    if (docs.totalHits > 0) {
-                                        Document d = searcher.doc
-                                                (docs.scoreDocs[0].doc);
-                                        return d.get(FIELD_SEQ);
-                                    }
-                                }finally {
-                                    seqSearchManager.release(searcher);
-                                }
-                                return null;
-                            });
-        }catch (Exception ex) {
-
-            log.warn("trouble fetching sequence by id", ex);
-        }
-        return null;
-    }
-
-    private void removeSeqFromCache(String id) {
-        removeFromCache(getClass().getName()+"/"+FIELD_SEQ+"/"+id);
-    }
-    private void removeFromCache(String key) {
-        CACHE.get().remove(key);
+        return getSeqs(Collections.singleton(id)).get(id);
     }
-    
-    @SuppressWarnings("unchecked")
-    <T> T getOrElse (String key, Callable<T> generator)
-            throws Exception {
-        Object value = CACHE.get().get(key);
 
+    /**
+     * Look up the sequences of many ids at once. Each segment is
+     * only visited once and the sequences come from the
+     * {@link #FIELD_SEQ_DV} doc values when the segment has them.
+     *
+     * @return the sequence of every id that's in the index;
+     * if more than one sequence has the same id only one of them is returned.
+     */
+    public Map<String, String> getSeqs (Collection<String> ids) {
+        Map<String, String> seqs = new HashMap<>();
+        if (ids.isEmpty()) {
+            return seqs;
+        }
+        //sorted so each segment's terms are walked forward
+        List<BytesRef> terms = ids.stream()
+                .distinct()
+                .map(BytesRef::new)
+                .sorted()
+                .collect(Collectors.toList());
+        try {
+            seqSearchManager.maybeRefresh();
+            IndexSearcher searcher = seqSearchManager.acquire();
+            try {
+                for (LeafReaderContext ctx : searcher.getIndexReader().leaves()) {
+                    readSeqs(ctx.reader(), terms, seqs);
+                    if (seqs.size() == terms.size()) {
+                        break;
+                    }
+                }
+            } finally {
+                seqSearchManager.release(searcher);
+            }
+        } catch (Exception ex) {
+            log.warn("trouble fetching sequences by id", ex);
+        }
+        return seqs;
+    }
 
-        if (value == null) {
-            value = generator.call();
-            CACHE.get().put(new Element(key, value));
-
-        }else {
-            value = ((Element)value).getObjectValue();
+    private static void readSeqs (LeafReader leaf, List<BytesRef> ids, Map<String, String> seqs) throws IOException {
+        Terms idTerms = leaf.terms(FIELD_ID);
+        if (idTerms == null) {
+            return;
         }
+        Bits liveDocs = leaf.getLiveDocs();
+        BinaryDocValues values = leaf.getBinaryDocValues(FIELD_SEQ_DV);
+        Bits hasValue = values == null ? null : leaf.getDocsWithField(FIELD_SEQ_DV);
+
+        TermsEnum te = idTerms.iterator();
+        PostingsEnum postings = null;
+        for (BytesRef term : ids) {
+            String id = term.utf8ToString();
+            if (seqs.containsKey(id) || !te.seekExact(term)) {
+                continue;
+            }
+            postings = te.postings(postings, PostingsEnum.NONE);
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                String seq = readSeq(leaf, values, hasValue, doc);
+                if (seq != null) {
+                    seqs.put(id, seq);
+                    break;
+                }
+            }
+        }
+    }
 
-        return (T)value;
+    /**
+     * Add the candidates, in order, with their sequences;
+     * candidates whose sequence can't be found are left out.
+     */
+    private void putSequences (Map<StringAndDouble, String> seqMap, List<StringAndDouble> candidates) {
+        Map<String, String> seqs = getSeqs(candidates.stream().map(c -> c.s).collect(Collectors.toList()));
+        for (StringAndDouble c : candidates) {
+            String seq = seqs.get(c.s);
+            if (seq != null) {
+                seqMap.putIfAbsent(c, seq);
+            }
+        }
     }
 
 
 
     public List<KmerFingerprintWrapper> getFPSequencesWithBounds(int lowerBound, int upperbound, List<String> mustHaveAtLeastOneTag) {
-        try {
-                                seqSearchManager.maybeRefresh();
-                                IndexSearcher searcher = seqSearchManager.acquire();
-                                try {
-                                	NumericRangeQuery<Integer> q= NumericRangeQuery.newIntRange(FIELD_LENGTH, lowerBound, upperbound, true, true);
-
-                                	Query fullQ=q;
-                                	
-                                	if(!mustHaveAtLeastOneTag.isEmpty()){
-                                		BooleanQuery bq=new BooleanQuery();
-                                		bq.setMinimumNumberShouldMatch(1);
-                                		for(String tag: mustHaveAtLeastOneTag){
-                                    		TermQuery tq = new TermQuery (new Term (FIELD_TAGS, tag));
-                                    		bq.add(tq,Occur.SHOULD);
-                                    	}
-                                		BooleanQuery fq=new BooleanQuery();
-                                		fq.add(fullQ,Occur.MUST);
-                                		fq.add(bq,Occur.MUST);
-                                		fullQ=fq;
-                                	}
-                                	
-                                    TopDocs docs = searcher.search
-                                            (fullQ, Integer.MAX_VALUE);
-                                    //System.out.println("Hits:" + docs.totalHits);
-                                    if (docs.totalHits > 0) {
-                                    	return Arrays.stream(docs.scoreDocs)
-                                    	      .map(d-> {
-                                    	    	  try{
-                                    	    	  	return searcher.doc(d.doc);
-                                    	    	  }catch(Exception e){
-
-                                                      log.warn("trouble searching sequence", e);
-                                    	    		return null;
-                                    	    	  }
-                                    	      })
-                                    	      .filter(d->d!=null)
-                                    	      .map(d->{
-                                    	    	  try{
-                                    	    	//  System.out.println("Fetching...");
-                                    	    	//String fp1enc=d.get(FIELD_FP_1MER);
-                                    	    	String id=d.get(FIELD_ID);
-                                    	    	int len=Integer.parseInt(d.get(FIELD_LENGTH));
-                                    	    	KmerFingerprintWrapper kwrap = KmerFingerprintWrapper.of(id, len);
-                                    	    	
-                                    	    	String ks = d.get(FIELD_FP_K);
-                                    	    	if(ks ==null){
-                                    	    	    return null;
-                                                }
-                                    	    	for(String k:ks.split(",")){
-                                    	    		String fpenc=d.get(FIELD_FP + "_" + k);
-                                    	    		Kmers.HoloFingerprint fp=Kmers.HoloFingerprint.decode(fpenc);
-                                    	    		kwrap.addHolo(Integer.parseInt(k), fp);
-                                    	    	}
-                                    	    	
-                                    	    	return kwrap;
-                                    	    	  }catch(Exception e){
-                                    	    	      log.warn("Error making sequence fingerprint",e);
-                                    	    		  return null;
-                                    	    	  }
-                                    	      })
-                                    	      .filter(f->f!=null)
-                                    	      .collect(Collectors.toList());
-                                    }
-                                }finally {
-                                    seqSearchManager.release(searcher);
-                                }
-                                return new ArrayList<KmerFingerprintWrapper>();
-        }catch (Exception ex) {
-            log.warn("Error making sequence fingerprint",ex);
-        }
-        return null;
+        return fingerprints.getWithBounds(lowerBound, upperbound, mustHaveAtLeastOneTag);
     }
 
 
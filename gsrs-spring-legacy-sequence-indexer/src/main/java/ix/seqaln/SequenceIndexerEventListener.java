@@ -68,9 +68,12 @@ public class SequenceIndexerEventListener {
         if(event.getSource().isInMaintenanceMode()){
             //begin
             indexer.removeAll();
+            //reindexing adds every sequence, don't commit after each one
+            indexer.beginBatch();
             inMaintenanceMode.set(true);
         }else{
             inMaintenanceMode.set(false);
+            indexer.endBatch();
         }
     }
 
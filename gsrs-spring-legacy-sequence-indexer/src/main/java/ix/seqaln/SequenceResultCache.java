@@ -0,0 +1,164 @@
+package ix.seqaln;
+
+import gsrs.cache.CacheStatsRecorder;
+import gsrs.cache.GsrsCache.CacheStatistics;
+import ix.utils.Util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The sorted results of recent complete sequence searches so paging
+ * through or re-sorting the same search doesn't realign every candidate.
+ *
+ * Entries are keyed by a hash of the cleaned query and the search
+ * parameters and remember the {@link SequenceIndexer#lastModified()}
+ * they were computed at; an entry from before the last change to the
+ * index is searched again.
+ */
+class SequenceResultCache {
+
+    private static class Entry {
+        final long lastModified;
+        final List<SequenceIndexer.Result> results;
+
+        Entry(long lastModified, List<SequenceIndexer.Result> results) {
+            this.lastModified = lastModified;
+            this.results = results;
+        }
+    }
+
+    /**
+     * What a search found, and whether it looked at every candidate.
+     */
+    static class Searched {
+        final List<SequenceIndexer.Result> results;
+        final boolean complete;
+
+        Searched(List<SequenceIndexer.Result> results, boolean complete) {
+            this.results = results;
+            this.complete = complete;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    private volatile int maxSize;
+    private final CacheStatsRecorder stats = new CacheStatsRecorder();
+
+    SequenceResultCache(int maxSize) {
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SequenceResultCache.this.maxSize;
+            }
+        };
+    }
+
+    static String key(String query, String seqType, double identity, int gap, SequenceIndexer.CutoffType rt) {
+        String cleaned = query.replaceAll("\\s+", "").toUpperCase(Locale.ROOT);
+        return Util.sha1(cleaned, String.valueOf(seqType).toLowerCase(Locale.ROOT),
+                Double.toString(identity), Integer.toString(gap), rt.name());
+    }
+
+    /**
+     * @param lastModified when the index last changed.
+     * @param search runs the search if there's no up to date entry,
+     *               it should return the results already sorted.
+     *               An incomplete search is returned but not cached.
+     * @return the results, which must not be modified.
+     */
+    List<SequenceIndexer.Result> getOrSearch(String key, long lastModified, Supplier<Searched> search) {
+        if (maxSize <= 0) {
+            return Collections.unmodifiableList(timed(search).results);
+        }
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e != null && e.lastModified == lastModified) {
+                stats.recordHit();
+                return e.results;
+            }
+        }
+        //searched outside the lock, two of the same search at once both run
+        Searched searched = timed(search);
+        List<SequenceIndexer.Result> results = Collections.unmodifiableList(searched.results);
+        if (searched.complete) {
+            synchronized (entries) {
+                entries.put(key, new Entry(lastModified, results));
+            }
+        }
+        return results;
+    }
+
+    private Searched timed(Supplier<Searched> search) {
+        stats.recordMiss();
+        long start = System.nanoTime();
+        try {
+            return search.get();
+        } finally {
+            stats.recordLoad(System.nanoTime() - start);
+        }
+    }
+
+    CacheStatistics getStatistics() {
+        long bytes = 0;
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+            for (Entry e : entries.values()) {
+                for (SequenceIndexer.Result r : e.results) {
+                    bytes += estimateBytes(r);
+                }
+            }
+        }
+        return stats.addTo(CacheStatistics.builder()
+                        .cacheName("Sequence Search Results")
+                        .maxCacheElements(Math.max(0, maxSize))
+                        .currentCacheElements(size)
+                        .estimatedBytes(bytes))
+                .build();
+    }
+
+    //the query is shared by every result so it isn't counted
+    private static long estimateBytes(SequenceIndexer.Result r) {
+        long bytes = 64 + (r.target == null ? 0 : 2L * r.target.length());
+        for (SequenceIndexer.Alignment a : r.alignments) {
+            bytes += 64 + 2L * (a.query.length() + a.target.length());
+        }
+        return bytes;
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        synchronized (entries) {
+            if (maxSize <= 0) {
+                entries.clear();
+            } else {
+                //removeEldestEntry only drops one per put
+                while (entries.size() > maxSize) {
+                    entries.remove(entries.keySet().iterator().next());
+                }
+            }
+        }
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
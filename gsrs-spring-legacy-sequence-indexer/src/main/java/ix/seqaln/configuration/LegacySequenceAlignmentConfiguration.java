@@ -1,5 +1,6 @@
 package ix.seqaln.configuration;
 
+import ix.seqaln.SequenceIndexer;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
@@ -12,6 +13,27 @@ public class LegacySequenceAlignmentConfiguration {
     private int nuc=3;
     private int prot = 3;
 
+    /**
+     * Threads for sequence alignments, 0 means one per processor.
+     */
+    private int alignmentThreads = 0;
+    /**
+     * Alignments waiting for a thread before searches run them on their own thread.
+     */
+    private int alignmentQueueSize = 1000;
+    /**
+     * The most alignments a single search runs at the same time, 0 means one per processor.
+     */
+    private int searchParallelism = 0;
+    /**
+     * JILLION or BANDED, see {@link SequenceIndexer.AlignmentStrategy}.
+     */
+    private String alignmentStrategy = SequenceIndexer.AlignmentStrategy.JILLION.name();
+    /**
+     * How many searches to keep the sorted results of for paging, 0 turns it off.
+     */
+    private int resultCacheSize = 100;
+
 
     /*
       int kmersize = app.configuration().getInt("ix.kmer.default", 3);
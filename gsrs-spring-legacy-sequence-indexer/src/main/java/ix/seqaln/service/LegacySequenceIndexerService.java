@@ -2,6 +2,9 @@ package ix.seqaln.service;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -12,12 +15,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import gsrs.cache.CacheStatisticsProvider;
+import gsrs.cache.GsrsCache;
 import gsrs.springUtils.StaticContextAccessor;
+import ix.seqaln.SequenceAlignmentExecutor;
 import ix.seqaln.SequenceIndexer;
 import ix.seqaln.configuration.LegacySequenceAlignmentConfiguration;
 
 @Service
-public class LegacySequenceIndexerService implements SequenceIndexerService {
+public class LegacySequenceIndexerService implements SequenceIndexerService, CacheStatisticsProvider {
 
     private File dir;
 
@@ -26,14 +32,33 @@ public class LegacySequenceIndexerService implements SequenceIndexerService {
 
     private SequenceIndexer indexer;
 
+    private SequenceAlignmentExecutor alignmentExecutor;
+
     @Autowired
-    public LegacySequenceIndexerService(LegacySequenceAlignmentConfiguration configuration, @Value("${ix.sequence.base}") File dir) throws IOException {
+    public LegacySequenceIndexerService(LegacySequenceAlignmentConfiguration configuration, @Value("${ix.sequence.base}") File dir,
+                                        @Value("${ix.sequence.batch.commitSize:1000}") int commitBatchSize,
+                                        @Value("${ix.sequence.batch.commitIntervalMillis:10000}") long commitIntervalMillis) throws IOException {
         this.configuration = configuration;
         this.dir = dir;
         indexer = SequenceIndexer.open(dir);
         indexer.setKmerSize(configuration.getDefaultKmer());
         indexer.setNucleicKmer(configuration.getNuc());
         indexer.setProteinKmer(configuration.getProt());
+        indexer.setAlignmentStrategy(SequenceIndexer.AlignmentStrategy.valueOfOrDefault(configuration.getAlignmentStrategy()));
+        indexer.setCommitBatchSize(commitBatchSize);
+        indexer.setCommitIntervalMillis(commitIntervalMillis);
+        indexer.setResultCacheSize(configuration.getResultCacheSize());
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        alignmentExecutor = new SequenceAlignmentExecutor(
+                configuration.getAlignmentThreads() > 0 ? configuration.getAlignmentThreads() : processors,
+                configuration.getAlignmentQueueSize(),
+                configuration.getSearchParallelism() > 0 ? configuration.getSearchParallelism() : processors);
+        indexer.setAlignmentExecutor(alignmentExecutor);
+    }
+
+    public SequenceAlignmentExecutor.Stats getAlignmentStats() {
+        return alignmentExecutor.getStats();
     }
 
     @Override
@@ -66,12 +91,44 @@ public class LegacySequenceIndexerService implements SequenceIndexerService {
         indexer.add(id, sequence);
     }
 
+    @Override
+    public long addAll(Stream<SequenceIndexer.SequenceEntry> sequences) throws IOException {
+        return indexer.addAll(sequences);
+    }
+
+    @Override
+    public void beginBatch() {
+        indexer.beginBatch();
+    }
+
+    @Override
+    public void endBatch() throws IOException {
+        indexer.endBatch();
+    }
+
     @Override
     public SequenceIndexer.ResultEnumeration search(String query, double identity, int gap, SequenceIndexer.CutoffType rt, String seqType) {
 
         return indexer.search(query, identity, gap, rt, seqType);
     }
 
+    @Override
+    public SequenceIndexer.ResultEnumeration search(String query, double identity, int gap, SequenceIndexer.CutoffType rt, String seqType,
+                                                    int maxResults, long timeoutMillis) {
+        return indexer.search(query, identity, gap, rt, seqType, maxResults, timeoutMillis);
+    }
+
+    @Override
+    public List<GsrsCache.CacheStatistics> getStatistics() {
+        return Collections.singletonList(indexer.getResultCacheStatistics());
+    }
+
+    @Override
+    public SequenceIndexer.ResultPage searchPage(String query, double identity, int gap, SequenceIndexer.CutoffType rt, String seqType,
+                                                 int skip, int top) {
+        return indexer.searchPage(query, identity, gap, rt, seqType, skip, top);
+    }
+
     
     
     //Due to the order of shutdowns / startups that happens in the current
@@ -84,8 +141,10 @@ public class LegacySequenceIndexerService implements SequenceIndexerService {
     @PostConstruct
     public void setupShutdownHook() {
         SequenceIndexer sindexer=indexer;
+        SequenceAlignmentExecutor sexecutor=alignmentExecutor;
         StaticContextAccessor.addStaticShutdownRunnable(()->{
             sindexer.shutdown();
+            sexecutor.close();
         });
     }
     
@@ -2,9 +2,15 @@ package ix.seqaln.service;
 
 import ix.seqaln.SequenceIndexer;
 import org.jcvi.jillion.core.residue.aa.ProteinSequence;
+import org.jcvi.jillion.core.residue.aa.ProteinSequenceBuilder;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
+import org.jcvi.jillion.core.residue.nt.NucleotideSequenceBuilder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
 
 public interface SequenceIndexerService {
 
@@ -19,10 +25,71 @@ public interface SequenceIndexerService {
 
     void add(String id, ProteinSequence sequence) throws IOException;
 
+    /**
+     * Add many sequences at once, implementations should
+     * only commit once for all of them. By default
+     * each sequence is added one at a time.
+     * @return the number of sequences added.
+     */
+    default long addAll(Stream<SequenceIndexer.SequenceEntry> sequences) throws IOException{
+        long count = 0;
+        Iterator<SequenceIndexer.SequenceEntry> iter = sequences.iterator();
+        while (iter.hasNext()) {
+            SequenceIndexer.SequenceEntry e = iter.next();
+            if (e.tags.contains("PROTEIN")) {
+                add(e.id, new ProteinSequenceBuilder(e.seq).build());
+            } else if (e.tags.contains("DNA") || e.tags.contains("RNA")) {
+                add(e.id, new NucleotideSequenceBuilder(e.seq).build());
+            } else {
+                add(e.id, e.seq);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Start grouping commits of added sequences until {@link #endBatch()}.
+     */
+    default void beginBatch(){
+    }
+
+    default void endBatch() throws IOException{
+    }
+
     default SequenceIndexer.ResultEnumeration search(String query, double identity, SequenceIndexer.CutoffType rt, String seqType) {
         return search (query, identity, 1,rt, seqType);
     }
 
     SequenceIndexer.ResultEnumeration search (final String query,
                                                      final double identity, final int gap, SequenceIndexer.CutoffType rt, String seqType);
+
+    /**
+     * Search returning at most maxResults results found within timeoutMillis.
+     * Implementations which can't stop early return all of them.
+     * @param maxResults the most results to return, 0 or less for no limit.
+     * @param timeoutMillis how long to look for results, 0 or less for no limit.
+     */
+    default SequenceIndexer.ResultEnumeration search (String query, double identity, int gap, SequenceIndexer.CutoffType rt, String seqType,
+                                                      int maxResults, long timeoutMillis){
+        return search(query, identity, gap, rt, seqType);
+    }
+
+    /**
+     * One page of all the results of a search sorted best first.
+     * Implementations may keep the sorted results of recent searches
+     * so paging through the same search is cheap.
+     */
+    default SequenceIndexer.ResultPage searchPage (String query, double identity, int gap, SequenceIndexer.CutoffType rt, String seqType,
+                                                   int skip, int top){
+        List<SequenceIndexer.Result> all = new ArrayList<>();
+        SequenceIndexer.ResultEnumeration en = search(query, identity, gap, rt, seqType);
+        while (en.hasMoreElements()) {
+            all.add(en.nextElement());
+        }
+        all.sort(SequenceIndexer.BEST_FIRST);
+        int from = Math.min(Math.max(0, skip), all.size());
+        int to = (int) Math.min((long) from + Math.max(0, top), all.size());
+        return new SequenceIndexer.ResultPage(all.size(), from, all.subList(from, to));
+    }
 }
@@ -1,11 +1,19 @@
+import ix.seqaln.SequenceAlignmentExecutor;
 import ix.seqaln.SequenceIndexer;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -75,4 +83,201 @@ public class SequenceIndexerTest {
         assertFalse(result.hasMoreElements());
 
     }
+    @Test
+    public void removedRecordIsNotFound() throws IOException {
+        sut.addNucleicAcidSequence("myId", "ACGTACGT");
+        sut.remove("myId");
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGT", .5, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid");
+        assertFalse(result.hasMoreElements());
+    }
+    @Test
+    public void reopenedIndexStillFindsRecords() throws IOException {
+        sut.addNucleicAcidSequence("myId", "ACGTACGT");
+        sut.shutdown();
+        sut = SequenceIndexer.open(dir);
+
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGT", .5, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid");
+        assertTrue(result.hasMoreElements());
+        assertEquals("myId", result.nextElement().id);
+        assertFalse(result.hasMoreElements());
+
+        assertFalse(sut.search("ACGTACGT", .5, SequenceIndexer.CutoffType.GLOBAL, "protein").hasMoreElements());
+    }
+    @Test
+    public void addAllThenSearch() throws IOException {
+        long count = sut.addAll(Stream.of(
+                new SequenceIndexer.SequenceEntry("id1", "ACGTACGT", Arrays.asList("RNA")),
+                new SequenceIndexer.SequenceEntry("id2", "TTTTGGGGCCCC", Arrays.asList("RNA"))));
+        assertEquals(2, count);
+        assertEquals(2, sut.getSize());
+
+        SequenceIndexer.ResultEnumeration result = sut.search("TTTTGGGGCCCC", .9, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid");
+        assertTrue(result.hasMoreElements());
+        assertEquals("id2", result.nextElement().id);
+        assertFalse(result.hasMoreElements());
+    }
+    @Test
+    public void sequencesAddedInBatchModeAreSearchableBeforeTheBatchEnds() throws IOException {
+        sut.beginBatch();
+        sut.addNucleicAcidSequence("myId", "ACGTACGT");
+
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGT", .5, SequenceIndexer.CutoffType.SUB, "nucleicacid");
+        assertTrue(result.hasMoreElements());
+        assertEquals("myId", result.nextElement().id);
+
+        sut.endBatch();
+        sut.shutdown();
+        sut = SequenceIndexer.open(dir);
+        assertEquals(1, sut.getSize());
+    }
+    @Test
+    public void everySequenceWithTheSameIdIsKept() throws IOException {
+        sut.addNucleicAcidSequence("myId", "ACGTACGT");
+        sut.addNucleicAcidSequence("myId", "TTTTGGGGCCCC");
+        assertEquals(2, sut.getFPSequencesWithBounds(0, Integer.MAX_VALUE, Arrays.asList("RNA")).size());
+
+        sut.remove("myId");
+        assertEquals(0, sut.getFPSequencesWithBounds(0, Integer.MAX_VALUE, Arrays.asList("RNA")).size());
+    }
+    @Test
+    public void kmerSeedsFindSequencesWithoutFingerprints() throws IOException {
+        sut.setUseFingerprint(false);
+        sut.addNucleicAcidSequence("myId", "ACGTACGTTTGGCCAA");
+        sut.addNucleicAcidSequence("other", "GGGGGGGGGGGG");
+        sut.remove("other");
+        sut.addNucleicAcidSequence("other", "CCCCCCCCCCCC");
+
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGTTTGGCCAA", .9, SequenceIndexer.CutoffType.SUB, "nucleicacid");
+        assertTrue(result.hasMoreElements());
+        assertEquals("myId", result.nextElement().id);
+        assertFalse(result.hasMoreElements());
+    }
+    @Test
+    public void searchStopsAtMaxResults() throws IOException {
+        sut.addNucleicAcidSequence("id1", "ACGTACGTACGT");
+        sut.addNucleicAcidSequence("id2", "ACGTACGTACGA");
+        sut.addNucleicAcidSequence("id3", "ACGTACGTACGG");
+
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGTACGT", .5, 1, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid", 2, 0);
+        int count = 0;
+        while (result.hasMoreElements()) {
+            result.nextElement();
+            count++;
+        }
+        assertEquals(2, count);
+    }
+    @Test
+    public void alignmentsRunOnTheAlignmentExecutor() throws IOException {
+        SequenceAlignmentExecutor executor = new SequenceAlignmentExecutor(2, 10, 2);
+        try {
+            sut.setAlignmentExecutor(executor);
+            sut.addNucleicAcidSequence("myId", "ACGTACGT");
+            SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGT", .5, SequenceIndexer.CutoffType.SUB, "nucleicacid");
+            assertTrue(result.hasMoreElements());
+            assertEquals("myId", result.nextElement().id);
+            assertFalse(result.hasMoreElements());
+            assertEquals(1, executor.getStats().getCompleted());
+        } finally {
+            executor.close();
+        }
+    }
+    @Test
+    @Timeout(30)
+    public void searchingWithAClosedAlignmentExecutorDoesNotHang() throws IOException {
+        SequenceAlignmentExecutor executor = new SequenceAlignmentExecutor(2, 10, 2);
+        sut.setAlignmentExecutor(executor);
+        sut.addNucleicAcidSequence("myId", "ACGTACGT");
+        executor.close();
+
+        assertThrows(RejectedExecutionException.class, () -> executor.submit(() -> 1));
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGT", .5, SequenceIndexer.CutoffType.SUB, "nucleicacid");
+        assertFalse(result.hasMoreElements());
+        assertFalse(result.isComplete());
+    }
+    @Test
+    public void aFailedSearchIsNotCached() throws IOException {
+        SequenceAlignmentExecutor closed = new SequenceAlignmentExecutor(2, 10, 2);
+        closed.close();
+        sut.setAlignmentExecutor(closed);
+        sut.addNucleicAcidSequence("myId", "ACGTACGT");
+        assertTrue(sut.searchSorted("ACGTACGT", .5, 1, SequenceIndexer.CutoffType.SUB, "nucleicacid").isEmpty());
+
+        SequenceAlignmentExecutor executor = new SequenceAlignmentExecutor(2, 10, 2);
+        try {
+            sut.setAlignmentExecutor(executor);
+            assertEquals(1, sut.searchSorted("ACGTACGT", .5, 1, SequenceIndexer.CutoffType.SUB, "nucleicacid").size());
+        } finally {
+            executor.close();
+        }
+    }
+    @Test
+    public void bandedStrategyFindsTheSameHits() throws IOException {
+        sut.setAlignmentStrategy(SequenceIndexer.AlignmentStrategy.BANDED);
+        sut.addAminoAcidSequence("prot1", "MKVLAAGIVGLLLAQSAWA");
+        sut.addAminoAcidSequence("prot2", "MKVLAAGIVGLLLAQSAWG");
+
+        SequenceIndexer.ResultEnumeration result = sut.search("MKVLAAGIVGLLLAQSAWA", 1, SequenceIndexer.CutoffType.GLOBAL, "Protein");
+        assertTrue(result.hasMoreElements());
+        assertEquals("prot1", result.nextElement().id);
+        assertFalse(result.hasMoreElements());
+    }
+    @Test
+    public void bandedStrategyRendersTheSameAlignments() throws IOException {
+        sut.addAminoAcidSequence("prot1", "MKVLAAGIVGLLLAQSAWA");
+        sut.addAminoAcidSequence("prot2", "MKVLAGIVGLLLWAQSAWA");
+        sut.addAminoAcidSequence("prot3", "MKVLAAGIVGLLLAQSAWAKK");
+
+        Map<String, String> full = alignments(sut.searchSorted("MKVLAAGIVGLLLAQSAWA", .7, 1, SequenceIndexer.CutoffType.GLOBAL, "Protein"));
+        sut.setAlignmentStrategy(SequenceIndexer.AlignmentStrategy.BANDED);
+        Map<String, String> banded = alignments(sut.searchSorted("MKVLAAGIVGLLLAQSAWA", .7, 1, SequenceIndexer.CutoffType.GLOBAL, "Protein"));
+        assertEquals(3, full.size());
+        assertEquals(full, banded);
+    }
+
+    private static Map<String, String> alignments(List<SequenceIndexer.Result> results) {
+        Map<String, String> alignments = new HashMap<>();
+        for (SequenceIndexer.Result r : results) {
+            alignments.put(r.id, r.score + "\n" + r.alignments.get(0).alignment);
+        }
+        return alignments;
+    }
+    @Test
+    public void sequencesOutsideLatin1ComeBackAfterReopening() throws IOException {
+        sut.addAminoAcidSequence("odd", "MKV\u03b1LAAG");
+        sut.shutdown();
+        sut = SequenceIndexer.open(dir);
+
+        assertEquals("MKV\u03b1LAAG", sut.getSeqs(Arrays.asList("odd")).get("odd"));
+    }
+    @Test
+    public void sequencesAreLookedUpTogether() throws IOException {
+        sut.addNucleicAcidSequence("nuc1", "ACGTACGT");
+        sut.addAminoAcidSequence("nuc2", "MKVLAAG");
+        sut.addNucleicAcidSequence("nuc3", "GGGGCCCC");
+        sut.remove("nuc3");
+
+        Map<String, String> seqs = sut.getSeqs(Arrays.asList("nuc1", "nuc2", "nuc3", "missing"));
+        assertEquals(2, seqs.size());
+        assertEquals("ACGTACGT", seqs.get("nuc1"));
+        assertEquals("MKVLAAG", seqs.get("nuc2"));
+    }
+    @Test
+    public void pagesComeFromTheSameSortedResultsUntilTheIndexChanges() throws IOException {
+        sut.addNucleicAcidSequence("page1", "ACGTACGTACGT");
+        sut.addNucleicAcidSequence("page2", "ACGTACGTACGA");
+        sut.addNucleicAcidSequence("page3", "ACGTACGTACGG");
+
+        SequenceIndexer.ResultPage first = sut.searchPage("acgtacgtacgt", .5, 1, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid", 0, 2);
+        assertEquals(3, first.total);
+        assertEquals(2, first.results.size());
+        assertEquals("page1", first.results.get(0).id);
+
+        SequenceIndexer.ResultPage second = sut.searchPage("ACGTACGTACGT", .5, 1, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid", 2, 2);
+        assertEquals(1, second.results.size());
+        assertSame(sut.searchSorted("ACGTACGTACGT", .5, 1, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid").get(2),
+                second.results.get(0));
+
+        sut.remove("page3");
+        assertEquals(2, sut.searchPage("ACGTACGTACGT", .5, 1, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid", 0, 10).total);
+    }
 }
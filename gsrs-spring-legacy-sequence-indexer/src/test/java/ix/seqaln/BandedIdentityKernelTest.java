@@ -0,0 +1,132 @@
+package ix.seqaln;
+
+import org.jcvi.jillion.align.pairwise.PairwiseSequenceAlignment;
+import org.jcvi.jillion.core.residue.ResidueSequence;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BandedIdentityKernelTest {
+
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    private final Random random = new Random(1234);
+
+    private String randomProtein(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+        }
+        return sb.toString();
+    }
+
+    private String mutate(String seq, int edits) {
+        StringBuilder sb = new StringBuilder(seq);
+        for (int i = 0; i < edits && sb.length() > 1; i++) {
+            int pos = random.nextInt(sb.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.setCharAt(pos, AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+                    break;
+                case 1:
+                    sb.deleteCharAt(pos);
+                    break;
+                default:
+                    sb.insert(pos, AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int lcs(byte[] a, byte[] b) {
+        int[][] m = new int[a.length + 1][b.length + 1];
+        for (int i = 1; i <= a.length; i++) {
+            for (int j = 1; j <= b.length; j++) {
+                m[i][j] = a[i - 1] == b[j - 1] ? m[i - 1][j - 1] + 1 : Math.max(m[i - 1][j], m[i][j - 1]);
+            }
+        }
+        return m[a.length][b.length];
+    }
+
+    @Test
+    public void bandedDecisionMatchesFullLongestCommonSubsequence() {
+        for (int n = 0; n < 200; n++) {
+            String q = randomProtein(20 + random.nextInt(80));
+            String t = mutate(q, random.nextInt(30));
+            byte[] a = q.getBytes();
+            byte[] b = t.getBytes();
+            int lcs = lcs(a, b);
+            for (int needed = Math.max(1, lcs - 3); needed <= lcs + 3; needed++) {
+                if (needed > Math.min(a.length, b.length)) {
+                    continue;
+                }
+                assertEquals(lcs >= needed, BandedIdentityKernel.longestCommonSubsequenceReaches(a, b, needed),
+                        q + " " + t + " needed " + needed);
+            }
+        }
+    }
+
+    @Test
+    public void neverRejectsWhatTheFullAlignmentAccepts() {
+        SequenceAlignmentHelper helper = SequenceAlignmentHelper.createFor("Protein");
+        for (int n = 0; n < 100; n++) {
+            String q = randomProtein(100 + random.nextInt(300));
+            String t = mutate(q, random.nextInt(40));
+            ResidueSequence qs = helper.toSequence(q);
+            ResidueSequence ts = helper.toSequence(t);
+            PairwiseSequenceAlignment alignment = helper.align(qs, ts, 1, SequenceIndexer.CutoffType.GLOBAL);
+            double identity = alignment.getPercentIdentity();
+            assertTrue(BandedIdentityKernel.couldReachIdentity(helper.toResidues(q), helper.toResidues(t), identity),
+                    "rejected " + identity);
+        }
+    }
+
+    @Test
+    public void bandedAlignmentIsTheFullAlignment() {
+        SequenceAlignmentHelper helper = SequenceAlignmentHelper.createFor("Protein");
+        assertEquals(0, helper.mismatchScore());
+        int aligned = 0;
+        for (int n = 0; n < 500; n++) {
+            String q = randomProtein(10 + random.nextInt(200));
+            String t = mutate(q, random.nextInt(60));
+            int gap = random.nextInt(5);
+            double cutoff = .5 + random.nextInt(6) * .1;
+            byte[] a = helper.toResidues(q);
+            byte[] b = helper.toResidues(t);
+            if (!BandedIdentityKernel.couldReachIdentity(a, b, cutoff)) {
+                continue;
+            }
+            BandedIdentityKernel.GlobalAlignment banded = BandedIdentityKernel.alignGlobal(a, b, gap, cutoff);
+            if (banded == null) {
+                //falls back to the full alignment
+                continue;
+            }
+            aligned++;
+            PairwiseSequenceAlignment full = helper.align(helper.toSequence(q), helper.toSequence(t), gap,
+                    SequenceIndexer.CutoffType.GLOBAL);
+            String message = q + " " + t + " gap " + gap + " cutoff " + cutoff;
+            assertEquals(full.getPercentIdentity() >= cutoff, banded.percentIdentity >= cutoff, message);
+            if (banded.percentIdentity >= cutoff) {
+                assertEquals(full.getPercentIdentity(), banded.percentIdentity, 0, message);
+                assertEquals(full.getGappedQueryAlignment().toString(), banded.gappedQuery, message);
+                assertEquals(full.getGappedSubjectAlignment().toString(), banded.gappedTarget, message);
+            }
+        }
+        assertTrue(aligned > 100, "only " + aligned + " banded alignments");
+    }
+
+    @Test
+    public void nucleotidesScoreMismatchesBelowZero() {
+        assertTrue(SequenceAlignmentHelper.createFor("NucleicAcid").mismatchScore() < 0);
+    }
+
+    @Test
+    public void rejectsDissimilarSequences() {
+        byte[] q = "ACDEFGHIKLMNPQRSTVWY".getBytes();
+        byte[] t = "YWVTSRQPNMLKIHGFEDCA".getBytes();
+        assertFalse(BandedIdentityKernel.couldReachIdentity(q, t, .9));
+        assertTrue(BandedIdentityKernel.couldReachIdentity(q, q, 1));
+    }
+}
@@ -17,39 +17,93 @@ import java.io.IOException;
 @Service
 public class LegacyStructureIndexerService implements StructureIndexerService{
 
-    private StandardizedStructureIndexer indexer;
+    private volatile StandardizedStructureIndexer indexer;
     private File dir;
 
+    private StructureSearchFacade searchFacade;
+
+    //see beginBatch()
+    private StructureIngestPipeline ingestPipeline;
+    private volatile boolean batchMode = false;
+
+    public LegacyStructureIndexerService(File dir) throws IOException {
+        this(dir, 0, 100, 0, 100);
+    }
+
     @Autowired
-    public LegacyStructureIndexerService(@Value("${ix.structure.base}") File dir) throws IOException {
+    public LegacyStructureIndexerService(@Value("${ix.structure.base}") File dir,
+                                         @Value("${ix.structure.search.threads:0}") int searchThreads,
+                                         @Value("${ix.structure.search.queryCacheSize:100}") int queryCacheSize,
+                                         @Value("${ix.structure.ingest.threads:0}") int ingestThreads,
+                                         @Value("${ix.structure.ingest.batchSize:100}") int ingestBatchSize) throws IOException {
         IOUtil.mkdirs(dir);
-        indexer =  new StandardizedStructureIndexer(StructureIndexer.open(dir));
         this.dir = dir;
+        searchFacade = new StructureSearchFacade(() -> indexer, searchThreads, queryCacheSize);
+        ingestPipeline = new StructureIngestPipeline(() -> indexer, ingestThreads, ingestBatchSize);
+        indexer = open();
+    }
+
+    private StandardizedStructureIndexer open() throws IOException {
+        //the matching threads of every search come from the facade's pool
+        return new StandardizedStructureIndexer(new StructureIndexer(dir, false, searchFacade.getSearchPool()));
     }
 
     @Override
     public void removeAll() throws IOException {
+        //don't let structures that are still being prepared end up in the new index
+        ingestPipeline.flush();
         //it's easier to shutdown delete and reopen
         indexer.shutdown();
 
         IOUtil.deleteRecursivelyQuitely(dir);
-        indexer =  new StandardizedStructureIndexer(StructureIndexer.open(dir));
+        indexer = open();
     }
 
     @Override
     public void add(String id, Chemical structure) throws IOException {
-        indexer.add(id, structure);
+        if (batchMode) {
+            ingestPipeline.submit(id, structure);
+        } else {
+            indexer.add(id, structure);
+        }
     }
     @Override
     public void add(String id, String structure) throws IOException {
-        indexer.add(id, structure);
+        if (batchMode) {
+            ingestPipeline.submit(id, structure);
+        } else {
+            indexer.add(id, structure);
+        }
     }
 
     @Override
     public void remove(String id) throws IOException {
+        if (ingestPipeline.isPending(id)) {
+            //otherwise it would be added after it's removed
+            ingestPipeline.flush();
+        }
         indexer.remove(null, id);
     }
 
+    /**
+     * Until {@link #endBatch()} added structures are parsed, standardized and
+     * indexed on the ingest worker pool instead of the thread adding them,
+     * so they aren't searchable as soon as add returns.
+     */
+    @Override
+    public void beginBatch() {
+        batchMode = true;
+    }
+
+    /**
+     * Stop batch mode and wait for every structure added in it to be indexed.
+     */
+    @Override
+    public void endBatch() throws IOException {
+        batchMode = false;
+        ingestPipeline.flush();
+    }
+
     
     //Due to the order of shutdowns / startups that happens in the current
     //setup for the services, this service is typically one of the first services
@@ -60,9 +114,13 @@ public class LegacyStructureIndexerService implements StructureIndexerService{
     //is called earlier and the IOExceptions can be avoided.
     @PostConstruct
     public void setupShutdownHook() {
-        StandardizedStructureIndexer sindexer=indexer;
+        StructureSearchFacade sfacade=searchFacade;
+        StructureIngestPipeline spipeline=ingestPipeline;
         StaticContextAccessor.addStaticShutdownRunnable(()->{
-            sindexer.shutdown();
+            spipeline.close();
+            //the current one, removeAll() replaces it
+            indexer.shutdown();
+            sfacade.close();
         });
     }
 //    
@@ -75,12 +133,22 @@ public class LegacyStructureIndexerService implements StructureIndexerService{
 
     @Override
     public StructureIndexer.ResultEnumeration substructure(String query) throws Exception {
-         return indexer.substructure(query,0);
+         return searchFacade.substructure(query, 0);
     }
 
     @Override
     public StructureIndexer.ResultEnumeration similarity(String query, double threshold) throws Exception {
-        return indexer.similarity(query,threshold);
+        return searchFacade.similarity(query, threshold, 0);
+    }
+
+    @Override
+    public StructureSearchFacade.TimedResultEnumeration substructure(String query, int max, long timeoutMillis) throws Exception {
+        return searchFacade.substructure(query, max, timeoutMillis);
+    }
+
+    @Override
+    public StructureSearchFacade.TimedResultEnumeration similarity(String query, double threshold, int max, long timeoutMillis) throws Exception {
+        return searchFacade.similarity(query, threshold, max, timeoutMillis);
     }
 
 
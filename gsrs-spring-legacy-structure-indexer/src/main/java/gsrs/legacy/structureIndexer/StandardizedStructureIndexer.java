@@ -115,6 +115,13 @@ public class StandardizedStructureIndexer {
         this.add(id, getMolecule(struc));
     }
 
+    /**
+     * Add a structure which was already standardized with {@link #getStandardized(Chemical)}.
+     */
+    public void addStandardized(String id, Chemical standardized) throws IOException {
+        delegate.add(id, standardized);
+    }
+
     public boolean equals(Object obj) {
         return delegate.equals(obj);
     }
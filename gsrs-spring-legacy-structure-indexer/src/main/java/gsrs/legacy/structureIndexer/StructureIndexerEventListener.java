@@ -60,9 +60,12 @@ public class StructureIndexerEventListener {
         if(event.getSource().isInMaintenanceMode()){
             //begin
             indexer.removeAll();
+            //reindexing adds every structure, prepare them on the ingest pool
+            indexer.beginBatch();
             inMaintenanceMode.set(true);
         }else{
             inMaintenanceMode.set(false);
+            indexer.endBatch();
         }
 
     }
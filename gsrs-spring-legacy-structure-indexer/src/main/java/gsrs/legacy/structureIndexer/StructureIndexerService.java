@@ -4,6 +4,7 @@ import gov.nih.ncats.molwitch.Chemical;
 import gov.nih.ncats.structureIndexer.StructureIndexer;
 
 import java.io.IOException;
+import java.util.Enumeration;
 
 public interface StructureIndexerService {
     void add(String id, String structure) throws IOException;
@@ -13,10 +14,43 @@ public interface StructureIndexerService {
 
     void removeAll() throws IOException;
 
+    /**
+     * Start adding structures in the background until {@link #endBatch()}.
+     * Used while reindexing.
+     */
+    default void beginBatch(){
+    }
+
+    /**
+     * Wait for every structure added since {@link #beginBatch()} to be indexed.
+     */
+    default void endBatch() throws IOException{
+    }
+
     StructureIndexer.ResultEnumeration substructure(String query) throws Exception;
 
     StructureIndexer.ResultEnumeration similarity(String query, double threshold) throws Exception;
 
+    /**
+     * Substructure search reading hits for at most timeoutMillis.
+     * Implementations which can't stop early return all of them.
+     * @param max the most candidates to match, 0 or less for all of them.
+     * @param timeoutMillis how long to read hits for, 0 or less for no limit.
+     */
+    default Enumeration<StructureIndexer.Result> substructure(String query, int max, long timeoutMillis) throws Exception{
+        return substructure(query);
+    }
+
+    /**
+     * Similarity search reading hits for at most timeoutMillis.
+     * Implementations which can't stop early return all of them.
+     * @param max the most candidates to compare, 0 or less for all of them.
+     * @param timeoutMillis how long to read hits for, 0 or less for no limit.
+     */
+    default Enumeration<StructureIndexer.Result> similarity(String query, double threshold, int max, long timeoutMillis) throws Exception{
+        return similarity(query, threshold);
+    }
+
     void shutdown();
 
     long lastModified();
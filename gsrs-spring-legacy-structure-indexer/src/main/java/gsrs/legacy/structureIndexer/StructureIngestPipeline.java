@@ -0,0 +1,223 @@
+package gsrs.legacy.structureIndexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import gov.nih.ncats.molwitch.Chemical;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Adds structures to a {@link StandardizedStructureIndexer} from a pool of
+ * worker threads. Parsing and standardizing, which is most of the work,
+ * happens on the workers and the prepared structures are handed to the
+ * indexer in batches.
+ *
+ * The work queue is bounded, when it's full the thread adding structures
+ * prepares the structure itself. Call {@link #flush()} to wait until
+ * everything submitted so far is in the index. Once closed nothing more
+ * can be submitted and flushing fails instead of waiting.
+ */
+@Slf4j
+class StructureIngestPipeline implements Closeable {
+
+    private static class Prepared {
+        final String id;
+        final Chemical structure;
+
+        Prepared(String id, Chemical structure) {
+            this.id = id;
+            this.structure = structure;
+        }
+    }
+
+    private final Supplier<StandardizedStructureIndexer> indexer;
+    private final ThreadPoolExecutor executor;
+    private final int batchSize;
+
+    private final Object lock = new Object();
+    //guarded by lock
+    private List<Prepared> batch = new ArrayList<>();
+    private int preparing;
+    //batches taken off but not done being added
+    private int adding;
+    private boolean closed;
+
+    //ids that were submitted but aren't in the index yet
+    private final Map<String, Integer> pendingIds = new ConcurrentHashMap<>();
+
+    /**
+     * @param indexer the indexer to add to, a supplier since it's replaced when everything is removed.
+     * @param threads the number of worker threads, 0 or less for one per processor.
+     * @param batchSize how many prepared structures to add to the index at a time.
+     */
+    StructureIngestPipeline(Supplier<StandardizedStructureIndexer> indexer, int threads, int batchSize) {
+        this.indexer = indexer;
+        this.batchSize = Math.max(1, batchSize);
+        int nThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(nThreads * this.batchSize),
+                r -> {
+                    Thread t = new Thread(r, "structure-ingest-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, e) -> {
+                    //CallerRunsPolicy would silently drop it once shut down
+                    if (e.isShutdown()) {
+                        throw new RejectedExecutionException("structure ingest pipeline is closed");
+                    }
+                    r.run();
+                });
+    }
+
+    public void submit(String id, String structure) {
+        submit(id, () -> StandardizedStructureIndexer.getMolecule(structure));
+    }
+
+    public void submit(String id, Chemical structure) {
+        submit(id, () -> structure);
+    }
+
+    private void submit(String id, Supplier<Chemical> parser) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("structure ingest pipeline is closed");
+            }
+            preparing++;
+        }
+        pendingIds.merge(id, 1, Integer::sum);
+        Runnable task = () -> {
+            Prepared prepared = null;
+            try {
+                Chemical c = parser.get();
+                if (c != null) {
+                    prepared = new Prepared(id, StandardizedStructureIndexer.getStandardized(c));
+                }
+            } catch (Throwable e) {
+                log.warn("Trouble preparing structure for index:" + id, e);
+            }
+            List<Prepared> full = null;
+            synchronized (lock) {
+                preparing--;
+                if (prepared != null) {
+                    batch.add(prepared);
+                    if (batch.size() >= batchSize) {
+                        full = takeBatch();
+                    }
+                }
+                lock.notifyAll();
+            }
+            if (prepared == null) {
+                done(id);
+            }
+            if (full != null) {
+                addToIndex(full);
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            //closed after the check above
+            synchronized (lock) {
+                preparing--;
+                lock.notifyAll();
+            }
+            done(id);
+            throw new IllegalStateException("structure ingest pipeline is closed", e);
+        }
+    }
+
+    //must hold lock
+    private List<Prepared> takeBatch() {
+        List<Prepared> full = batch;
+        batch = new ArrayList<>(batchSize);
+        adding++;
+        return full;
+    }
+
+    private void addToIndex(List<Prepared> prepared) {
+        try {
+            StandardizedStructureIndexer current = indexer.get();
+            for (Prepared p : prepared) {
+                try {
+                    current.addStandardized(p.id, p.structure);
+                } catch (Throwable e) {
+                    log.warn("Trouble adding structure to index:" + p.id, e);
+                } finally {
+                    done(p.id);
+                }
+            }
+        } finally {
+            synchronized (lock) {
+                adding--;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void done(String id) {
+        pendingIds.computeIfPresent(id, (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    /**
+     * @return true if a structure with this id was submitted but isn't in the index yet.
+     */
+    public boolean isPending(String id) {
+        return pendingIds.containsKey(id);
+    }
+
+    /**
+     * Wait for every structure submitted so far to be prepared and added to the index.
+     * @throws IOException if the pipeline is closed before that, the structures not yet added never will be.
+     */
+    public void flush() throws IOException {
+        List<Prepared> rest;
+        synchronized (lock) {
+            waitUntil(() -> preparing == 0);
+            rest = takeBatch();
+        }
+        addToIndex(rest);
+        synchronized (lock) {
+            //batches other workers took are still being added
+            waitUntil(() -> adding == 0);
+        }
+    }
+
+    //must hold lock
+    private void waitUntil(BooleanSupplier condition) throws IOException {
+        try {
+            while (!condition.getAsBoolean()) {
+                if (closed) {
+                    throw new IOException("structure ingest pipeline is closed");
+                }
+                lock.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for structures to be indexed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        //queued structures are dropped, nothing is waiting for them anymore
+        executor.shutdownNow();
+        pendingIds.clear();
+    }
+}
@@ -0,0 +1,238 @@
+package gsrs.legacy.structureIndexer;
+
+import java.io.Closeable;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import gov.nih.ncats.molwitch.Chemical;
+import gov.nih.ncats.structureIndexer.StructureIndexer;
+import gov.nih.ncats.structureIndexer.StructureIndexer.ResultEnumeration;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs substructure and similarity searches on a {@link StandardizedStructureIndexer}
+ * using the multi-threaded overloads.
+ *
+ * The standardized form of recent queries is kept so asking for the same
+ * structure again (paging, counting then fetching) doesn't parse and
+ * standardize it again. The matching threads come from one fixed size
+ * structure search pool which should also be given to the {@link StructureIndexer};
+ * each search gets the threads of the pool that aren't busy with other searches.
+ * Hits can be read with a time budget, after which the enumeration
+ * ends even if the search is still going.
+ */
+@Slf4j
+public class StructureSearchFacade implements Closeable {
+
+    private static final String SUBSTRUCTURE = "sss:";
+    private static final String SIMILARITY = "sim:";
+
+    private final Supplier<StandardizedStructureIndexer> indexer;
+    private final ThreadPoolExecutor searchPool;
+    //reads hits off the indexer's enumerations, which block, so these threads don't do the matching
+    private final ExecutorService readerPool;
+
+    private final Map<String, Chemical> standardizedQueries;
+    private final int queryCacheSize;
+
+    /**
+     * @param indexer the indexer to search, a supplier since it's replaced when everything is removed.
+     * @param searchThreads the size of the structure search pool, 0 or less for one per processor.
+     * @param queryCacheSize how many standardized queries to keep, 0 turns that off.
+     */
+    public StructureSearchFacade(Supplier<StandardizedStructureIndexer> indexer, int searchThreads, int queryCacheSize) {
+        this.indexer = indexer;
+        int nThreads = searchThreads > 0 ? searchThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        searchPool = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                //unbounded, the indexer waits on its matching tasks from inside the pool
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "structure-search-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        AtomicInteger readerCount = new AtomicInteger();
+        readerPool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "structure-search-results-" + readerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.queryCacheSize = queryCacheSize;
+        standardizedQueries = new LinkedHashMap<String, Chemical>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Chemical> eldest) {
+                return size() > StructureSearchFacade.this.queryCacheSize;
+            }
+        };
+    }
+
+    /**
+     * The pool to open the {@link StructureIndexer} with so its matching
+     * threads are the ones counted here.
+     */
+    public ExecutorService getSearchPool() {
+        return searchPool;
+    }
+
+    /**
+     * How many matching threads a search started now gets.
+     */
+    public int threadsPerSearch() {
+        int poolSize = searchPool.getMaximumPoolSize();
+        return Math.max(1, poolSize - searchPool.getActiveCount());
+    }
+
+    /**
+     * @param max the most candidates to match, 0 or less for all of them.
+     */
+    public ResultEnumeration substructure(String query, int max) throws Exception {
+        Chemical q = standardized(SUBSTRUCTURE, query, StandardizedStructureIndexer::getSSSStandardized);
+        return indexer.get().getDelegate().substructure(q, max > 0 ? max : -1, threadsPerSearch());
+    }
+
+    /**
+     * @param max the most candidates to match, 0 or less for all of them.
+     * @param timeoutMillis how long to read hits for, 0 or less for no limit.
+     */
+    public TimedResultEnumeration substructure(String query, int max, long timeoutMillis) throws Exception {
+        return stream(substructure(query, max), timeoutMillis);
+    }
+
+    /**
+     * @param max the most candidates to compare, 0 or less for all of them.
+     */
+    public ResultEnumeration similarity(String query, double threshold, int max) throws Exception {
+        Chemical q = standardized(SIMILARITY, query, StandardizedStructureIndexer::getStandardized);
+        return indexer.get().getDelegate().similarity(q, threshold, max > 0 ? max : -1, threadsPerSearch());
+    }
+
+    /**
+     * @param max the most candidates to compare, 0 or less for all of them.
+     * @param timeoutMillis how long to read hits for, 0 or less for no limit.
+     */
+    public TimedResultEnumeration similarity(String query, double threshold, int max, long timeoutMillis) throws Exception {
+        return stream(similarity(query, threshold, max), timeoutMillis);
+    }
+
+    /**
+     * @return a copy of the standardized query, the indexer changes the ones it's given.
+     */
+    private Chemical standardized(String type, String query, Function<Chemical, Chemical> standardizer) {
+        String key = type + query;
+        Chemical cached;
+        synchronized (standardizedQueries) {
+            cached = standardizedQueries.get(key);
+        }
+        if (cached == null) {
+            Chemical mol = StandardizedStructureIndexer.getMolecule(query);
+            if (mol == null) {
+                throw new IllegalArgumentException("could not parse query structure");
+            }
+            cached = standardizer.apply(mol);
+            if (queryCacheSize > 0) {
+                synchronized (standardizedQueries) {
+                    standardizedQueries.put(key, cached);
+                }
+            }
+        }
+        return cached.copy();
+    }
+
+    private TimedResultEnumeration stream(ResultEnumeration hits, long timeoutMillis) {
+        TimedResultEnumeration results = new TimedResultEnumeration(timeoutMillis);
+        readerPool.submit(() -> {
+            try {
+                while (!results.abandoned.get() && hits.hasMoreElements()) {
+                    results.queue.put(Optional.of(hits.nextElement()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.warn("trouble reading structure search results", e);
+            } finally {
+                results.queue.offer(Optional.empty());
+            }
+        });
+        return results;
+    }
+
+    @Override
+    public void close() {
+        readerPool.shutdownNow();
+        searchPool.shutdownNow();
+    }
+
+    /**
+     * The hits of a search in the order they're found, which ends early if
+     * the time budget runs out before the search is done.
+     */
+    public static class TimedResultEnumeration implements Enumeration<StructureIndexer.Result> {
+        private final BlockingQueue<Optional<StructureIndexer.Result>> queue = new LinkedBlockingQueue<>();
+        private final AtomicBoolean abandoned = new AtomicBoolean();
+        private final long deadline;
+        private Optional<StructureIndexer.Result> next;
+        private boolean timedOut;
+
+        TimedResultEnumeration(long timeoutMillis) {
+            this.deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+        }
+
+        private Optional<StructureIndexer.Result> peek() {
+            if (next == null) {
+                try {
+                    if (deadline == 0) {
+                        next = queue.take();
+                    } else {
+                        next = queue.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                        if (next == null) {
+                            timedOut = true;
+                            next = Optional.empty();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    next = Optional.empty();
+                }
+                if (!next.isPresent()) {
+                    //nobody is reading anymore, stop queueing hits
+                    abandoned.set(true);
+                }
+            }
+            return next;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return peek().isPresent();
+        }
+
+        @Override
+        public StructureIndexer.Result nextElement() {
+            StructureIndexer.Result r = peek().orElseThrow(NoSuchElementException::new);
+            next = null;
+            return r;
+        }
+
+        /**
+         * @return true if the enumeration ended because the time ran out
+         * rather than because there were no more hits.
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+    }
+}
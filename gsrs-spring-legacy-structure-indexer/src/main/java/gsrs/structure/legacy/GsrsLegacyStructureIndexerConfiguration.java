@@ -18,9 +18,21 @@ public class GsrsLegacyStructureIndexerConfiguration {
     @Value("${ix.structure.base}")
     private File dir;
 
+    @Value("${ix.structure.search.threads:0}")
+    private int searchThreads;
+
+    @Value("${ix.structure.search.queryCacheSize:100}")
+    private int queryCacheSize;
+
+    @Value("${ix.structure.ingest.threads:0}")
+    private int ingestThreads;
+
+    @Value("${ix.structure.ingest.batchSize:100}")
+    private int ingestBatchSize;
+
     @Bean
     @ConditionalOnMissingBean(StructureIndexerService.class)
     public LegacyStructureIndexerService legacyStructureIndexerService() throws IOException {
-        return new LegacyStructureIndexerService(dir);
+        return new LegacyStructureIndexerService(dir, searchThreads, queryCacheSize, ingestThreads, ingestBatchSize);
     }
 }
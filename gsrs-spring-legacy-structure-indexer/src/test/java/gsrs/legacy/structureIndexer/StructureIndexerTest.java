@@ -18,6 +18,7 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Optional;
 
@@ -161,6 +162,49 @@ public class StructureIndexerTest{
 		structureIndexer.add("1", "CC=CC=CC");
 		assertEquals(1,StreamUtil.forEnumeration(structureIndexer.substructure(structure, 10)).count());
 	}
+
+	@Test
+	public void structuresAddedThroughTheIngestPipelineAreSearchableAfterFlush() throws Exception{
+		StructureIngestPipeline pipeline = new StructureIngestPipeline(()->structureIndexer, 2, 3);
+		try {
+			for (int i = 0; i < 10; i++) {
+				pipeline.submit("id" + i, i % 2 == 0 ? "CC=CC=CC" : "c1ccccc1");
+			}
+			pipeline.submit("bad", "not a structure");
+			pipeline.flush();
+			assertFalse(pipeline.isPending("id0"));
+			assertEquals(5, StreamUtil.forEnumeration(structureIndexer.substructure("CC=C", 10)).count());
+			assertEquals(5, StreamUtil.forEnumeration(structureIndexer.substructure("c1ccccc1", 10)).count());
+		}finally {
+			pipeline.close();
+		}
+	}
+
+	@Test
+	public void closedIngestPipelineRejectsSubmitsAndFlushesWithoutWaiting() throws Exception{
+		StructureIngestPipeline pipeline = new StructureIngestPipeline(()->structureIndexer, 1, 1);
+		pipeline.close();
+		assertThrows(IllegalStateException.class, ()-> pipeline.submit("id", "CC=CC=CC"));
+		assertFalse(pipeline.isPending("id"));
+		assertTimeoutPreemptively(Duration.ofSeconds(10), ()-> pipeline.flush());
+	}
+
+	@Test
+	public void searchFacadeFindsTheSameHitsWithItsCachedQuery() throws Exception{
+		StructureSearchFacade facade = new StructureSearchFacade(()->structureIndexer, 2, 10);
+		try {
+			structureIndexer.add("1", "CC=CC=CC");
+			structureIndexer.add("2", "c1ccccc1");
+			for (int i = 0; i < 2; i++) {
+				StructureSearchFacade.TimedResultEnumeration hits = facade.substructure("CC=C", 0, 60_000);
+				assertEquals(1, StreamUtil.forEnumeration(hits).count());
+				assertFalse(hits.isTimedOut());
+			}
+			assertEquals(1, StreamUtil.forEnumeration(facade.similarity("c1ccccc1", 0.9, 0)).count());
+		}finally {
+			facade.close();
+		}
+	}
 	
 	@Test
 	public void ensureBasicSingleDoubleBondSearchDoesReturnSingleDoubleBondStructure() throws Exception{